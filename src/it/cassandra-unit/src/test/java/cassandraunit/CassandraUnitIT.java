@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package cassandraunit;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.ColumnPath;
+import org.apache.cassandra.thrift.Compression;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.CqlResult;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CassandraUnitIT
+{
+    @Test
+    public void everyRowOfBothDataSetsIsLoaded() throws Exception
+    {
+        TTransport tr = new TFramedTransport(new TSocket("localhost", Integer.getInteger( "rpcPort", 9160 )));
+        TProtocol proto = new TBinaryProtocol(tr);
+        Cassandra.Client client = new Cassandra.Client(proto);
+        tr.open();
+        try
+        {
+            // more rows than a single mutation holds, so that they are inserted over several connections
+            CqlResult result = client.execute_cql3_query(
+                    ByteBufferUtil.bytes("SELECT COUNT(*) FROM cu_users.users LIMIT 100000"), Compression.NONE,
+                    ConsistencyLevel.ONE);
+            assertEquals(250L, ByteBufferUtil.toLong(result.getRows().get(0).getColumns().get(0).bufferForValue()));
+
+            client.set_keyspace("cu_users");
+            assertEquals("name123", ByteBufferUtil.string(client.get(ByteBufferUtil.bytes("user123"),
+                    new ColumnPath("users").setColumn(ByteBufferUtil.bytes("name")), ConsistencyLevel.ONE)
+                    .getColumn().bufferForValue()));
+
+            client.set_keyspace("cu_visits");
+            assertEquals(42L, client.get(ByteBufferUtil.bytes("home"),
+                    new ColumnPath("visits").setColumn(ByteBufferUtil.bytes("hits")), ConsistencyLevel.ONE)
+                    .getCounter_column().getValue());
+            assertEquals(7L, client.get(ByteBufferUtil.bytes("about"),
+                    new ColumnPath("visits").setColumn(ByteBufferUtil.bytes("hits")), ConsistencyLevel.ONE)
+                    .getCounter_column().getValue());
+        } finally
+        {
+            tr.close();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+import java.util.zip.ZipFile
+
+def archive = new File( basedir, 'target/test-maven-plugin-0.1-SNAPSHOT-cassandra-data.zip' )
+assert archive.isFile()
+def zip = new ZipFile( archive )
+def entries = zip.entries().collect { it.name }
+zip.close()
+assert entries.any { it.startsWith( 'export_it/users-' ) && it.endsWith( '-Data.db' ) }
+assert entries.any { it.startsWith( 'system/schema_columnfamilies-' ) }
+assert !entries.any { it.endsWith( 'manifest.json' ) }
+
+// the instance started from the archive has the rows, and not one more
+def rows = new File( basedir, 'target/restored.csv' ).readLines().findAll { it.trim() }
+assert rows.size() == 3
+assert rows.any { it.contains( 'alice@example.com' ) }
+assert rows.any { it.contains( 'bob@example.com' ) }
+return true
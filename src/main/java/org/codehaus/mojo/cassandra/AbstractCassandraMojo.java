@@ -21,6 +21,7 @@ package org.codehaus.mojo.cassandra;
 import org.apache.cassandra.cli.CliMain;
 
 import org.apache.cassandra.tools.NodeTool;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.OS;
 
@@ -28,9 +29,11 @@ import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.ArtifactUtils;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.toolchain.Toolchain;
 import org.apache.maven.toolchain.ToolchainManager;
+import org.cassandraunit.dataset.ParseException;
 import org.codehaus.plexus.component.repository.exception.ComponentLookupException;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
@@ -40,10 +43,13 @@ import org.codehaus.plexus.util.cli.CommandLineUtils;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -222,6 +228,110 @@ public abstract class AbstractCassandraMojo
      */
     protected String stopKey;
 
+    /**
+     * When {@code true}, the goals that start Cassandra pick free ports for {@link #rpcPort}, {@link #storagePort},
+     * {@link #jmxPort}, {@link #nativeTransportPort} and {@link #stopPort} instead of the configured ones, so that
+     * concurrent builds on the same host do not collide. The ports are recorded in {@code ports.properties} in
+     * {@link #cassandraDir}, where the other goals pick them up, and exported as the {@code cassandra.rpcPort},
+     * {@code cassandra.storagePort}, {@code cassandra.jmxPort}, {@code cassandra.nativeTransportPort} and
+     * {@code cassandra.stopPort} project properties, for example for the tests run by failsafe. Not supported by the
+     * cluster goals.
+     *
+     * @parameter expression="${cassandra.allocatePorts}" default-value="false"
+     * @since 2.0.0-5
+     */
+    protected boolean allocatePorts;
+
+    /**
+     * The keyspace of the plugin's own tables, such as the ledger of the {@code migrate} goal and the default table of
+     * the {@code stress} goal, which the {@code reset} goal leaves alone. Created if it does not exist.
+     *
+     * @parameter expression="${cassandra.ledgerKeyspace}" default-value="cassandra_maven_plugin"
+     * @since 2.0.0-5
+     */
+    protected String ledgerKeyspace;
+
+    /**
+     * How long to wait for Cassandra to stop before destroying its process, when a goal has to stop it.
+     *
+     * @parameter expression="${cassandra.stopGraceSeconds}" default-value="30"
+     * @since 2.0.0-5
+     */
+    protected int stopGraceSeconds;
+
+    /**
+     * When {@code true} the goals that start Cassandra ask the monitor listening on the stop port to report as soon as
+     * the daemon is serving, instead of repeatedly probing the RPC port. Has no effect unless a stop port and a stop
+     * key are configured.
+     *
+     * @parameter expression="${cassandra.monitorReadiness}" default-value="true"
+     * @since 2.0.0-5
+     */
+    protected boolean monitorReadiness;
+
+    /**
+     * When {@code true}, a clean {@code start} or {@code run} populates the data directory from a cached template
+     * instead of replaying the load script and the CassandraUnit dataSet. The template is captured from a snapshot
+     * taken right after loading, the first time a given combination of load script, dataSet, yaml and Cassandra
+     * version is started. No template is used when the data directory is not empty, e.g. after {@code write-sstables}.
+     *
+     * @parameter expression="${cassandra.useDataTemplate}" default-value="false"
+     * @since 2.0.0-5
+     */
+    protected boolean useDataTemplate;
+
+    /**
+     * The directory holding the data directory templates. Point this outside of the build directory, e.g. below
+     * {@code ~/.m2}, to share templates between builds.
+     *
+     * @parameter expression="${cassandra.dataTemplateDirectory}" default-value="${project.build.directory}/cassandra-templates"
+     * @since 2.0.0-5
+     */
+    protected File dataTemplateDirectory;
+
+    /**
+     * When {@code true}, {@code start} and {@code run} boot Cassandra inside the Maven JVM, in a class loader of its
+     * own, instead of forking a new JVM. This saves the fork and class loading on every start, at the price of
+     * {@link #maxMemory} being ignored and of the Maven JVM being terminated if Cassandra fails to start up. Only one
+     * embedded instance can run at a time, and it is stopped by the {@code stop} goal as usual.
+     *
+     * @parameter expression="${cassandra.embedded}" default-value="false"
+     * @since 2.0.0-5
+     */
+    protected boolean embedded;
+
+    /**
+     * When {@code true}, the forked Cassandra JVM and the {@code cassandra-cli} and {@code nodetool} launches record
+     * the classes they load on their first run, and later launches map a Class Data Sharing archive built from that
+     * list instead of loading the classes from the jars again. The archives live next to the launcher jars in
+     * {@code bin} and are rebuilt whenever a launcher jar is regenerated. Unsupported JVM options are ignored, so this
+     * is harmless on JVMs without application class data sharing (it needs Java 10+, or Oracle Java 8u40+). Class
+     * data sharing cannot be used together with {@link #addMainClasspath} or {@link #addTestClasspath}.
+     *
+     * @parameter expression="${cassandra.useClassDataSharing}" default-value="false"
+     * @since 2.0.0-5
+     */
+    protected boolean useClassDataSharing;
+
+    /**
+     * A directory, typically on a memory backed file system such as {@code /dev/shm}, to hold the data, commitlog and
+     * saved caches directories instead of {@link #cassandraDir}. Each Cassandra home directory gets its own
+     * sub-directory, which the {@code stop} and {@code delete} goals remove again, so that the memory is handed back
+     * as soon as the instance is gone. When not set, everything is stored in {@link #cassandraDir}.
+     *
+     * @parameter expression="${cassandra.storageDirectory}"
+     * @since 2.0.0-5
+     */
+    protected File storageDirectory;
+
+    /**
+     * The minimum free space, in megabytes, that {@link #storageDirectory} must have for a clean start.
+     *
+     * @parameter expression="${cassandra.storageMinFreeMegabytes}" default-value="256"
+     * @since 2.0.0-5
+     */
+    protected int storageMinFreeMegabytes;
+
     /**
      * Number of megabytes to limit the cassandra JVM to.
      *
@@ -244,6 +354,23 @@ public abstract class AbstractCassandraMojo
      */
     protected Map<String, String> systemPropertyVariables;
 
+    /**
+     * More CassandraUnit dataSets to load along with {@code cuDataSet}, concurrently, by the goals that load one. Each
+     * dataSet must use a keyspace of its own.
+     *
+     * @parameter
+     * @since 2.0.0-5
+     */
+    protected File[] cuDataSets;
+
+    /**
+     * How many CassandraUnit dataSets to parse, and how many connections to insert their rows over, concurrently.
+     *
+     * @parameter expression="${cassandra.cu.load.threads}" default-value="4"
+     * @since 2.0.0-5
+     */
+    protected int cuLoadThreads;
+
     /**
      * Create a jar with just a manifest containing a Main-Class entry for SurefireBooter and a Class-Path entry for
      * all classpath elements. Copied from surefire (ForkConfiguration#createJar())
@@ -269,7 +396,6 @@ public abstract class AbstractCassandraMojo
     protected void createCassandraJar( File jarFile, String mainClass, File cassandraDir )
         throws IOException
     {
-        File conf = new File( cassandraDir, "conf" );
         FileOutputStream fos = null;
         JarOutputStream jos = null;
         try
@@ -284,50 +410,12 @@ public abstract class AbstractCassandraMojo
             // we can't use StringUtils.join here since we need to add a '/' to
             // the end of directory entries - otherwise the jvm will ignore them.
             StringBuilder cp = new StringBuilder();
-            cp.append( new URL( conf.toURI().toASCIIString() ).toExternalForm() );
-            cp.append( ' ' );
-            getLog().debug( "Adding plugin artifact: " + ArtifactUtils.versionlessKey( pluginArtifact ) +
-                                " to the classpath" );
-            cp.append( new URL( pluginArtifact.getFile().toURI().toASCIIString() ).toExternalForm() );
-            cp.append( ' ' );
-
-            for ( Artifact artifact : this.pluginDependencies )
+            for ( URL url : getCassandraClassPath( cassandraDir ) )
             {
-                getLog().debug( "Adding plugin dependency artifact: " + ArtifactUtils.versionlessKey( artifact ) +
-                                    " to the classpath" );
-                // NOTE: if File points to a directory, this entry MUST end in '/'.
-                cp.append( new URL( artifact.getFile().toURI().toASCIIString() ).toExternalForm() );
+                cp.append( url.toExternalForm() );
                 cp.append( ' ' );
             }
 
-            if ( addMainClasspath || addTestClasspath )
-            {
-                if ( addTestClasspath )
-                {
-                    getLog().debug( "Adding: " + testClassesDirectory + " to the classpath" );
-                    cp.append( new URL( testClassesDirectory.toURI().toASCIIString() ).toExternalForm() );
-                    cp.append( ' ' );
-                }
-                if ( addMainClasspath )
-                {
-                    getLog().debug( "Adding: " + classesDirectory + " to the classpath" );
-                    cp.append( new URL( classesDirectory.toURI().toASCIIString() ).toExternalForm() );
-                    cp.append( ' ' );
-                }
-                for ( Artifact artifact : (Set<Artifact>) this.project.getArtifacts() )
-                {
-                    if ( "jar".equals( artifact.getType() ) && !Artifact.SCOPE_PROVIDED.equals( artifact.getScope() )
-                        && ( !Artifact.SCOPE_TEST.equals( artifact.getScope() ) || addTestClasspath ) )
-                    {
-                        getLog().debug( "Adding dependency: " + ArtifactUtils.versionlessKey( artifact ) +
-                                            " to the classpath" );
-                        // NOTE: if File points to a directory, this entry MUST end in '/'.
-                        cp.append( new URL( artifact.getFile().toURI().toASCIIString() ).toExternalForm() );
-                        cp.append( ' ' );
-                    }
-                }
-            }
-
             man.getMainAttributes().putValue( "Manifest-Version", "1.0" );
             man.getMainAttributes().putValue( "Class-Path", cp.toString().trim() );
             man.getMainAttributes().putValue( "Main-Class", mainClass );
@@ -341,6 +429,92 @@ public abstract class AbstractCassandraMojo
         }
     }
 
+    /**
+     * Gets the classpath that Cassandra and its tools run with: the {@code conf} directory (unless class data sharing
+     * is used), the plugin and its dependencies and, if requested, the project's own classpath.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @return the classpath.
+     * @throws IOException if something went wrong.
+     */
+    protected List<URL> getCassandraClassPath( File cassandraDir )
+        throws IOException
+    {
+        List<URL> cp = new ArrayList<URL>();
+        if ( !isClassDataSharing() )
+        {
+            // class data sharing does not allow non-empty directories on the classpath, -Dcassandra.config does it
+            // NOTE: if File points to a directory, this entry MUST end in '/'.
+            cp.add( new URL( new File( cassandraDir, "conf" ).toURI().toASCIIString() ) );
+        }
+        getLog().debug( "Adding plugin artifact: " + ArtifactUtils.versionlessKey( pluginArtifact ) +
+                            " to the classpath" );
+        cp.add( new URL( pluginArtifact.getFile().toURI().toASCIIString() ) );
+
+        for ( Artifact artifact : this.pluginDependencies )
+        {
+            getLog().debug( "Adding plugin dependency artifact: " + ArtifactUtils.versionlessKey( artifact ) +
+                                " to the classpath" );
+            cp.add( new URL( artifact.getFile().toURI().toASCIIString() ) );
+        }
+
+        if ( addMainClasspath || addTestClasspath )
+        {
+            if ( addTestClasspath )
+            {
+                getLog().debug( "Adding: " + testClassesDirectory + " to the classpath" );
+                cp.add( new URL( testClassesDirectory.toURI().toASCIIString() ) );
+            }
+            if ( addMainClasspath )
+            {
+                getLog().debug( "Adding: " + classesDirectory + " to the classpath" );
+                cp.add( new URL( classesDirectory.toURI().toASCIIString() ) );
+            }
+            for ( Artifact artifact : (Set<Artifact>) this.project.getArtifacts() )
+            {
+                if ( "jar".equals( artifact.getType() ) && !Artifact.SCOPE_PROVIDED.equals( artifact.getScope() )
+                    && ( !Artifact.SCOPE_TEST.equals( artifact.getScope() ) || addTestClasspath ) )
+                {
+                    getLog().debug( "Adding dependency: " + ArtifactUtils.versionlessKey( artifact ) +
+                                        " to the classpath" );
+                    cp.add( new URL( artifact.getFile().toURI().toASCIIString() ) );
+                }
+            }
+        }
+        return cp;
+    }
+
+    /**
+     * Computes a digest of the classpath that Cassandra and its tools run with, covering the size and last modified
+     * time of each entry so that re-resolved snapshots count as a change.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @return the digest of the classpath.
+     * @throws IOException if something went wrong.
+     */
+    private String getCassandraClassPathDigest( File cassandraDir )
+        throws IOException
+    {
+        List<Object> inputs = new ArrayList<Object>();
+        for ( URL url : getCassandraClassPath( cassandraDir ) )
+        {
+            File file = FileUtils.toFile( url );
+            inputs.add( url.toExternalForm() );
+            inputs.add( file == null ? null : file.length() + "@" + file.lastModified() );
+        }
+        return Utils.digest( inputs );
+    }
+
+    /**
+     * Gets the versionless key of this plugin.
+     *
+     * @return the {@code groupId:artifactId} of this plugin.
+     */
+    protected String getPluginKey()
+    {
+        return ArtifactUtils.versionlessKey( pluginArtifact );
+    }
+
     /**
      * Creates the cassandra home directory.
      *
@@ -364,10 +538,11 @@ public abstract class AbstractCassandraMojo
     {
         File bin = new File( cassandraDir, "bin" );
         File conf = new File( cassandraDir, "conf" );
-        File data = new File( cassandraDir, "data" );
-        File commitlog = new File( cassandraDir, "commitlog" );
-        File savedCaches = new File( cassandraDir, "saved_caches" );
-        for ( File dir : Arrays.asList( cassandraDir, bin, conf, data, commitlog, savedCaches ) )
+        File storage = prepareStorageDirectory( cassandraDir );
+        File data = new File( storage, "data" );
+        File commitlog = new File( storage, "commitlog" );
+        File savedCaches = new File( storage, "saved_caches" );
+        for ( File dir : Arrays.asList( cassandraDir, bin, conf, storage, data, commitlog, savedCaches ) )
         {
             if ( dir.isFile() )
             {
@@ -386,42 +561,479 @@ public abstract class AbstractCassandraMojo
                 }
             }
         }
+        GeneratedResources generated = new GeneratedResources( cassandraDir );
         File cassandraYaml = new File( conf, "cassandra.yaml" );
-        if ( Utils.shouldGenerateResource( project, cassandraYaml ) )
+        String overrides =
+            getCassandraYamlOverrides( data, commitlog, savedCaches, listenAddress, rpcAddress, initialToken, seeds );
+        String digest = Utils.digest( Arrays.asList( getClass().getResource( "/cassandra.yaml" ), yaml, overrides ) );
+        if ( !generated.isUpToDate( cassandraYaml, digest ) )
         {
             getLog().debug( ( cassandraYaml.isFile() ? "Updating " : "Creating " ) + cassandraYaml );
-            createCassandraYaml( cassandraYaml, data, commitlog, savedCaches, listenAddress, rpcAddress, initialToken,
-                                 seeds );
+            createCassandraYaml( cassandraYaml, overrides );
+            generated.generated( cassandraYaml, digest );
         }
-        File log4jServerProperties = new File( conf, "log4j-server.properties" );
-        if ( Utils.shouldGenerateResource( project, log4jServerProperties ) )
+        URL log4jProperties = getClass().getResource( "/log4j.properties" );
+        digest = Utils.digest( Arrays.asList( log4jProperties ) );
+        for ( File log4jFile : Arrays.asList( new File( conf, "log4j-server.properties" ),
+                                              new File( conf, "log4j-client.properties" ) ) )
         {
-            getLog().debug( ( log4jServerProperties.isFile() ? "Updating " : "Creating " ) + log4jServerProperties );
-            FileUtils.copyURLToFile( getClass().getResource( "/log4j.properties" ), log4jServerProperties );
+            if ( !generated.isUpToDate( log4jFile, digest ) )
+            {
+                getLog().debug( ( log4jFile.isFile() ? "Updating " : "Creating " ) + log4jFile );
+                FileUtils.copyURLToFile( log4jProperties, log4jFile );
+                generated.generated( log4jFile, digest );
+            }
         }
-        File log4jClientProperties = new File( conf, "log4j-client.properties" );
-        if ( Utils.shouldGenerateResource( project, log4jClientProperties ) )
+        File cassandraJar = new File( bin, "cassandra.jar" );
+        File cassandraCliJar = new File( bin, "cassandra-cli.jar" );
+        File nodetoolJar = new File( bin, "nodetool.jar" );
+        Map<File, String> mainClasses = new LinkedHashMap<File, String>();
+        mainClasses.put( cassandraJar, CassandraMonitor.class.getName() );
+        mainClasses.put( cassandraCliJar, CliMain.class.getName() );
+        mainClasses.put( nodetoolJar, NodeTool.class.getName() );
+        String classPathDigest = getCassandraClassPathDigest( cassandraDir );
+        for ( Map.Entry<File, String> jar : mainClasses.entrySet() )
         {
-            getLog().debug( ( log4jClientProperties.isFile() ? "Updating " : "Creating " ) + log4jClientProperties );
-            FileUtils.copyURLToFile( getClass().getResource( "/log4j.properties" ), log4jClientProperties );
+            digest = Utils.digest( Arrays.asList( jar.getValue(), classPathDigest ) );
+            if ( !generated.isUpToDate( jar.getKey(), digest ) )
+            {
+                getLog().debug( ( jar.getKey().isFile() ? "Updating " : "Creating " ) + jar.getKey() );
+                createCassandraJar( jar.getKey(), jar.getValue(), cassandraDir );
+                generated.generated( jar.getKey(), digest );
+            }
         }
-        File cassandraJar = new File( bin, "cassandra.jar" );
-        if ( Utils.shouldGenerateResource( project, cassandraJar ) )
+        generated.save();
+        if ( isClassDataSharing() )
         {
-            getLog().debug( ( cassandraJar.isFile() ? "Updating " : "Creating " ) + cassandraJar );
-            createCassandraJar( cassandraJar, CassandraMonitor.class.getName(), cassandraDir );
+            for ( File jar : Arrays.asList( cassandraJar, cassandraCliJar, nodetoolJar ) )
+            {
+                updateClassDataSharingArchive( cassandraDir, jar );
+            }
         }
-        File cassandraCliJar = new File( bin, "cassandra-cli.jar" );
-        if ( Utils.shouldGenerateResource( project, cassandraCliJar ) )
+    }
+
+    /**
+     * Gets the directory holding the data, commitlog and saved caches directories of a Cassandra home directory.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @return the storage directory, which is the home directory itself unless {@link #storageDirectory} is set.
+     * @throws IOException if something goes wrong.
+     */
+    protected File getStorageDirectory( File cassandraDir )
+        throws IOException
+    {
+        if ( storageDirectory == null )
         {
-            getLog().debug( ( cassandraCliJar.isFile() ? "Updating " : "Creating " ) + cassandraCliJar );
-            createCassandraJar( cassandraCliJar, CliMain.class.getName(), cassandraDir );
+            return cassandraDir;
         }
-        File nodetoolJar = new File( bin, "nodetool.jar" );
-        if ( Utils.shouldGenerateResource( project, nodetoolJar ) )
+        String name = cassandraDir.getName() + "-" + Utils.digest(
+            Arrays.asList( cassandraDir.getAbsolutePath() ) ).substring( 0, 8 );
+        return new File( storageDirectory, name );
+    }
+
+    /**
+     * Returns {@code true} if starting Cassandra in a Cassandra home directory will be a clean start, i.e. one of an
+     * instance that has never run. The system keyspace is what tells, as the data directory may already hold SSTables
+     * written offline by the {@code write-sstables} goal.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @return {@code true} if starting Cassandra in the Cassandra home directory will be a clean start.
+     * @throws IOException if something goes wrong.
+     */
+    protected boolean isCleanStart( File cassandraDir )
+        throws IOException
+    {
+        return !cassandraDir.isDirectory()
+            || !new File( new File( getStorageDirectory( cassandraDir ), "data" ), "system" ).isDirectory();
+    }
+
+    /**
+     * Picks the ports of the instance about to be started in {@link #cassandraDir} when {@link #allocatePorts} is
+     * set, reusing the ports recorded by an earlier start if they are all still free, and records them for the other
+     * goals. Otherwise forgets the ports recorded by an earlier start, so that the configured ones are used again.
+     *
+     * @throws MojoExecutionException if the ports could not be allocated or recorded.
+     */
+    protected void allocatePorts()
+        throws MojoExecutionException
+    {
+        File file = new File( cassandraDir, Utils.PORTS_FILE );
+        if ( !allocatePorts )
+        {
+            if ( file.isFile() && !file.delete() )
+            {
+                throw new MojoExecutionException( "Could not delete " + file );
+            }
+            return;
+        }
+        String[] addresses = { rpcAddress, listenAddress, "0.0.0.0", rpcAddress, listenAddress };
+        try
+        {
+            if ( !loadAllocatedPorts()
+                || !( Utils.isPortFree( addresses[0], rpcPort ) && Utils.isPortFree( addresses[1], storagePort )
+                && Utils.isPortFree( addresses[2], jmxPort ) && Utils.isPortFree( addresses[3], nativeTransportPort )
+                && Utils.isPortFree( addresses[4], stopPort ) ) )
+            {
+                int[] ports = Utils.findFreePorts( addresses );
+                rpcPort = ports[0];
+                storagePort = ports[1];
+                jmxPort = ports[2];
+                nativeTransportPort = ports[3];
+                stopPort = ports[4];
+            }
+            recordPorts( getPortProperties() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not allocate ports: " + e.getLocalizedMessage(), e );
+        }
+        getLog().info( "Allocated ports rpc=" + rpcPort + ", storage=" + storagePort + ", jmx=" + jmxPort
+                           + ", native transport=" + nativeTransportPort + ", stop=" + stopPort );
+    }
+
+    /**
+     * Switches to the ports recorded in {@link #cassandraDir} by a goal that allocated them, if any, exporting them as
+     * project properties. Goals talking to a running instance call this before using any port.
+     *
+     * @return {@code true} if there were recorded ports.
+     * @throws MojoExecutionException if the recorded ports could not be read.
+     */
+    protected boolean loadAllocatedPorts()
+        throws MojoExecutionException
+    {
+        Properties properties = Utils.readAllocatedPorts( cassandraDir );
+        if ( properties == null )
+        {
+            return false;
+        }
+        usePorts( properties );
+        getLog().debug( "Using the ports recorded in " + cassandraDir );
+        return true;
+    }
+
+    /**
+     * Switches to the ports allocated to an instance started by another module, recording them in
+     * {@link #cassandraDir} so that the other goals of this module use them too.
+     *
+     * @param properties the allocated ports.
+     * @throws MojoExecutionException if the ports could not be recorded.
+     */
+    protected void useAllocatedPorts( Properties properties )
+        throws MojoExecutionException
+    {
+        usePorts( properties );
+        try
         {
-            getLog().debug( ( nodetoolJar.isFile() ? "Updating " : "Creating " ) + nodetoolJar );
-            createCassandraJar( nodetoolJar, NodeTool.class.getName(), cassandraDir );
+            recordPorts( properties );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not record ports: " + e.getLocalizedMessage(), e );
+        }
+    }
+
+    /**
+     * Gets the ports allocated to the instance started in {@link #cassandraDir}.
+     *
+     * @return the allocated ports, or {@code null} if the instance runs on the configured ones.
+     */
+    protected Properties getAllocatedPorts()
+    {
+        return allocatePorts ? getPortProperties() : null;
+    }
+
+    private void usePorts( Properties properties )
+    {
+        rpcPort = Integer.parseInt( properties.getProperty( "cassandra.rpcPort" ) );
+        storagePort = Integer.parseInt( properties.getProperty( "cassandra.storagePort" ) );
+        jmxPort = Integer.parseInt( properties.getProperty( "cassandra.jmxPort" ) );
+        nativeTransportPort = Integer.parseInt( properties.getProperty( "cassandra.nativeTransportPort" ) );
+        stopPort = Integer.parseInt( properties.getProperty( "cassandra.stopPort" ) );
+        project.getProperties().putAll( properties );
+    }
+
+    private void recordPorts( Properties properties )
+        throws IOException
+    {
+        cassandraDir.mkdirs();
+        OutputStream out = new FileOutputStream( new File( cassandraDir, Utils.PORTS_FILE ) );
+        try
+        {
+            properties.store( out, "Ports allocated by the cassandra-maven-plugin" );
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+        project.getProperties().putAll( properties );
+    }
+
+    private Properties getPortProperties()
+    {
+        Properties properties = new Properties();
+        properties.setProperty( "cassandra.rpcPort", Integer.toString( rpcPort ) );
+        properties.setProperty( "cassandra.storagePort", Integer.toString( storagePort ) );
+        properties.setProperty( "cassandra.jmxPort", Integer.toString( jmxPort ) );
+        properties.setProperty( "cassandra.nativeTransportPort", Integer.toString( nativeTransportPort ) );
+        properties.setProperty( "cassandra.stopPort", Integer.toString( stopPort ) );
+        return properties;
+    }
+
+    /**
+     * Gets the storage directory of a Cassandra home directory, checking that there is enough space for a new one and
+     * recording where it is so that the {@code stop} and {@code delete} goals can remove it.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @return the storage directory.
+     * @throws IOException if something goes wrong or there is not enough space for a new storage directory.
+     */
+    private File prepareStorageDirectory( File cassandraDir )
+        throws IOException
+    {
+        File storage = getStorageDirectory( cassandraDir );
+        File previous = Utils.getStorageDirectory( cassandraDir );
+        if ( !previous.equals( storage ) && !previous.equals( cassandraDir ) )
+        {
+            // the configuration has changed since the storage directory was created
+            Utils.deleteStorageDirectory( cassandraDir, getLog() );
+        }
+        if ( storage.equals( cassandraDir ) || storage.isDirectory() )
+        {
+            return storage;
+        }
+        if ( !storageDirectory.isDirectory() )
+        {
+            throw new IOException( "The storage directory " + storageDirectory + " does not exist" );
+        }
+        long free = storageDirectory.getUsableSpace() / ( 1024L * 1024L );
+        if ( free < storageMinFreeMegabytes )
+        {
+            throw new IOException( "Only " + free + "MB are free in " + storageDirectory + ", at least "
+                                       + storageMinFreeMegabytes + "MB are needed (see storageMinFreeMegabytes)" );
+        }
+        getLog().info( "Storing data, commitlog and saved caches in " + storage + " (" + free + "MB free)" );
+        if ( !cassandraDir.isDirectory() && !cassandraDir.mkdirs() )
+        {
+            throw new IOException( "Could not create directory " + cassandraDir );
+        }
+        FileUtils.fileWrite( new File( cassandraDir, Utils.STORAGE_LOCATION_FILE ).getAbsolutePath(),
+                             storage.getAbsolutePath() );
+        return storage;
+    }
+
+    /**
+     * Returns {@code true} if the launches should use class data sharing.
+     *
+     * @return {@code true} if the launches should use class data sharing.
+     */
+    protected boolean isClassDataSharing()
+    {
+        return useClassDataSharing && !addMainClasspath && !addTestClasspath;
+    }
+
+    /**
+     * Builds the class data sharing archive of a launcher jar once a launch of the jar has recorded the classes it
+     * loads. Archives and class lists older than their jar are discarded, so that they are recorded again.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @param jar          the launcher jar.
+     */
+    private void updateClassDataSharingArchive( File cassandraDir, File jar )
+    {
+        File classList = new File( jar.getPath() + ".classlist" );
+        File archive = new File( jar.getPath() + ".jsa" );
+        File failed = new File( jar.getPath() + ".jsa.failed" );
+        for ( File file : Arrays.asList( classList, archive, failed ) )
+        {
+            if ( file.isFile() && file.lastModified() < jar.lastModified() )
+            {
+                getLog().debug( "Deleting " + file + " as it is older than " + jar );
+                file.delete();
+            }
+        }
+        if ( archive.isFile() || failed.isFile() || !classList.isFile() )
+        {
+            return;
+        }
+        getLog().info( "Creating class data sharing archive " + archive + "..." );
+        CommandLine commandLine = newJavaCommandLine();
+        commandLine.addArgument( "-XX:+IgnoreUnrecognizedVMOptions" );
+        commandLine.addArgument( "-XX:+UnlockCommercialFeatures" );
+        commandLine.addArgument( "-XX:+UseAppCDS" );
+        commandLine.addArgument( "-Xshare:dump" );
+        commandLine.addArgument( "-XX:SharedClassListFile=" + classList.getAbsolutePath(), false );
+        commandLine.addArgument( "-XX:SharedArchiveFile=" + archive.getAbsolutePath(), false );
+        commandLine.addArgument( "-cp" );
+        commandLine.addArgument( jar.getAbsolutePath(), false );
+        int rv;
+        try
+        {
+            rv = Utils.runLoadScript( cassandraDir, commandLine, createEnvironmentVars(), getLog() );
+        }
+        catch ( MojoExecutionException e )
+        {
+            getLog().debug( e );
+            rv = -1;
+        }
+        if ( rv != 0 || !archive.isFile() )
+        {
+            // remembered until the jar changes, so that every launch does not try again
+            getLog().warn( "Could not create class data sharing archive " + archive + ", this JVM may not support it" );
+            archive.delete();
+            try
+            {
+                FileUtils.fileWrite( failed.getAbsolutePath(), Integer.toString( rv ) );
+            }
+            catch ( IOException e )
+            {
+                getLog().debug( e );
+            }
+        }
+    }
+
+    /**
+     * Adds the options that make a launch of a launcher jar use its class data sharing archive, or record the classes
+     * it loads if there is no archive yet.
+     *
+     * @param commandLine the command line to add the options to.
+     * @param jar         the launcher jar.
+     */
+    protected void addClassDataSharingArguments( CommandLine commandLine, File jar )
+    {
+        if ( !isClassDataSharing() )
+        {
+            return;
+        }
+        File classList = new File( jar.getPath() + ".classlist" );
+        File archive = new File( jar.getPath() + ".jsa" );
+        commandLine.addArgument( "-XX:+IgnoreUnrecognizedVMOptions" );
+        if ( archive.isFile() )
+        {
+            commandLine.addArgument( "-XX:+UnlockCommercialFeatures" );
+            commandLine.addArgument( "-XX:+UseAppCDS" );
+            // falls back to loading the classes if the archive cannot be mapped
+            commandLine.addArgument( "-Xshare:auto" );
+            commandLine.addArgument( "-XX:SharedArchiveFile=" + archive.getAbsolutePath(), false );
+        }
+        else if ( !classList.isFile() && !new File( jar.getPath() + ".jsa.failed" ).isFile() )
+        {
+            commandLine.addArgument( "-XX:DumpLoadedClassList=" + classList.getAbsolutePath(), false );
+        }
+    }
+
+    /**
+     * Gets the data directory template matching what a clean start would load.
+     *
+     * @param script    the load script that would be run, or {@code null} if none.
+     * @param cuDataSet the CassandraUnit dataSet that would be loaded, or {@code null} if none.
+     * @return the data directory template, or {@code null} if the data directory already holds files, such as the
+     *         SSTables of the {@code write-sstables} goal, which the template would neither hold nor be keyed on.
+     * @throws IOException if the inputs could not be read.
+     */
+    protected DataTemplate getDataTemplate( File script, File cuDataSet )
+        throws IOException
+    {
+        File data = new File( getStorageDirectory( cassandraDir ), "data" );
+        String[] files = data.list();
+        if ( files != null && files.length > 0 )
+        {
+            getLog().info( "Not using a data template, as the data directory " + data + " is not empty." );
+            return null;
+        }
+        List<Object> inputs = new ArrayList<Object>(
+            Arrays.asList( FBUtilities.getReleaseVersionString(), getClass().getResource( "/cassandra.yaml" ), yaml,
+                           script, cuDataSet ) );
+        if ( cuDataSet != null && cuDataSets != null )
+        {
+            inputs.addAll( Arrays.asList( cuDataSets ) );
+        }
+        String key = Utils.digest( inputs );
+        return new DataTemplate( new File( dataTemplateDirectory, key ) );
+    }
+
+    /**
+     * Gets the CassandraUnit dataSets to load.
+     *
+     * @param cuDataSet the dataSet of the goal, which is left out if it does not exist.
+     * @return {@code cuDataSet} followed by {@link #cuDataSets}.
+     */
+    protected List<File> getCassandraUnitDataSets( File cuDataSet )
+    {
+        List<File> dataSets = new ArrayList<File>();
+        if ( cuDataSet != null && cuDataSet.isFile() )
+        {
+            dataSets.add( cuDataSet );
+        }
+        if ( cuDataSets != null )
+        {
+            dataSets.addAll( Arrays.asList( cuDataSets ) );
+        }
+        return dataSets;
+    }
+
+    /**
+     * Loads CassandraUnit dataSets concurrently into the instance.
+     *
+     * @param dataSets the dataSets.
+     * @throws ParseException         if a dataSet could not be parsed.
+     * @throws MojoExecutionException if a dataSet could not be loaded.
+     */
+    protected void loadCassandraUnitDataSets( List<File> dataSets )
+        throws ParseException, MojoExecutionException
+    {
+        new CassandraUnitLoader( rpcAddress, rpcPort, cuLoadThreads, getLog() ).load( dataSets );
+    }
+
+    /**
+     * Creates the cassandra home directory with its data directory populated from a data directory template.
+     *
+     * @param template the template to populate the data directory from.
+     * @throws IOException if something goes wrong.
+     */
+    protected void restoreDataTemplate( DataTemplate template )
+        throws IOException
+    {
+        createCassandraHome();
+        int files = template.restore( new File( getStorageDirectory( cassandraDir ), "data" ) );
+        getLog().info( "Populated the data directory with " + files + " files from data template "
+                           + template.getDirectory() + "." );
+    }
+
+    /**
+     * Captures a data directory template from the running instance. Failing to capture is not fatal, as the
+     * instance itself is fully loaded, so problems are only logged.
+     *
+     * @param template the template to capture.
+     * @throws IOException if there are issues creating the cassandra home directory.
+     * @throws MojoExecutionException if nodetool could not be run.
+     */
+    protected void captureDataTemplate( DataTemplate template )
+        throws IOException, MojoExecutionException
+    {
+        getLog().info( "Capturing data template " + template.getDirectory() + "..." );
+        int rv = Utils.runLoadScript( cassandraDir,
+                                      newNodetoolCommandLine( "snapshot", "-t", DataTemplate.SNAPSHOT_TAG ),
+                                      createEnvironmentVars(), getLog() );
+        if ( rv != 0 )
+        {
+            getLog().warn( "Could not snapshot Cassandra (nodetool exited with error code " + rv
+                               + "), the data template was not captured" );
+            return;
+        }
+        try
+        {
+            int files = template.capture( new File( getStorageDirectory( cassandraDir ), "data" ) );
+            getLog().info( "Captured " + files + " files into data template " + template.getDirectory() + "." );
+        }
+        catch ( IOException e )
+        {
+            getLog().warn( "Could not capture data template " + template.getDirectory(), e );
+        }
+        finally
+        {
+            Utils.runLoadScript( cassandraDir,
+                                 newNodetoolCommandLine( "clearsnapshot", "-t", DataTemplate.SNAPSHOT_TAG ),
+                                 createEnvironmentVars(), getLog() );
         }
     }
 
@@ -429,35 +1041,31 @@ public abstract class AbstractCassandraMojo
      * Generates the {@code cassandra.yaml} file.
      *
      * @param cassandraYaml the {@code cassandra.yaml} file.
-     * @param data          The data directory.
-     * @param commitlog     The commitlog directory.
-     * @param savedCaches   The saved caches directory.
+     * @param overrides     The settings that override the defaults and the {@link #yaml} configuration.
      * @throws IOException If something went wrong.
      */
-    private void createCassandraYaml( File cassandraYaml, File data, File commitlog, File savedCaches )
+    private void createCassandraYaml( File cassandraYaml, String overrides )
         throws IOException
     {
-        createCassandraYaml( cassandraYaml, data, commitlog, savedCaches, listenAddress, rpcAddress, null,
-                             new String[]{ listenAddress } );
+        String defaults = IOUtil.toString( getClass().getResourceAsStream( "/cassandra.yaml" ) );
+        FileUtils.fileWrite( cassandraYaml.getAbsolutePath(),
+                             Utils.merge( Utils.merge( defaults, yaml ), overrides ) );
     }
 
     /**
-     * Generates the {@code cassandra.yaml} file.
+     * Gets the {@code cassandra.yaml} settings that the plugin configuration overrides.
      *
-     * @param cassandraYaml the {@code cassandra.yaml} file.
      * @param data          The data directory.
      * @param commitlog     The commitlog directory.
      * @param savedCaches   The saved caches directory.
      * @param listenAddress The address to listen on for storage and other cassandra servers.
      * @param rpcAddress    The address to listen on for clients.
      * @param seeds         The seeds.
-     * @throws IOException If something went wrong.
+     * @return the overriding settings in yaml format.
      */
-    private void createCassandraYaml( File cassandraYaml, File data, File commitlog, File savedCaches,
-                                      String listenAddress, String rpcAddress, BigInteger initialToken, String[] seeds )
-        throws IOException
+    private String getCassandraYamlOverrides( File data, File commitlog, File savedCaches, String listenAddress,
+                                              String rpcAddress, BigInteger initialToken, String[] seeds )
     {
-        String defaults = IOUtil.toString( getClass().getResourceAsStream( "/cassandra.yaml" ) );
         StringBuilder config = new StringBuilder();
         config.append( "data_file_directories:\n" ).append( "    - " ).append( data.getAbsolutePath() ).append( "\n" );
         config.append( "commitlog_directory: " ).append( commitlog ).append( "\n" );
@@ -486,8 +1094,7 @@ public abstract class AbstractCassandraMojo
                 config.append( "\"" ).append( "\n" );
             }
         }
-        FileUtils.fileWrite( cassandraYaml.getAbsolutePath(),
-                             Utils.merge( Utils.merge( defaults, yaml ), config.toString() ) );
+        return config.toString();
     }
 
     /**
@@ -625,6 +1232,10 @@ public abstract class AbstractCassandraMojo
             commandLine.addArgument( "-D" + CassandraMonitor.PORT_PROPERTY_NAME + "=" + stopPort );
             commandLine.addArgument( "-D" + CassandraMonitor.HOST_PROPERTY_NAME + "=" + listenAddress );
         }
+        commandLine.addArgument( "-D" + CassandraMonitor.LOCK_PROPERTY_NAME + "=" + getInstanceLockFile( cassandraDir )
+            .getAbsolutePath(), false );
+        commandLine.addArgument( "-Dcassandra.config=" + new File( new File( cassandraDir, "conf" ),
+                                                                   "cassandra.yaml" ).toURI().toURL().toString() );
         commandLine.addArgument( "-Dlog4j.configuration=" + new File( new File( cassandraDir, "conf" ),
                                                                       "log4j-server.properties" ).toURI().toURL().toString() );
         commandLine.addArgument( "-Dcom.sun.management.jmxremote=" + jmxRemoteEnabled );
@@ -643,14 +1254,51 @@ public abstract class AbstractCassandraMojo
             }
         }
 
+        File cassandraJar = new File( new File( cassandraDir, "bin" ), "cassandra.jar" );
+        addClassDataSharingArguments( commandLine, cassandraJar );
         commandLine.addArgument( "-jar" );
         // It seems that java cannot handle quoted jar file names...
-        commandLine.addArgument( new File( new File( cassandraDir, "bin" ), "cassandra.jar" ).getAbsolutePath(),
-                                 false );
+        commandLine.addArgument( cassandraJar.getAbsolutePath(), false );
 
         return commandLine;
     }
 
+    /**
+     * Boots the cassandra server inside this JVM. Returns once the server is serving clients.
+     *
+     * @throws IOException            if there are issues creating the cassandra home directory.
+     * @throws MojoExecutionException if the server could not be started.
+     */
+    protected void startEmbeddedCassandraServer()
+        throws IOException, MojoExecutionException
+    {
+        createCassandraHome();
+        File conf = new File( cassandraDir, "conf" );
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        properties.put( "cassandra.config", new File( conf, "cassandra.yaml" ).toURI().toURL().toExternalForm() );
+        // otherwise the daemon closes System.out and System.err once started
+        properties.put( "cassandra-foreground", "yes" );
+        properties.put( "log4j.configuration",
+                        new File( conf, "log4j-server.properties" ).toURI().toURL().toExternalForm() );
+        if ( systemPropertyVariables != null )
+        {
+            properties.putAll( systemPropertyVariables );
+        }
+        EmbeddedCassandra.start( rpcAddress, rpcPort, getCassandraClassPath( cassandraDir ), properties,
+                                 getInstanceLockFile( cassandraDir ), jmxPort, getLog() );
+    }
+
+    /**
+     * Gets the file that a running Cassandra server locks for as long as its JVM is alive.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @return the lock file of the Cassandra home directory.
+     */
+    protected File getInstanceLockFile( File cassandraDir )
+    {
+        return new File( cassandraDir, "cassandra.lock" );
+    }
+
     /**
      * Creates the command line to launch the {@code cassandra-cli} utility.
      *
@@ -663,10 +1311,11 @@ public abstract class AbstractCassandraMojo
     {
         createCassandraHome();
         CommandLine commandLine = newJavaCommandLine();
+        File cliJar = new File( new File( cassandraDir, "bin" ), "cassandra-cli.jar" );
+        addClassDataSharingArguments( commandLine, cliJar );
         commandLine.addArgument( "-jar" );
         // It seems that java cannot handle quoted jar file names...
-        commandLine.addArgument( new File( new File( cassandraDir, "bin" ), "cassandra-cli.jar" ).getAbsolutePath(),
-                                 false );
+        commandLine.addArgument( cliJar.getAbsolutePath(), false );
         commandLine.addArgument( "--host" );
         commandLine.addArgument( rpcAddress );
         commandLine.addArgument( "--port" );
@@ -689,9 +1338,11 @@ public abstract class AbstractCassandraMojo
     {
         createCassandraHome();
         CommandLine commandLine = newJavaCommandLine();
+        File nodetoolJar = new File( new File( cassandraDir, "bin" ), "nodetool.jar" );
+        addClassDataSharingArguments( commandLine, nodetoolJar );
         commandLine.addArgument( "-jar" );
         // It seems that java cannot handle quoted jar file names...
-        commandLine.addArgument( new File( new File( cassandraDir, "bin" ), "nodetool.jar" ).getAbsolutePath(), false );
+        commandLine.addArgument( nodetoolJar.getAbsolutePath(), false );
         commandLine.addArgument( "--host" );
         commandLine.addArgument( "127.0.0.1" );
         commandLine.addArgument( "--port" );
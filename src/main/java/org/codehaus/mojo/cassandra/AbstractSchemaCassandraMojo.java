@@ -33,6 +33,7 @@ public abstract class AbstractSchemaCassandraMojo extends AbstractCassandraMojo
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException 
     {
+        loadAllocatedPorts();
         try 
         {
             parseArguments();
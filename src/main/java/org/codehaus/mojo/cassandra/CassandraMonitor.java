@@ -20,13 +20,20 @@ package org.codehaus.mojo.cassandra;
 
 
 import org.apache.cassandra.service.CassandraDaemon;
+import org.apache.cassandra.service.StorageService;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.FileLock;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * A Monitor for controlling the Cassandra process.
@@ -41,10 +48,51 @@ public class CassandraMonitor extends Thread
 
     public static final String KEY_PROPERTY_NAME = "STOP.KEY";
 
+    public static final String LOCK_PROPERTY_NAME = "INSTANCE.LOCK";
+
+    /**
+     * The command asking the monitor to stop the daemon. The monitor replies with {@link #STOPPING_REPLY} followed by
+     * the process id and leaves the connection open, so that it is closed when the JVM exits.
+     */
+    public static final String STOP_COMMAND = "stop";
+
+    /**
+     * The reply sent in response to {@link #STOP_COMMAND}.
+     */
+    public static final String STOPPING_REPLY = "stopping";
+
+    /**
+     * The command asking the monitor to drain the daemon, i.e. to flush everything and stop accepting writes, and to
+     * reply with {@link #DRAINED_REPLY} once it is done.
+     */
+    public static final String DRAIN_COMMAND = "drain";
+
+    /**
+     * The reply sent in response to {@link #DRAIN_COMMAND}.
+     */
+    public static final String DRAINED_REPLY = "drained";
+
+    /**
+     * The command asking the monitor to reply with {@link #STARTED_REPLY} once the daemon is serving.
+     */
+    public static final String READY_COMMAND = "ready";
+
+    /**
+     * The reply sent in response to {@link #READY_COMMAND}.
+     */
+    public static final String STARTED_REPLY = "started";
+
     private final String key;
 
+    private final CountDownLatch started = new CountDownLatch(1);
+
     private ServerSocket serverSocket;
 
+    /**
+     * The lock held on the Cassandra home directory for as long as this JVM runs.
+     */
+    private static FileLock instanceLock;
+
     /**
      * Creates a CassandraMonitor bound to the specified port on the localhost interface using the supplied key.
      *
@@ -76,22 +124,19 @@ public class CassandraMonitor extends Thread
                 if (this.key.equals(key))
                 {
                     String cmd = lin.readLine();
-                    if ("stop".equals(cmd))
+                    if (STOP_COMMAND.equals(cmd))
                     {
                         try
                         {
-                            socket.close();
+                            OutputStream out = socket.getOutputStream();
+                            out.write((STOPPING_REPLY + " " + getProcessId() + "\r\n").getBytes());
+                            out.flush();
                         } catch (IOException e)
                         {
-                            // ignore
-                        }
-                        try
-                        {
-                            socket.close();
-                        } catch (IOException e)
-                        {
-                            // ignore
+                            // the client will find out when the connection is closed
                         }
+                        // the socket is deliberately left open, it is closed when the JVM exits
+                        socket = null;
                         try
                         {
                             serverSocket.close();
@@ -102,6 +147,16 @@ public class CassandraMonitor extends Thread
                         serverSocket = null;
                         System.out.println("Killing Cassandra");
                         System.exit(0);
+                    } else if (READY_COMMAND.equals(cmd))
+                    {
+                        replyWhenStarted(socket);
+                        // the socket now belongs to the reply thread
+                        socket = null;
+                    } else if (DRAIN_COMMAND.equals(cmd))
+                    {
+                        drainAndReply(socket);
+                        // the socket now belongs to the drain thread
+                        socket = null;
                     } else
                     {
                         System.out.println("Unsupported monitor operation.");
@@ -127,6 +182,104 @@ public class CassandraMonitor extends Thread
         }
     }
 
+    /**
+     * Replies to a {@link #READY_COMMAND} on a separate thread, so that the monitor can keep accepting commands (such
+     * as stop) while the daemon is still starting.
+     *
+     * @param socket the socket to reply on, closed once the reply has been sent.
+     */
+    private void replyWhenStarted(final Socket socket)
+    {
+        Thread reply = new Thread("Cassandra monitor ready reply")
+        {
+            public void run()
+            {
+                try
+                {
+                    started.await();
+                    OutputStream out = socket.getOutputStream();
+                    out.write((STARTED_REPLY + "\r\n").getBytes());
+                    out.flush();
+                } catch (InterruptedException e)
+                {
+                    // ignore
+                } catch (IOException e)
+                {
+                    // the client has given up waiting
+                } finally
+                {
+                    try
+                    {
+                        socket.close();
+                    } catch (IOException e)
+                    {
+                        // ignore
+                    }
+                }
+            }
+        };
+        reply.setDaemon(true);
+        reply.start();
+    }
+
+    /**
+     * Drains the daemon on a separate thread, so that the monitor can keep accepting commands, and replies once done.
+     *
+     * @param socket the socket to reply on, closed once the reply has been sent.
+     */
+    private void drainAndReply(final Socket socket)
+    {
+        Thread drain = new Thread("Cassandra monitor drain")
+        {
+            public void run()
+            {
+                try
+                {
+                    started.await();
+                    StorageService.instance.drain();
+                    OutputStream out = socket.getOutputStream();
+                    out.write((DRAINED_REPLY + "\r\n").getBytes());
+                    out.flush();
+                } catch (Exception e)
+                {
+                    e.printStackTrace();
+                } finally
+                {
+                    try
+                    {
+                        socket.close();
+                    } catch (IOException e)
+                    {
+                        // ignore
+                    }
+                }
+            }
+        };
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    /**
+     * Gets the id of this process.
+     *
+     * @return the id of this process, or an empty string if it cannot be determined.
+     */
+    private static String getProcessId()
+    {
+        // the name of the runtime is pid@hostname on all the JVMs that matter
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        int index = name.indexOf('@');
+        return index > 0 ? name.substring(0, index) : "";
+    }
+
+    /**
+     * Signals that the daemon has finished starting up and is serving clients.
+     */
+    public void daemonStarted()
+    {
+        started.countDown();
+    }
+
     /**
      * Starts the {@link CassandraMonitor} and then delegates to {@link CassandraDaemon}.
      *
@@ -135,16 +288,32 @@ public class CassandraMonitor extends Thread
      */
     public static void main(String[] args) throws IOException
     {
+        String lock = System.getProperty(LOCK_PROPERTY_NAME);
+        if (lock != null)
+        {
+            // released by the operating system when this JVM exits, which is what the next instance waits for
+            instanceLock = new RandomAccessFile(new File(lock), "rw").getChannel().tryLock();
+            if (instanceLock == null)
+            {
+                System.out.println("Another Cassandra instance is holding " + lock);
+            }
+        }
         String host = System.getProperty(HOST_PROPERTY_NAME, "127.0.0.1");
         String property = System.getProperty(PORT_PROPERTY_NAME);
         String key = System.getProperty(KEY_PROPERTY_NAME);
+        CassandraMonitor monitor = null;
         if (property != null && key != null)
         {
             int port = Integer.parseInt(property);
-            CassandraMonitor monitor = new CassandraMonitor(host, port, key);
+            monitor = new CassandraMonitor(host, port, key);
             monitor.setDaemon(true);
             monitor.start();
         }
+        // returns once the thrift and native transport servers are listening (it exits the JVM on failure)
         CassandraDaemon.main(args);
+        if (monitor != null)
+        {
+            monitor.daemonStarted();
+        }
     }
 }
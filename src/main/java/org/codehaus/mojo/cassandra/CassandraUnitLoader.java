@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import me.prettyprint.hector.api.ddl.ColumnType;
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.CounterColumn;
+import org.apache.cassandra.thrift.CounterSuperColumn;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SuperColumn;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.cassandraunit.DataLoader;
+import org.cassandraunit.LoadingOption;
+import org.cassandraunit.dataset.DataSet;
+import org.cassandraunit.dataset.FileDataSet;
+import org.cassandraunit.dataset.ParseException;
+import org.cassandraunit.model.ColumnFamilyModel;
+import org.cassandraunit.model.ColumnModel;
+import org.cassandraunit.model.RowModel;
+import org.cassandraunit.model.SuperColumnModel;
+import org.cassandraunit.serializer.GenericTypeSerializer;
+import org.cassandraunit.type.GenericType;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads CassandraUnit dataSets faster than {@link DataLoader}, which inserts all the rows of a dataSet in a single
+ * mutation over a single connection. The dataSets are parsed concurrently, their schemas are then created one after
+ * the other by {@link DataLoader}, and their rows are finally inserted in chunks of {@link #ROWS_PER_MUTATION} rows by
+ * a pool of connections, which take the chunks of all the column families of all the dataSets from a shared queue.
+ */
+class CassandraUnitLoader
+{
+    /**
+     * How many rows to insert in a single mutation.
+     */
+    private static final int ROWS_PER_MUTATION = 100;
+
+    private final String rpcAddress;
+
+    private final int rpcPort;
+
+    private final int threads;
+
+    private final Log log;
+
+    /**
+     * Creates a loader.
+     *
+     * @param rpcAddress the address of the Thrift interface.
+     * @param rpcPort    the port of the Thrift interface.
+     * @param threads    how many dataSets to parse and how many connections to insert rows over concurrently.
+     * @param log        the log to report progress to.
+     */
+    CassandraUnitLoader( String rpcAddress, int rpcPort, int threads, Log log )
+    {
+        this.rpcAddress = rpcAddress;
+        this.rpcPort = rpcPort;
+        this.threads = Math.max( 1, threads );
+        this.log = log;
+    }
+
+    /**
+     * Loads dataSets, dropping their keyspaces first if they exist.
+     *
+     * @param files the dataSets, each with a keyspace of its own.
+     * @throws ParseException         if a dataSet could not be parsed.
+     * @throws MojoExecutionException if a dataSet could not be loaded.
+     */
+    void load( List<File> files )
+        throws ParseException, MojoExecutionException
+    {
+        long timeStamp = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            List<Future<DataSet>> parsed = new ArrayList<Future<DataSet>>( files.size() );
+            for ( final File file : files )
+            {
+                parsed.add( executor.submit( new Callable<DataSet>()
+                {
+                    public DataSet call()
+                        throws ParseException
+                    {
+                        return new FileDataSet( file.getAbsolutePath() );
+                    }
+                } ) );
+            }
+            List<DataSet> dataSets = new ArrayList<DataSet>( files.size() );
+            for ( Future<DataSet> future : parsed )
+            {
+                dataSets.add( getResult( future ) );
+            }
+
+            // schema changes are serialised by Cassandra anyway
+            DataLoader dataLoader = new DataLoader( "cassandraUnitCluster", rpcAddress + ":" + rpcPort );
+            LoadingOption schemaOnly = new LoadingOption();
+            schemaOnly.setOnlySchema( true );
+            Set<String> keyspaces = new HashSet<String>();
+            final Queue<Chunk> chunks = new ConcurrentLinkedQueue<Chunk>();
+            for ( int i = 0; i < dataSets.size(); i++ )
+            {
+                DataSet dataSet = dataSets.get( i );
+                String keyspace = dataSet.getKeyspace().getName();
+                if ( !keyspaces.add( keyspace ) )
+                {
+                    // loading a dataSet drops its keyspace, and with it the column families of the previous one
+                    throw new MojoExecutionException(
+                        "CassandraUnit dataSet " + files.get( i ) + " uses keyspace " + keyspace
+                            + " as another dataSet does" );
+                }
+                dataLoader.load( dataSet, schemaOnly );
+                for ( ColumnFamilyModel columnFamily : dataSet.getColumnFamilies() )
+                {
+                    List<RowModel> rows = columnFamily.getRows();
+                    for ( int start = 0; start < rows.size(); start += ROWS_PER_MUTATION )
+                    {
+                        int end = Math.min( rows.size(), start + ROWS_PER_MUTATION );
+                        chunks.add( new Chunk( keyspace, columnFamily, rows.subList( start, end ) ) );
+                    }
+                }
+            }
+
+            final AtomicLong inserted = new AtomicLong();
+            int workers = Math.max( 1, Math.min( threads, chunks.size() ) );
+            List<Future<Void>> futures = new ArrayList<Future<Void>>( workers );
+            for ( int i = 0; i < workers; i++ )
+            {
+                futures.add( executor.submit( new Callable<Void>()
+                {
+                    public Void call()
+                        throws MojoExecutionException
+                    {
+                        Utils.executeThrift( new InsertOperation( chunks, inserted ) );
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Void> future : futures )
+            {
+                getResult( future );
+            }
+            log.info( "Loaded " + inserted + " rows of " + files.size() + " CassandraUnit dataSet(s) in "
+                          + ( ( System.currentTimeMillis() - timeStamp ) / 100L ) / 10.0 + "s" );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new MojoExecutionException( "Interrupted while loading CassandraUnit dataSets", e );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T getResult( Future<T> future )
+        throws InterruptedException, ParseException, MojoExecutionException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof ParseException )
+            {
+                throw (ParseException) e.getCause();
+            }
+            if ( e.getCause() instanceof MojoExecutionException )
+            {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException( e.getCause().getLocalizedMessage(), e.getCause() );
+        }
+    }
+
+    /**
+     * Converts the columns of a row to Thrift columns.
+     */
+    private static List<Column> toColumns( List<ColumnModel> models, long timestamp )
+    {
+        GenericTypeSerializer serializer = GenericTypeSerializer.get();
+        List<Column> columns = new ArrayList<Column>( models.size() );
+        for ( ColumnModel model : models )
+        {
+            columns.add( new Column( serializer.toByteBuffer( model.getName() ) ).setValue(
+                toValue( model.getValue() ) ).setTimestamp( timestamp ) );
+        }
+        return columns;
+    }
+
+    private static List<CounterColumn> toCounterColumns( List<ColumnModel> models )
+    {
+        GenericTypeSerializer serializer = GenericTypeSerializer.get();
+        List<CounterColumn> columns = new ArrayList<CounterColumn>( models.size() );
+        for ( ColumnModel model : models )
+        {
+            columns.add( new CounterColumn( serializer.toByteBuffer( model.getName() ),
+                                            ByteBufferUtil.toLong( toValue( model.getValue() ) ) ) );
+        }
+        return columns;
+    }
+
+    private static ByteBuffer toValue( GenericType value )
+    {
+        return value == null ? ByteBufferUtil.EMPTY_BYTE_BUFFER : GenericTypeSerializer.get().toByteBuffer( value );
+    }
+
+    /**
+     * Consecutive rows of a column family.
+     */
+    private static class Chunk
+    {
+        final String keyspace;
+
+        final ColumnFamilyModel columnFamily;
+
+        final List<RowModel> rows;
+
+        Chunk( String keyspace, ColumnFamilyModel columnFamily, List<RowModel> rows )
+        {
+            this.keyspace = keyspace;
+            this.columnFamily = columnFamily;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Inserts chunks from a shared queue until it is empty, over a single connection.
+     */
+    private class InsertOperation
+        extends ThriftApiOperation
+    {
+        private final Queue<Chunk> queue;
+
+        private final AtomicLong inserted;
+
+        InsertOperation( Queue<Chunk> queue, AtomicLong inserted )
+        {
+            super( rpcAddress, rpcPort );
+            this.queue = queue;
+            this.inserted = inserted;
+        }
+
+        void executeOperation( Cassandra.Client client )
+            throws ThriftApiExecutionException
+        {
+            String keyspace = null;
+            for ( Chunk chunk = queue.poll(); chunk != null; chunk = queue.poll() )
+            {
+                try
+                {
+                    if ( !chunk.keyspace.equals( keyspace ) )
+                    {
+                        client.set_keyspace( chunk.keyspace );
+                        keyspace = chunk.keyspace;
+                    }
+                    client.batch_mutate( toMutations( chunk ), ConsistencyLevel.ONE );
+                }
+                catch ( Exception e )
+                {
+                    throw new ThriftApiExecutionException( e );
+                }
+                inserted.addAndGet( chunk.rows.size() );
+                log.debug( "Inserted " + chunk.rows.size() + " rows into " + chunk.keyspace + "."
+                               + chunk.columnFamily.getName() );
+            }
+        }
+
+        private Map<ByteBuffer, Map<String, List<Mutation>>> toMutations( Chunk chunk )
+        {
+            GenericTypeSerializer serializer = GenericTypeSerializer.get();
+            boolean counter = chunk.columnFamily.isCounter();
+            boolean superColumns = ColumnType.SUPER.equals( chunk.columnFamily.getType() );
+            long timestamp = System.currentTimeMillis() * 1000L;
+            Map<ByteBuffer, Map<String, List<Mutation>>> mutations =
+                new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+            for ( RowModel row : chunk.rows )
+            {
+                List<ColumnOrSuperColumn> columns = new ArrayList<ColumnOrSuperColumn>();
+                if ( superColumns )
+                {
+                    for ( SuperColumnModel superColumn : row.getSuperColumns() )
+                    {
+                        ByteBuffer name = serializer.toByteBuffer( superColumn.getName() );
+                        if ( counter )
+                        {
+                            columns.add( new ColumnOrSuperColumn().setCounter_super_column(
+                                new CounterSuperColumn( name, toCounterColumns( superColumn.getColumns() ) ) ) );
+                        }
+                        else
+                        {
+                            columns.add( new ColumnOrSuperColumn().setSuper_column(
+                                new SuperColumn( name, toColumns( superColumn.getColumns(), timestamp ) ) ) );
+                        }
+                    }
+                }
+                else if ( counter )
+                {
+                    for ( CounterColumn column : toCounterColumns( row.getColumns() ) )
+                    {
+                        columns.add( new ColumnOrSuperColumn().setCounter_column( column ) );
+                    }
+                }
+                else
+                {
+                    for ( Column column : toColumns( row.getColumns(), timestamp ) )
+                    {
+                        columns.add( new ColumnOrSuperColumn().setColumn( column ) );
+                    }
+                }
+                List<Mutation> rowMutations = new ArrayList<Mutation>( columns.size() );
+                for ( ColumnOrSuperColumn column : columns )
+                {
+                    rowMutations.add( new Mutation().setColumn_or_supercolumn( column ) );
+                }
+                ByteBuffer key = serializer.toByteBuffer( row.getKey() );
+                Map<String, List<Mutation>> columnFamilies = mutations.get( key );
+                if ( columnFamilies == null )
+                {
+                    columnFamilies = new HashMap<String, List<Mutation>>();
+                    mutations.put( key, columnFamilies );
+                }
+                List<Mutation> existing = columnFamilies.get( chunk.columnFamily.getName() );
+                if ( existing == null )
+                {
+                    columnFamilies.put( chunk.columnFamily.getName(), rowMutations );
+                }
+                else
+                {
+                    existing.addAll( rowMutations );
+                }
+            }
+            return mutations;
+        }
+    }
+}
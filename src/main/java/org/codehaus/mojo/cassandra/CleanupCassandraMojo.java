@@ -45,6 +45,7 @@ public class CleanupCassandraMojo extends AbstractCassandraMojo
             getLog().info("Skipping cassandra: cassandra.skip==true");
             return;
         }
+        loadAllocatedPorts();
         try
         {
             Map environment = createEnvironmentVars();
@@ -5,28 +5,49 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.ColumnSpecification;
+import org.apache.cassandra.cql3.ResultSet;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.TypeParser;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.exceptions.SyntaxException;
+import org.apache.cassandra.service.pager.PagingState;
 import org.apache.cassandra.thrift.Column;
 import org.apache.cassandra.thrift.Compression;
+import org.apache.cassandra.thrift.CqlMetadata;
 import org.apache.cassandra.thrift.CqlResult;
 import org.apache.cassandra.thrift.CqlRow;
 import org.apache.cassandra.thrift.Cassandra.Client;
 import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.transport.messages.ResultMessage;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.codehaus.plexus.util.FileUtils;
-import org.codehaus.plexus.util.IOUtil;
 
 /**
  * Executes cql statements from maven.
@@ -77,9 +98,73 @@ public class CqlExecCassandraMojo extends AbstractCassandraMojo {
    */
   protected String cqlVersion = "2.0.0";
 
+  /**
+   * How many independent statements to run at once. Statements other than INSERT, UPDATE, DELETE and BATCH, as well
+   * as statements preceded by a <code>-- @barrier</code> comment, are barriers: they run on their own, in script
+   * order, once every statement before them has completed. The data manipulation statements between two barriers
+   * are spread over this many connections and run in no particular order. Their failures are collected and reported
+   * together before the next barrier, which is then not run.
+   *
+   * @parameter expression="${cassandra.cql.concurrency}" default-value="1"
+   * @since 2.0.0-5
+   */
+  protected int concurrency;
+
+  /**
+   * The protocol to run the statements over: <code>thrift</code>, or <code>native</code> for the CQL native protocol,
+   * which needs the native transport to be started. Over the native protocol, the INSERT, UPDATE, DELETE, BATCH and
+   * SELECT statements that only differ by their literals run as one prepared statement with bound values, and
+   * <code>concurrency</code> is how many requests are kept in flight, each on a connection of its own, with further
+   * statements held back until one completes. Only CQL 3 runs over the native protocol.
+   *
+   * @parameter expression="${cassandra.cql.protocol}" default-value="thrift"
+   * @since 2.0.0-5
+   */
+  protected String protocol;
+
+  /**
+   * The file to write the rows returned by the statements to, as they arrive, instead of logging them.
+   *
+   * @parameter expression="${cassandra.cql.resultFile}"
+   * @since 2.0.0-5
+   */
+  protected File resultFile;
+
+  /**
+   * The format of <code>resultFile</code>: <code>csv</code>, with a header record each time the columns change, or
+   * <code>json</code> for one JSON object per row and line.
+   *
+   * @parameter expression="${cassandra.cql.resultFormat}" default-value="csv"
+   * @since 2.0.0-5
+   */
+  protected String resultFormat;
+
+  /**
+   * How many rows of a SELECT statement to fetch at a time over the native protocol, so that large results are
+   * written out page by page instead of being held in memory whole. Zero or less fetches all rows at once. Over
+   * Thrift, the rows of a statement always come at once.
+   *
+   * @parameter expression="${cassandra.cql.pageSize}" default-value="1000"
+   * @since 2.0.0-5
+   */
+  protected int pageSize;
+
+  private static final Pattern BARRIER_PATTERN = Pattern.compile("^\\s*--\\s*@barrier\\b", Pattern.MULTILINE);
+
+  private static final Pattern COMMENT_PATTERN = Pattern.compile("(--|//)[^\\n]*|/\\*.*?\\*/", Pattern.DOTALL);
+
+  private static final List<String> DML_VERBS = Arrays.asList("INSERT", "UPDATE", "DELETE", "BEGIN");
+
+  /*
+   * How many statements may be waiting for a worker connection, per connection.
+   */
+  private static final int QUEUED_PER_CONNECTION = 64;
+
   private AbstractType<?> comparatorVal;
   private AbstractType<?> keyValidatorVal;
   private AbstractType<?> defaultValidatorVal;
+  private final Map<String, AbstractType<?>> resultTypes = new HashMap<String, AbstractType<?>>();
+  private ResultWriter resultWriter;
 
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
@@ -88,6 +173,7 @@ public class CqlExecCassandraMojo extends AbstractCassandraMojo {
           getLog().info("Skipping cassandra: cassandra.skip==true");
           return;
       }
+      loadAllocatedPorts();
       try
       {
           comparatorVal = TypeParser.parse(comparator);
@@ -101,106 +187,697 @@ public class CqlExecCassandraMojo extends AbstractCassandraMojo {
       {
         throw new MojoExecutionException("Could not parse comparator value: " + comparator, e);
       }
-      List<CqlExecOperation> cqlOps = new ArrayList<CqlExecOperation>();
+      if (!"thrift".equals(protocol) && !"native".equals(protocol))
+      {
+          throw new MojoExecutionException("Unsupported protocol '" + protocol + "', use thrift or native");
+      }
+      Reader source;
       if (cqlScript != null && cqlScript.isFile())
       {
-          FileReader fr = null;
           try
           {
-              fr = new FileReader(cqlScript);
-              cqlStatement = IOUtil.toString(fr);
+              source = new FileReader(cqlScript);
           } catch (FileNotFoundException e)
           {
               throw new MojoExecutionException("Cql file '" + cqlScript + "' was deleted before I could read it", e);
-          } catch (IOException e)
-          {
-              throw new MojoExecutionException("Could not parse or load cql file", e);
-          } finally
-          {
-              IOUtil.close(fr);
           }
-      }
-
-      if (StringUtils.isBlank(cqlStatement))
+      } else if (StringUtils.isBlank(cqlStatement))
       {
           getLog().warn("No CQL provided. Nothing to do.");
+          return;
       } else
       {
-          // TODO accept keyFormat, columnFormat, valueFormat
-          // ^ are these relevant on file load?
-          if (cqlStatement.contains(";"))
+          source = new StringReader(cqlStatement);
+      }
+      // TODO accept keyFormat, columnFormat, valueFormat
+      // ^ are these relevant on file load?
+      CqlStatementReader statements = new CqlStatementReader(source);
+      try
+      {
+          if (resultFile != null)
           {
-              for (String op : StringUtils.split(cqlStatement, ";"))
+              try
+              {
+                  resultWriter = new ResultWriter(resultFile, resultFormat);
+              } catch (IOException e)
+              {
+                  throw new MojoExecutionException("Could not create result file " + resultFile, e);
+              } catch (IllegalArgumentException e)
               {
-                  cqlOps.add(doExec(op));
+                  throw new MojoExecutionException(e.getMessage());
               }
+          }
+          if ("native".equals(protocol))
+          {
+              doNativeExec(statements);
           } else
           {
-              cqlOps.add(doExec(cqlStatement));
+              doExec(statements);
+          }
+          if (resultWriter != null)
+          {
+              resultWriter.close();
+              getLog().info("Wrote " + resultWriter.getRowCount() + " row(s) to " + resultFile);
           }
-          printResults(cqlOps);
+      } catch (IOException e)
+      {
+          throw new MojoExecutionException("Could not write results to " + resultFile, e);
+      } finally
+      {
+          Utils.closeQuietly(statements);
+          Utils.closeQuietly(resultWriter);
+          resultWriter = null;
       }
   }
 
   /*
-   * Encapsulate print of CqlResult. Uses specified configuration options to format results
+   * Encapsulate print of CqlResult. Formats the names and values with the types the result schema gives for each
+   * column, falling back to the configured comparator and defaultValidator, and releases the rows once printed.
    */
-  private void printResults(List<CqlExecOperation> cqlOps)
+  private void printResults(CqlExecOperation cqlExecOperation) throws IOException
   {
+      CqlMetadata schema = cqlExecOperation.result != null ? cqlExecOperation.result.getSchema() : null;
+      List<String> names = new ArrayList<String>();
+      List<AbstractType<?>> types = new ArrayList<AbstractType<?>>();
+      List<ByteBuffer> values = new ArrayList<ByteBuffer>();
       // TODO fix ghetto formatting
-      getLog().info("-----------------------------------------------");
-      for (CqlExecOperation cqlExecOperation : cqlOps)
+      while ( cqlExecOperation.hasNext() )
       {
-          while ( cqlExecOperation.hasNext() )
+          CqlRow cqlRow = cqlExecOperation.next();
+          if (resultWriter != null)
           {
-              CqlRow cqlRow = cqlExecOperation.next();
-              getLog().info("Row key: "+keyValidatorVal.getString(cqlRow.key));
-              getLog().info("-----------------------------------------------");
-              for (Column column : cqlRow.getColumns() )
+              names.clear();
+              types.clear();
+              values.clear();
+              for (Column column : cqlRow.getColumns())
               {
-                  getLog().info(" name: "+comparatorVal.getString(column.name));
-                  getLog().info(" value: "+defaultValidatorVal.getString(column.value));
-                  getLog().info("-----------------------------------------------");
+                  names.add(getNameType(schema, column.name).getString(column.name));
+                  types.add(getValueType(schema, column.name));
+                  values.add(column.value);
               }
+              resultWriter.write(names, types, values);
+              continue;
+          }
+          getLog().info("Row key: "+keyValidatorVal.getString(cqlRow.key));
+          getLog().info("-----------------------------------------------");
+          for (Column column : cqlRow.getColumns() )
+          {
+              getLog().info(" name: "+getNameType(schema, column.name).getString(column.name));
+              getLog().info(" value: "+(column.value == null ? "null"
+                  : getValueType(schema, column.name).getString(column.value)));
+              getLog().info("-----------------------------------------------");
+          }
 
+      }
+      cqlExecOperation.result = null;
+      cqlExecOperation.rowIter = null;
+  }
+
+  private AbstractType<?> getNameType(CqlMetadata schema, ByteBuffer name)
+  {
+      return schema == null ? comparatorVal
+          : getResultType(schema.getName_types(), schema.getDefault_name_type(), name, comparatorVal);
+  }
+
+  private AbstractType<?> getValueType(CqlMetadata schema, ByteBuffer name)
+  {
+      return schema == null ? defaultValidatorVal
+          : getResultType(schema.getValue_types(), schema.getDefault_value_type(), name, defaultValidatorVal);
+  }
+
+  /*
+   * The type a result schema gives for a column, parsed once per run.
+   */
+  private AbstractType<?> getResultType(Map<ByteBuffer, String> columnTypes, String defaultType, ByteBuffer name,
+                                        AbstractType<?> fallback)
+  {
+      String type = columnTypes != null && columnTypes.containsKey(name) ? columnTypes.get(name) : defaultType;
+      if (type == null)
+      {
+          return fallback;
+      }
+      AbstractType<?> parsed = resultTypes.get(type);
+      if (parsed == null)
+      {
+          try
+          {
+              parsed = TypeParser.parse(type);
+          } catch (ConfigurationException e)
+          {
+              parsed = fallback;
+          } catch (SyntaxException e)
+          {
+              parsed = fallback;
           }
+          resultTypes.put(type, parsed);
       }
+      return parsed;
   }
 
   /*
-   * Encapsulate op execution for file vs. statement
+   * Runs the statements over a single connection, as opening a connection and setting the keyspace and cql version
+   * costs more than running most statements, handing the independent ones to worker connections when concurrency is
+   * above 1.
    */
-  private CqlExecOperation doExec(String cqlStatement) throws MojoExecutionException
+  private void doExec(CqlStatementReader statements) throws MojoExecutionException
   {
-      CqlExecOperation cqlOp = new CqlExecOperation(rpcAddress, rpcPort, cqlStatement);
       if ( StringUtils.isNotBlank(keyspace))
       {
           getLog().info("setting keyspace: " + keyspace);
-          cqlOp.setKeyspace(keyspace);
       }
       getLog().info("setting cqlversion: " + cqlVersion);
-      cqlOp.setCqlVersion( cqlVersion );
+      if (concurrency > 1)
+      {
+          getLog().info("Running independent statements on " + concurrency + " connections");
+      }
+      getLog().info("-----------------------------------------------");
+      ExecutorService executor = concurrency > 1 ? Executors.newFixedThreadPool(concurrency) : null;
+      CqlScriptOperation scriptOp = new CqlScriptOperation(rpcAddress, rpcPort, statements, executor);
+      scriptOp.setKeyspace(keyspace);
+      scriptOp.setCqlVersion(cqlVersion);
+      long start = System.nanoTime();
       try
       {
-          Utils.executeThrift(cqlOp);
+          Utils.executeThrift(scriptOp);
       } catch (ThriftApiExecutionException taee)
       {
           throw new MojoExecutionException(taee.getMessage(), taee);
+      } finally
+      {
+          if (executor != null)
+          {
+              executor.shutdownNow();
+          }
+      }
+      if (scriptOp.readFailure != null)
+      {
+          throw new MojoExecutionException("Could not parse or load cql file", scriptOp.readFailure);
+      }
+      if (scriptOp.writeFailure != null)
+      {
+          throw new MojoExecutionException("Could not write results to " + resultFile, scriptOp.writeFailure);
+      }
+      checkErrors(scriptOp.errors);
+      long elapsed = Math.max(1L, (System.nanoTime() - start) / 1000000L);
+      getLog().info("Executed " + scriptOp.count + " statement(s) in " + elapsed + "ms ("
+          + (scriptOp.count * 1000L / elapsed) + " statements/s)");
+  }
+
+  private void checkErrors(List<String> errors) throws MojoExecutionException
+  {
+      if (!errors.isEmpty())
+      {
+          for (String error : errors.subList(0, Math.min(errors.size(), 20)))
+          {
+              getLog().error(error);
+          }
+          if (errors.size() > 20)
+          {
+              getLog().error("... and " + (errors.size() - 20) + " more");
+          }
+          throw new MojoExecutionException(errors.size() + " CQL statement(s) failed, the first one with: "
+              + errors.get(0));
+      }
+  }
+
+  /*
+   * Runs the statements over the native protocol, the barriers over a single connection and, when concurrency is
+   * above 1, the independent statements between them over worker connections fed from a bounded queue.
+   */
+  private void doNativeExec(CqlStatementReader statements) throws MojoExecutionException
+  {
+      if (!startNativeTransport)
+      {
+          getLog().warn("startNativeTransport is false, the native transport may not be listening");
+      }
+      if ( StringUtils.isNotBlank(keyspace))
+      {
+          getLog().info("setting keyspace: " + keyspace);
+      }
+      getLog().info("Running statements over the native protocol with up to " + Math.max(1, concurrency)
+          + " request(s) in flight");
+      getLog().info("-----------------------------------------------");
+      List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+      AtomicInteger prepared = new AtomicInteger();
+      ExecutorService executor = concurrency > 1 ? Executors.newFixedThreadPool(concurrency) : null;
+      NativeWorkers workers = null;
+      NativeCqlSession session;
+      try
+      {
+          session = new NativeCqlSession(rpcAddress, nativeTransportPort, keyspace);
+      } catch (IOException e)
+      {
+          throw new MojoExecutionException("Could not connect to the native transport on " + rpcAddress + ":"
+              + nativeTransportPort, e);
+      }
+      String currentKeyspace = keyspace;
+      int count = 0;
+      long start = System.nanoTime();
+      try
+      {
+          for (String statement = statements.readStatement(); statement != null;
+               statement = statements.readStatement())
+          {
+              count++;
+              if (executor != null && !isBarrier(statement))
+              {
+                  if (workers == null)
+                  {
+                      workers = new NativeWorkers(executor, currentKeyspace, errors, prepared);
+                  }
+                  workers.submit(statement, statements.getLineNumber());
+                  continue;
+              }
+              if (workers != null)
+              {
+                  workers.await();
+                  workers = null;
+                  if (!errors.isEmpty())
+                  {
+                      break;
+                  }
+              }
+              try
+              {
+                  printResults(session, statement);
+              } catch (RuntimeException e)
+              {
+                  getLog().error("Statement at line " + statements.getLineNumber() + " failed");
+                  throw new MojoExecutionException(NativeClients.describe(e), e);
+              } catch (IOException e)
+              {
+                  throw new MojoExecutionException("Could not write results to " + resultFile, e);
+              }
+              if (getUsedKeyspace(statement) != null)
+              {
+                  currentKeyspace = getUsedKeyspace(statement);
+              }
+          }
+          if (workers != null)
+          {
+              workers.await();
+          }
+      } catch (IOException e)
+      {
+          throw new MojoExecutionException("Could not parse or load cql file", e);
+      } catch (InterruptedException e)
+      {
+          throw new MojoExecutionException("Interrupted while running CQL statements", e);
+      } finally
+      {
+          if (executor != null)
+          {
+              executor.shutdownNow();
+          }
+          prepared.addAndGet(session.getPreparedExecutions());
+          session.close();
+      }
+      checkErrors(errors);
+      long elapsed = Math.max(1L, (System.nanoTime() - start) / 1000000L);
+      getLog().info("Executed " + count + " statement(s), " + prepared.get() + " as prepared statements, in "
+          + elapsed + "ms (" + (count * 1000L / elapsed) + " statements/s)");
+  }
+
+  /*
+   * Runs a statement over the native protocol and prints its rows, fetching those of a SELECT statement a page at a
+   * time so that only one page is held in memory.
+   */
+  private void printResults(NativeCqlSession session, String statement) throws IOException
+  {
+      int fetchSize = pageSize > 0 && NativeCqlSession.isPagingSupported()
+          && "SELECT".equals(NativeCqlSession.getVerb(statement)) ? pageSize : -1;
+      PagingState pagingState = null;
+      do
+      {
+          ResultMessage result = session.execute(statement, fetchSize, pagingState);
+          if (!(result instanceof ResultMessage.Rows))
+          {
+              return;
+          }
+          printResults(((ResultMessage.Rows) result).result);
+          pagingState = fetchSize > 0 ? NativeCqlSession.getPagingState((ResultMessage.Rows) result) : null;
+      } while (pagingState != null);
+  }
+
+  /*
+   * Print of a page of native protocol rows, each value formatted with the type of its column.
+   */
+  private void printResults(ResultSet resultSet) throws IOException
+  {
+      List<String> names = new ArrayList<String>(resultSet.metadata.names.size());
+      List<AbstractType<?>> types = new ArrayList<AbstractType<?>>(resultSet.metadata.names.size());
+      for (ColumnSpecification column : resultSet.metadata.names)
+      {
+          names.add(column.name.toString());
+          types.add(column.type);
+      }
+      for (List<ByteBuffer> row : resultSet.rows)
+      {
+          if (resultWriter != null)
+          {
+              resultWriter.write(names, types, row);
+              continue;
+          }
+          for (int i = 0; i < row.size(); i++)
+          {
+              ColumnSpecification column = resultSet.metadata.names.get(i);
+              getLog().info(" name: " + column.name);
+              getLog().info(" value: " + (row.get(i) == null ? "null" : column.type.getString(row.get(i))));
+          }
+          getLog().info("-----------------------------------------------");
+      }
+  }
+
+  /*
+   * The worker connections running a run of independent statements over the native protocol, each connection taking
+   * the next statement from a bounded queue once its previous request has completed.
+   */
+  class NativeWorkers {
+
+      final Object[] end = new Object[0];
+      final BlockingQueue<Object[]> queue = new ArrayBlockingQueue<Object[]>(concurrency * QUEUED_PER_CONNECTION);
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(concurrency);
+
+      NativeWorkers(ExecutorService executor, final String keyspace, final List<String> errors,
+                    final AtomicInteger prepared)
+      {
+          for (int i = 0; i < concurrency; i++)
+          {
+              futures.add(executor.submit(new Callable<Void>()
+              {
+                  public Void call() throws IOException, InterruptedException
+                  {
+                      NativeCqlSession session = new NativeCqlSession(rpcAddress, nativeTransportPort, keyspace);
+                      try
+                      {
+                          for (Object[] item = queue.take(); item != end; item = queue.take())
+                          {
+                              try
+                              {
+                                  session.execute((String) item[0]);
+                              } catch (RuntimeException e)
+                              {
+                                  errors.add("Statement at line " + item[1] + ": " + NativeClients.describe(e));
+                              }
+                          }
+                      } finally
+                      {
+                          prepared.addAndGet(session.getPreparedExecutions());
+                          session.close();
+                      }
+                      return null;
+                  }
+              }));
+          }
+      }
+
+      void submit(String statement, int line) throws InterruptedException, MojoExecutionException
+      {
+          offer(new Object[]{statement, line});
+      }
+
+      /*
+       * Waits for the queued statements to complete and closes the worker connections.
+       */
+      void await() throws InterruptedException, MojoExecutionException
+      {
+          for (int i = 0; i < futures.size(); i++)
+          {
+              offer(end);
+          }
+          for (Future<Void> future : futures)
+          {
+              getResult(future);
+          }
+      }
+
+      private void offer(Object[] item) throws InterruptedException, MojoExecutionException
+      {
+          while (!queue.offer(item, 100, TimeUnit.MILLISECONDS))
+          {
+              // a worker that lost its connection would leave the queue full forever
+              for (Future<Void> future : futures)
+              {
+                  if (future.isDone())
+                  {
+                      getResult(future);
+                  }
+              }
+          }
+      }
+
+      private void getResult(Future<Void> future) throws InterruptedException, MojoExecutionException
+      {
+          try
+          {
+              future.get();
+          } catch (ExecutionException e)
+          {
+              throw new MojoExecutionException("Could not run statements over the native protocol: "
+                  + e.getCause().getMessage(), e.getCause());
+          }
+      }
+  }
+
+  /*
+   * Reads the statements one at a time and runs them one after the other over the connection it is given, except
+   * for the independent ones when there is an executor: the runs of those between two barriers are queued for up to
+   * concurrency worker connections, and the next barrier waits for them to complete. Failures of the independent
+   * statements are collected, and stop the script at the next barrier.
+   */
+  class CqlScriptOperation extends ThriftApiOperation {
+
+      final CqlStatementReader statements;
+      final ExecutorService executor;
+      final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+      IOException readFailure;
+      IOException writeFailure;
+      int count;
+      private final CqlExecOperation end;
+      private String currentKeyspace;
+      private BlockingQueue<CqlExecOperation> queue;
+      private List<Future<Void>> workers;
+
+      public CqlScriptOperation(String rpcAddress, int rpcPort, CqlStatementReader statements,
+                                ExecutorService executor)
+      {
+          super(rpcAddress, rpcPort);
+          this.statements = statements;
+          this.executor = executor;
+          this.end = new CqlExecOperation(rpcAddress, rpcPort, "", 0);
+      }
+
+      @Override
+      void executeOperation(Client client) throws ThriftApiExecutionException
+      {
+          currentKeyspace = getKeyspace();
+          try
+          {
+              for (String statement = statements.readStatement(); statement != null;
+                   statement = statements.readStatement())
+              {
+                  CqlExecOperation cqlOp = new CqlExecOperation(getRpcAddress(), getRpcPort(), statement,
+                                                                statements.getLineNumber());
+                  cqlOp.setCqlVersion(getCqlVersion());
+                  count++;
+                  if (executor != null && !cqlOp.barrier)
+                  {
+                      submit(cqlOp);
+                      continue;
+                  }
+                  if (!awaitWorkers())
+                  {
+                      return;
+                  }
+                  try
+                  {
+                      cqlOp.executeOperation(client);
+                  } catch (ThriftApiExecutionException taee)
+                  {
+                      getLog().error("Statement at line " + cqlOp.line + " failed");
+                      throw taee;
+                  }
+                  if (cqlOp.usedKeyspace != null)
+                  {
+                      currentKeyspace = cqlOp.usedKeyspace;
+                  }
+                  try
+                  {
+                      printResults(cqlOp);
+                  } catch (IOException e)
+                  {
+                      writeFailure = e;
+                      return;
+                  }
+              }
+              awaitWorkers();
+          } catch (IOException e)
+          {
+              readFailure = e;
+          } catch (InterruptedException e)
+          {
+              throw new ThriftApiExecutionException(e);
+          } catch (MojoExecutionException e)
+          {
+              throw new ThriftApiExecutionException(e);
+          }
+      }
+
+      /*
+       * Queues an independent statement, starting the worker connections first if this is the first statement after
+       * a barrier.
+       */
+      private void submit(CqlExecOperation cqlOp) throws InterruptedException, MojoExecutionException
+      {
+          if (queue == null)
+          {
+              queue = new ArrayBlockingQueue<CqlExecOperation>(concurrency * QUEUED_PER_CONNECTION);
+              workers = new ArrayList<Future<Void>>(concurrency);
+              for (int i = 0; i < concurrency; i++)
+              {
+                  final CqlWorkerOperation worker =
+                      new CqlWorkerOperation(getRpcAddress(), getRpcPort(), queue, end, errors);
+                  worker.setKeyspace(currentKeyspace);
+                  worker.setCqlVersion(getCqlVersion());
+                  workers.add(executor.submit(new Callable<Void>()
+                  {
+                      public Void call() throws MojoExecutionException
+                      {
+                          Utils.executeThrift(worker);
+                          return null;
+                      }
+                  }));
+              }
+          }
+          while (!queue.offer(cqlOp, 100, TimeUnit.MILLISECONDS))
+          {
+              // a worker that lost its connection would leave the queue full forever
+              for (Future<Void> worker : workers)
+              {
+                  if (worker.isDone())
+                  {
+                      getWorkerResult(worker);
+                  }
+              }
+          }
+      }
+
+      /*
+       * Waits for the queued independent statements to complete and stops the worker connections.
+       */
+      private boolean awaitWorkers() throws InterruptedException, MojoExecutionException
+      {
+          if (queue != null)
+          {
+              for (int i = 0; i < workers.size(); i++)
+              {
+                  submit(end);
+              }
+              for (Future<Void> worker : workers)
+              {
+                  getWorkerResult(worker);
+              }
+              queue = null;
+              workers = null;
+          }
+          return errors.isEmpty();
+      }
+
+      private void getWorkerResult(Future<Void> worker) throws InterruptedException, MojoExecutionException
+      {
+          try
+          {
+              worker.get();
+          } catch (ExecutionException e)
+          {
+              throw new MojoExecutionException(e.getCause().getMessage(), e.getCause());
+          }
+      }
+
+  }
+
+  /*
+   * Runs the independent statements it takes from a queue until it takes the end marker, collecting their failures.
+   */
+  class CqlWorkerOperation extends ThriftApiOperation {
+
+      final BlockingQueue<CqlExecOperation> queue;
+      final CqlExecOperation end;
+      final List<String> errors;
+
+      public CqlWorkerOperation(String rpcAddress, int rpcPort, BlockingQueue<CqlExecOperation> queue,
+                                CqlExecOperation end, List<String> errors)
+      {
+          super(rpcAddress, rpcPort);
+          this.queue = queue;
+          this.end = end;
+          this.errors = errors;
+      }
+
+      @Override
+      void executeOperation(Client client) throws ThriftApiExecutionException
+      {
+          try
+          {
+              for (CqlExecOperation cqlOp = queue.take(); cqlOp != end; cqlOp = queue.take())
+              {
+                  try
+                  {
+                      cqlOp.executeOperation(client);
+                  } catch (ThriftApiExecutionException taee)
+                  {
+                      Throwable cause = taee.getCause() != null ? taee.getCause() : taee;
+                      errors.add("Statement at line " + cqlOp.line + ": " + cause);
+                  }
+              }
+          } catch (InterruptedException e)
+          {
+              throw new ThriftApiExecutionException(e);
+          }
+      }
+  }
+
+  /*
+   * Whether a statement has to run on its own, once every statement before it has completed.
+   */
+  static boolean isBarrier(String cqlStatement)
+  {
+      return BARRIER_PATTERN.matcher(cqlStatement).find()
+          || !DML_VERBS.contains(NativeCqlSession.getVerb(cqlStatement));
+  }
+
+  /*
+   * The keyspace a USE statement switches to, null for any other statement.
+   */
+  static String getUsedKeyspace(String cqlStatement)
+  {
+      String[] words = StringUtils.split(COMMENT_PATTERN.matcher(cqlStatement).replaceAll(" "));
+      if (words.length < 2 || !"USE".equalsIgnoreCase(words[0]))
+      {
+          return null;
       }
-      return cqlOp;
+      // unquoted identifiers are case insensitive
+      return words[1].startsWith("\"") ? StringUtils.strip(words[1], "\"")
+          : StringUtils.strip(words[1], "'").toLowerCase(Locale.ENGLISH);
   }
 
   class CqlExecOperation extends ThriftApiOperation implements Iterator<CqlRow> {
 
       CqlResult result;
       final ByteBuffer statementBuf;
+      final boolean barrier;
+      final String usedKeyspace;
+      final int line;
       CqlRow current;
       Iterator<CqlRow> rowIter;
 
-      public CqlExecOperation(String rpcAddress, int rpcPort, String cqlStatement)
+      public CqlExecOperation(String rpcAddress, int rpcPort, String cqlStatement, int line)
       {
           super(rpcAddress, rpcPort);
           this.statementBuf = ByteBufferUtil.bytes(cqlStatement);
+          this.line = line;
+          this.barrier = isBarrier(cqlStatement);
+          this.usedKeyspace = getUsedKeyspace(cqlStatement);
       }
 
       @Override
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+
+/**
+ * Reads the statements of a CQL script one at a time, so that scripts of any size can be run in constant memory.
+ * <p/>
+ * Statements end with a semicolon that is not inside a string literal, a quoted identifier, a {@code $$} quoted
+ * function body or a comment ({@code --}, {@code //} or {@code /* *&#47;}), nor between {@code BEGIN BATCH} and
+ * {@code APPLY BATCH}. Comments are
+ * kept in the statements, as Cassandra skips them, so that markers such as {@code -- @barrier} reach the caller.
+ * Fragments made of nothing but whitespace and comments are skipped.
+ */
+class CqlStatementReader
+    implements Closeable
+{
+    private final Reader reader;
+
+    private int lineNumber = 1;
+
+    private int statementLineNumber;
+
+    private int pushedBack = -1;
+
+    /**
+     * Creates a reader of the statements of a script.
+     *
+     * @param reader the script.
+     */
+    CqlStatementReader( Reader reader )
+    {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader( reader );
+    }
+
+    /**
+     * Reads the next statement.
+     *
+     * @return the next statement, without its terminating semicolon, or {@code null} if there are no more.
+     * @throws IOException if the script could not be read.
+     */
+    String readStatement()
+        throws IOException
+    {
+        StringBuilder statement = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        boolean code = false;
+        boolean batch = false;
+        boolean applied = false;
+        String previousWord = null;
+        int words = 0;
+        for ( int c = read(); c != -1; c = read() )
+        {
+            if ( Character.isLetterOrDigit( c ) || c == '_' )
+            {
+                word.append( (char) c );
+                statement.append( (char) c );
+                if ( !code )
+                {
+                    code = true;
+                    statementLineNumber = lineNumber;
+                }
+                continue;
+            }
+            if ( word.length() > 0 )
+            {
+                String current = word.toString().toUpperCase( Locale.ENGLISH );
+                if ( words++ == 0 )
+                {
+                    batch = "BEGIN".equals( current );
+                }
+                else if ( batch && "BATCH".equals( current ) && "APPLY".equals( previousWord ) )
+                {
+                    applied = true;
+                }
+                previousWord = current;
+                word.setLength( 0 );
+            }
+            if ( c == ';' && ( !batch || applied ) )
+            {
+                if ( code )
+                {
+                    return statement.toString().trim();
+                }
+                statement.setLength( 0 );
+                continue;
+            }
+            statement.append( (char) c );
+            if ( c == '\'' || c == '"' )
+            {
+                if ( !code )
+                {
+                    code = true;
+                    statementLineNumber = lineNumber;
+                }
+                readQuoted( statement, c );
+            }
+            else if ( c == '$' )
+            {
+                if ( !code )
+                {
+                    code = true;
+                    statementLineNumber = lineNumber;
+                }
+                int next = read();
+                if ( next == '$' )
+                {
+                    statement.append( (char) next );
+                    readDollarQuoted( statement );
+                }
+                else
+                {
+                    pushedBack = next;
+                }
+            }
+            else if ( c == '-' || c == '/' )
+            {
+                int next = read();
+                if ( next == c )
+                {
+                    // a line comment
+                    statement.append( (char) next );
+                    for ( next = read(); next != -1 && next != '\n'; next = read() )
+                    {
+                        statement.append( (char) next );
+                    }
+                    if ( next == '\n' )
+                    {
+                        statement.append( '\n' );
+                    }
+                }
+                else if ( c == '/' && next == '*' )
+                {
+                    statement.append( (char) next );
+                    readBlockComment( statement );
+                }
+                else
+                {
+                    pushedBack = next;
+                    if ( !code )
+                    {
+                        code = true;
+                        statementLineNumber = lineNumber;
+                    }
+                }
+            }
+            else if ( !code && !Character.isWhitespace( c ) )
+            {
+                code = true;
+                statementLineNumber = lineNumber;
+            }
+        }
+        // the last statement does not need a semicolon
+        return code ? statement.toString().trim() : null;
+    }
+
+    /**
+     * Gets the line the statement last returned by {@link #readStatement()} starts on.
+     *
+     * @return the line number, starting at {@code 1}.
+     */
+    int getLineNumber()
+    {
+        return statementLineNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+        throws IOException
+    {
+        reader.close();
+    }
+
+    /**
+     * Copies a string literal or quoted identifier, where a doubled quote stands for the quote itself.
+     */
+    private void readQuoted( StringBuilder statement, int quote )
+        throws IOException
+    {
+        for ( int c = read(); c != -1; c = read() )
+        {
+            statement.append( (char) c );
+            if ( c == quote )
+            {
+                int next = read();
+                if ( next != quote )
+                {
+                    pushedBack = next;
+                    return;
+                }
+                statement.append( (char) next );
+            }
+        }
+    }
+
+    /**
+     * Copies a {@code $$} quoted string, such as the body of a function, up to the closing {@code $$}.
+     */
+    private void readDollarQuoted( StringBuilder statement )
+        throws IOException
+    {
+        int previous = -1;
+        for ( int c = read(); c != -1; c = read() )
+        {
+            statement.append( (char) c );
+            if ( previous == '$' && c == '$' )
+            {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    private void readBlockComment( StringBuilder statement )
+        throws IOException
+    {
+        int previous = -1;
+        for ( int c = read(); c != -1; c = read() )
+        {
+            statement.append( (char) c );
+            if ( previous == '*' && c == '/' )
+            {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    private int read()
+        throws IOException
+    {
+        int c;
+        if ( pushedBack != -1 )
+        {
+            c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        c = reader.read();
+        if ( c == '\n' )
+        {
+            lineNumber++;
+        }
+        return c;
+    }
+}
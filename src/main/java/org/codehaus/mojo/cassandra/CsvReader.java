@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of a CSV file one at a time. Fields may be quoted with double quotes, in which case they may hold
+ * separators, line breaks and doubled double quotes. An empty unquoted field is read as {@code null}, to tell it
+ * apart from an empty string.
+ */
+class CsvReader
+    implements Closeable
+{
+    private final Reader reader;
+
+    private final char separator;
+
+    private int lineNumber = 1;
+
+    private int recordLineNumber;
+
+    private int pushedBack = -1;
+
+    /**
+     * Creates a reader of the records of a CSV file.
+     *
+     * @param reader    the file.
+     * @param separator the field separator.
+     */
+    CsvReader( Reader reader, char separator )
+    {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader( reader );
+        this.separator = separator;
+    }
+
+    /**
+     * Reads the next record, skipping empty lines.
+     *
+     * @return the fields of the next record, or {@code null} if there are no more.
+     * @throws IOException if the file could not be read.
+     */
+    List<String> readRecord()
+        throws IOException
+    {
+        int c = read();
+        while ( c == '\r' || c == '\n' )
+        {
+            c = read();
+        }
+        if ( c == -1 )
+        {
+            return null;
+        }
+        recordLineNumber = lineNumber;
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while ( true )
+        {
+            if ( c == '"' && field.length() == 0 && !quoted )
+            {
+                quoted = true;
+                for ( c = read(); c != -1; c = read() )
+                {
+                    if ( c == '"' )
+                    {
+                        c = read();
+                        if ( c != '"' )
+                        {
+                            break;
+                        }
+                    }
+                    field.append( (char) c );
+                }
+                continue;
+            }
+            if ( c == separator || c == '\n' || c == '\r' || c == -1 )
+            {
+                fields.add( quoted || field.length() > 0 ? field.toString() : null );
+                field.setLength( 0 );
+                quoted = false;
+                if ( c != separator )
+                {
+                    if ( c == '\r' )
+                    {
+                        int next = read();
+                        if ( next != '\n' )
+                        {
+                            pushedBack = next;
+                        }
+                    }
+                    return fields;
+                }
+            }
+            else
+            {
+                field.append( (char) c );
+            }
+            c = read();
+        }
+    }
+
+    /**
+     * Gets the line the record last returned by {@link #readRecord()} starts on.
+     *
+     * @return the line number, starting at {@code 1}.
+     */
+    int getLineNumber()
+    {
+        return recordLineNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+        throws IOException
+    {
+        reader.close();
+    }
+
+    private int read()
+        throws IOException
+    {
+        if ( pushedBack != -1 )
+        {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        int c = reader.read();
+        if ( c == '\n' )
+        {
+            lineNumber++;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * A cached copy of a fully loaded Cassandra data directory. A template is captured from a snapshot of a freshly
+ * loaded instance and later clean starts populate their data directory from it instead of replaying the load. As
+ * SSTables are immutable, the files are hard linked wherever the file system allows it and copied otherwise.
+ */
+class DataTemplate
+{
+    /**
+     * The tag of the snapshot that a template is captured from.
+     */
+    static final String SNAPSHOT_TAG = "cassandra-maven-plugin-template";
+
+    /**
+     * The per snapshot manifest written by Cassandra, which is not part of the data.
+     */
+    private static final String SNAPSHOT_MANIFEST = "manifest.json";
+
+    private final File directory;
+
+    /**
+     * Creates a template stored in the specified directory.
+     *
+     * @param directory the directory holding the template.
+     */
+    DataTemplate( File directory )
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the directory holding the template.
+     *
+     * @return the directory holding the template.
+     */
+    File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Returns {@code true} if the template has been captured.
+     *
+     * @return {@code true} if the template has been captured.
+     */
+    boolean exists()
+    {
+        return directory.isDirectory();
+    }
+
+    /**
+     * Populates a data directory from this template.
+     *
+     * @param dataDir the data directory to populate.
+     * @return the number of files placed in the data directory.
+     * @throws IOException if something went wrong.
+     */
+    int restore( File dataDir )
+        throws IOException
+    {
+        return linkTree( directory, dataDir );
+    }
+
+    /**
+     * Captures this template from the snapshot tagged {@link #SNAPSHOT_TAG} in a data directory. The template is
+     * staged next to its final location and only renamed into place once complete, so a build that is interrupted
+     * half way never leaves a partial template behind.
+     *
+     * @param dataDir the data directory holding the snapshot.
+     * @return the number of files captured.
+     * @throws IOException if something went wrong.
+     */
+    int capture( File dataDir )
+        throws IOException
+    {
+        File staging = new File( directory.getParentFile(), directory.getName() + ".tmp" );
+        FileUtils.deleteDirectory( staging );
+        int count = 0;
+        for ( File keyspace : listDirectories( dataDir ) )
+        {
+            for ( File table : listDirectories( keyspace ) )
+            {
+                File snapshot = new File( new File( table, "snapshots" ), SNAPSHOT_TAG );
+                File[] files = snapshot.listFiles();
+                if ( files == null )
+                {
+                    continue;
+                }
+                File target = new File( new File( staging, keyspace.getName() ), table.getName() );
+                for ( File file : files )
+                {
+                    if ( file.isFile() && !SNAPSHOT_MANIFEST.equals( file.getName() ) )
+                    {
+                        link( file, new File( target, file.getName() ) );
+                        count++;
+                    }
+                }
+            }
+        }
+        if ( !staging.renameTo( directory ) )
+        {
+            // most likely a concurrent build captured the same template first
+            FileUtils.deleteDirectory( staging );
+            if ( !exists() )
+            {
+                throw new IOException( "Could not move " + staging + " to " + directory );
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Links (or copies) every file below one directory to the same relative path below another.
+     *
+     * @param source the directory to link from.
+     * @param target the directory to link to.
+     * @return the number of files linked.
+     * @throws IOException if something went wrong.
+     */
+    private static int linkTree( File source, File target )
+        throws IOException
+    {
+        int count = 0;
+        File[] files = source.listFiles();
+        if ( files == null )
+        {
+            return count;
+        }
+        for ( File file : files )
+        {
+            File dest = new File( target, file.getName() );
+            if ( file.isDirectory() )
+            {
+                count += linkTree( file, dest );
+            }
+            else
+            {
+                link( file, dest );
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Hard links a file, falling back to a copy when the two locations are on different file systems or the file
+     * system does not support hard links.
+     *
+     * @param source the existing file.
+     * @param target the link to create.
+     * @throws IOException if something went wrong.
+     */
+    static void link( File source, File target )
+        throws IOException
+    {
+        File parent = target.getParentFile();
+        if ( !parent.isDirectory() && !parent.mkdirs() )
+        {
+            throw new IOException( "Could not create directory " + parent );
+        }
+        try
+        {
+            Files.createLink( target.toPath(), source.toPath() );
+        }
+        catch ( IOException e )
+        {
+            FileUtils.copyFile( source, target );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            FileUtils.copyFile( source, target );
+        }
+    }
+
+    /**
+     * Lists the sub-directories of a directory.
+     *
+     * @param dir the directory.
+     * @return the sub-directories, empty if the directory does not exist.
+     */
+    private static File[] listDirectories( File dir )
+    {
+        File[] dirs = dir.listFiles( new FileFilter()
+        {
+            public boolean accept( File file )
+            {
+                return file.isDirectory();
+            }
+        } );
+        return dirs == null ? new File[0] : dirs;
+    }
+}
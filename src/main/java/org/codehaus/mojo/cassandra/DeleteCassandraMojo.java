@@ -70,6 +70,7 @@ public class DeleteCassandraMojo extends AbstractMojo
         }
         try
         {
+            Utils.deleteStorageDirectory(cassandraDir, getLog());
             getLog().info("Deleting " + cassandraDir.getAbsolutePath());
             FileUtils.deleteDirectory(cassandraDir);
         } catch (IOException e)
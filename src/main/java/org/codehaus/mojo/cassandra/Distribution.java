@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A distribution of non negative whole numbers, such as sizes, written as {@code fixed(N)} or as a bare {@code N},
+ * {@code uniform(MIN..MAX)}, {@code gaussian(MIN..MAX)}, which is centered between its bounds with nearly all of its
+ * numbers within them, or {@code exp(MIN..MAX)}, which mostly draws numbers close to {@code MIN}. Numbers drawn are
+ * always within the bounds.
+ */
+class Distribution
+{
+    private static final Pattern PATTERN = Pattern.compile(
+        "\\s*(?:(fixed|uniform|gaussian|exp)\\(\\s*(\\d+)\\s*(?:\\.\\.\\s*(\\d+)\\s*)?\\)|(\\d+))\\s*" );
+
+    private final String spec;
+
+    private final String kind;
+
+    private final long min;
+
+    private final long max;
+
+    private Distribution( String spec, String kind, long min, long max )
+    {
+        this.spec = spec;
+        this.kind = kind;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Parses a distribution.
+     *
+     * @param spec the distribution, such as {@code uniform(1..100)}.
+     * @return the distribution.
+     * @throws IllegalArgumentException if the distribution is not valid.
+     */
+    static Distribution parse( String spec )
+    {
+        Matcher matcher = PATTERN.matcher( spec == null ? "" : spec );
+        if ( matcher.matches() )
+        {
+            if ( matcher.group( 4 ) != null )
+            {
+                long value = Long.parseLong( matcher.group( 4 ) );
+                return new Distribution( spec, "fixed", value, value );
+            }
+            long min = Long.parseLong( matcher.group( 2 ) );
+            if ( "fixed".equals( matcher.group( 1 ) ) && matcher.group( 3 ) == null )
+            {
+                return new Distribution( spec, "fixed", min, min );
+            }
+            if ( !"fixed".equals( matcher.group( 1 ) ) && matcher.group( 3 ) != null )
+            {
+                long max = Long.parseLong( matcher.group( 3 ) );
+                if ( min <= max )
+                {
+                    return new Distribution( spec, matcher.group( 1 ), min, max );
+                }
+            }
+        }
+        throw new IllegalArgumentException( "Invalid distribution '" + spec
+                                                + "', use fixed(N), uniform(MIN..MAX), gaussian(MIN..MAX) or "
+                                                + "exp(MIN..MAX)" );
+    }
+
+    /**
+     * Draws a number.
+     *
+     * @param random the source of randomness.
+     * @return the number drawn.
+     */
+    long next( Random random )
+    {
+        if ( "uniform".equals( kind ) )
+        {
+            return min + (long) ( random.nextDouble() * ( max - min + 1 ) );
+        }
+        if ( "gaussian".equals( kind ) )
+        {
+            return clamp( Math.round( ( min + max ) / 2.0 + random.nextGaussian() * ( max - min ) / 6.0 ) );
+        }
+        if ( "exp".equals( kind ) )
+        {
+            return clamp( min + Math.round( -Math.log( 1.0 - random.nextDouble() ) * ( max - min ) / 4.0 ) );
+        }
+        return min;
+    }
+
+    private long clamp( long value )
+    {
+        return Math.max( min, Math.min( max, value ) );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return spec;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Cassandra daemon running inside the Maven JVM.
+ * <p/>
+ * The daemon is loaded in a class loader of its own, whose parent is the extension class loader, so that its static
+ * state (and there is a lot of it) is discarded with the instance and never mixes with the classes of the plugin
+ * realm. The MBeans that Cassandra registers end up in the platform MBean server though, which is why only one
+ * embedded instance can run at a time. Instances are registered by their RPC address and port so that the
+ * {@code stop} goal, which only knows about those, can find them.
+ */
+class EmbeddedCassandra
+{
+    private static final String DAEMON_CLASS = "org.apache.cassandra.service.CassandraDaemon";
+
+    private static final String STORAGE_SERVICE_CLASS = "org.apache.cassandra.service.StorageService";
+
+    private static final Map<String, EmbeddedCassandra> RUNNING = new HashMap<String, EmbeddedCassandra>();
+
+    private final URLClassLoader classLoader;
+
+    private final Map<String, String> previousProperties = new HashMap<String, String>();
+
+    private Object daemon;
+
+    private Registry registry;
+
+    private JMXConnectorServer connectorServer;
+
+    private FileChannel lockChannel;
+
+    private FileLock instanceLock;
+
+    private EmbeddedCassandra( List<URL> classPath )
+    {
+        classLoader = new URLClassLoader( classPath.toArray( new URL[classPath.size()] ),
+                                          ClassLoader.getSystemClassLoader().getParent() );
+    }
+
+    /**
+     * Boots a Cassandra daemon inside this JVM and returns once it is serving clients.
+     *
+     * @param rpcAddress       the RPC address, which together with the RPC port identifies the instance.
+     * @param rpcPort          the RPC port.
+     * @param classPath        the classpath to load Cassandra from.
+     * @param systemProperties the system properties to set while the instance is running.
+     * @param lockFile         the file to lock while the instance is running.
+     * @param jmxPort          the port to expose the platform MBean server on, or {@code 0} for none.
+     * @param log              the log to report to.
+     * @throws MojoExecutionException if the daemon could not be started.
+     */
+    static synchronized void start( String rpcAddress, int rpcPort, List<URL> classPath,
+                                    Map<String, String> systemProperties, File lockFile, int jmxPort, Log log )
+        throws MojoExecutionException
+    {
+        if ( !RUNNING.isEmpty() )
+        {
+            throw new MojoExecutionException( "An embedded Cassandra instance is already running on "
+                                                  + RUNNING.keySet().iterator().next()
+                                                  + ", only one embedded instance can run at a time" );
+        }
+        EmbeddedCassandra instance = new EmbeddedCassandra( classPath );
+        try
+        {
+            instance.lock( lockFile, log );
+            instance.setSystemProperties( systemProperties );
+            if ( jmxPort > 0 )
+            {
+                instance.startJmx( jmxPort );
+            }
+            instance.activate();
+        }
+        catch ( Exception e )
+        {
+            instance.release( log );
+            throw new MojoExecutionException( "Could not start embedded Cassandra: " + e.getMessage(), e );
+        }
+        RUNNING.put( rpcAddress + ":" + rpcPort, instance );
+        log.info( "Embedded Cassandra is serving on " + rpcAddress + ":" + rpcPort );
+    }
+
+    /**
+     * Stops the embedded instance with the specified RPC address and port, if there is one.
+     *
+     * @param rpcAddress the RPC address.
+     * @param rpcPort    the RPC port.
+     * @param log        the log to report to.
+     * @return {@code true} if there was an embedded instance to stop.
+     */
+    static synchronized boolean stop( String rpcAddress, int rpcPort, Log log )
+    {
+        EmbeddedCassandra instance = RUNNING.remove( rpcAddress + ":" + rpcPort );
+        if ( instance == null )
+        {
+            return false;
+        }
+        log.info( "Stopping embedded Cassandra on " + rpcAddress + ":" + rpcPort + "..." );
+        instance.deactivate( log );
+        instance.release( log );
+        log.info( "Cassandra has stopped." );
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if there is an embedded instance with the specified RPC address and port.
+     *
+     * @param rpcAddress the RPC address.
+     * @param rpcPort    the RPC port.
+     * @return {@code true} if there is an embedded instance with the specified RPC address and port.
+     */
+    static synchronized boolean isRunning( String rpcAddress, int rpcPort )
+    {
+        return RUNNING.containsKey( rpcAddress + ":" + rpcPort );
+    }
+
+    private void lock( File lockFile, Log log )
+        throws IOException
+    {
+        lockChannel = new RandomAccessFile( lockFile, "rw" ).getChannel();
+        try
+        {
+            instanceLock = lockChannel.tryLock();
+        }
+        catch ( OverlappingFileLockException e )
+        {
+            // held by an earlier embedded instance of this JVM that has not released it
+            instanceLock = null;
+        }
+        if ( instanceLock == null )
+        {
+            log.warn( "Another Cassandra instance is holding " + lockFile );
+        }
+    }
+
+    private void setSystemProperties( Map<String, String> systemProperties )
+    {
+        for ( Map.Entry<String, String> entry : systemProperties.entrySet() )
+        {
+            String previous = System.setProperty( entry.getKey(), entry.getValue() );
+            if ( !previousProperties.containsKey( entry.getKey() ) )
+            {
+                previousProperties.put( entry.getKey(), previous );
+            }
+        }
+    }
+
+    /**
+     * Exposes the platform MBean server the same way {@code -Dcom.sun.management.jmxremote.port} does for a forked
+     * instance, so that nodetool keeps working.
+     *
+     * @param jmxPort the port to listen on.
+     * @throws IOException if something went wrong.
+     */
+    private void startJmx( int jmxPort )
+        throws IOException
+    {
+        registry = LocateRegistry.createRegistry( jmxPort );
+        JMXServiceURL url = new JMXServiceURL( "service:jmx:rmi:///jndi/rmi://localhost:" + jmxPort + "/jmxrmi" );
+        connectorServer = JMXConnectorServerFactory.newJMXConnectorServer( url, null,
+                                                                           ManagementFactory.getPlatformMBeanServer() );
+        connectorServer.start();
+    }
+
+    private void activate()
+        throws Exception
+    {
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        // the threads that Cassandra starts inherit the context class loader
+        thread.setContextClassLoader( classLoader );
+        try
+        {
+            Class<?> daemonClass = classLoader.loadClass( DAEMON_CLASS );
+            daemon = daemonClass.newInstance();
+            // returns once the thrift and native transport servers are listening (it exits the JVM on failure)
+            daemonClass.getMethod( "activate" ).invoke( daemon );
+        }
+        catch ( InvocationTargetException e )
+        {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        finally
+        {
+            thread.setContextClassLoader( contextClassLoader );
+        }
+    }
+
+    /**
+     * Stops the client transports and then drains the node, which flushes the memtables and shuts down gossip, the
+     * messaging service, compaction and the commit log, releasing the storage port.
+     *
+     * @param log the log to report to.
+     */
+    private void deactivate( Log log )
+    {
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader( classLoader );
+        try
+        {
+            daemon.getClass().getMethod( "stop" ).invoke( daemon );
+            Class<?> storageServiceClass = classLoader.loadClass( STORAGE_SERVICE_CLASS );
+            Object storageService = storageServiceClass.getField( "instance" ).get( null );
+            storageServiceClass.getMethod( "drain" ).invoke( storageService );
+        }
+        catch ( InvocationTargetException e )
+        {
+            log.warn( "Could not cleanly stop embedded Cassandra", e.getCause() );
+        }
+        catch ( Exception e )
+        {
+            log.warn( "Could not cleanly stop embedded Cassandra", e );
+        }
+        finally
+        {
+            thread.setContextClassLoader( contextClassLoader );
+        }
+    }
+
+    /**
+     * Releases everything the instance holds outside of its own class loader, so that the next instance can start.
+     *
+     * @param log the log to report to.
+     */
+    private void release( Log log )
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            for ( ObjectName name : server.queryNames( new ObjectName( "org.apache.cassandra*:*" ), null ) )
+            {
+                server.unregisterMBean( name );
+            }
+        }
+        catch ( Exception e )
+        {
+            log.debug( "Could not unregister the Cassandra MBeans", e );
+        }
+        if ( connectorServer != null )
+        {
+            try
+            {
+                connectorServer.stop();
+            }
+            catch ( IOException e )
+            {
+                log.debug( "Could not stop the JMX connector", e );
+            }
+            connectorServer = null;
+        }
+        if ( registry != null )
+        {
+            try
+            {
+                UnicastRemoteObject.unexportObject( registry, true );
+            }
+            catch ( IOException e )
+            {
+                log.debug( "Could not stop the RMI registry", e );
+            }
+            registry = null;
+        }
+        for ( Map.Entry<String, String> entry : previousProperties.entrySet() )
+        {
+            if ( entry.getValue() == null )
+            {
+                System.clearProperty( entry.getKey() );
+            }
+            else
+            {
+                System.setProperty( entry.getKey(), entry.getValue() );
+            }
+        }
+        previousProperties.clear();
+        if ( lockChannel != null )
+        {
+            try
+            {
+                // closing the channel releases the lock
+                lockChannel.close();
+            }
+            catch ( IOException e )
+            {
+                log.debug( "Could not release the instance lock", e );
+            }
+            lockChannel = null;
+            instanceLock = null;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.tools.NodeProbe;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProjectHelper;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports keyspaces of the running Cassandra instance as an archive attached to the project, so that other modules
+ * can start with their data through the {@code dataSnapshot} parameter of the {@code start} goal instead of loading it
+ * again.
+ * <p/>
+ * The keyspaces are flushed and snapshotted, and the archive holds their SSTables along with those of the schema
+ * tables of the {@code system} keyspace, laid out as in the data directory. An instance started from the archive thus
+ * knows the tables from its first boot, with the ids their directories are named after. The other keyspaces of the
+ * exporting instance come along in the schema, without their data.
+ *
+ * @goal export-snapshot
+ * @threadSafe
+ * @phase post-integration-test
+ * @since 2.0.0-5
+ */
+public class ExportSnapshotMojo
+    extends AbstractCassandraMojo
+{
+    /**
+     * The tag of the snapshot that the archive is built from.
+     */
+    private static final String SNAPSHOT_TAG = "cassandra-maven-plugin-export";
+
+    /**
+     * The tables of the {@code system} keyspace that hold the schema.
+     */
+    private static final String[] SCHEMA_TABLES =
+        { "schema_keyspaces", "schema_columnfamilies", "schema_columns", "schema_triggers", "schema_usertypes" };
+
+    /**
+     * The per snapshot manifest written by Cassandra, which is not part of the data.
+     */
+    private static final String SNAPSHOT_MANIFEST = "manifest.json";
+
+    /**
+     * The comma separated keyspaces to export.
+     *
+     * @parameter expression="${cassandra.export.keyspaces}"
+     * @required
+     */
+    private String keyspaces;
+
+    /**
+     * The archive to create.
+     *
+     * @parameter expression="${cassandra.export.file}"
+     * default-value="${project.build.directory}/${project.build.finalName}-cassandra-data.zip"
+     */
+    private File exportFile;
+
+    /**
+     * The classifier to attach the archive to the project with.
+     *
+     * @parameter expression="${cassandra.export.classifier}" default-value="cassandra-data"
+     */
+    private String classifier;
+
+    /**
+     * Whether to attach the archive to the project, so that it is installed and deployed along with it.
+     *
+     * @parameter expression="${cassandra.export.attach}" default-value="true"
+     */
+    private boolean attach;
+
+    /**
+     * @component
+     */
+    private MavenProjectHelper projectHelper;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( skip )
+        {
+            getLog().info( "Skipping cassandra: cassandra.skip==true" );
+            return;
+        }
+        loadAllocatedPorts();
+        List<String> exported = Arrays.asList( StringUtils.stripAll( StringUtils.split( keyspaces, "," ) ) );
+        if ( exported.isEmpty() )
+        {
+            throw new MojoExecutionException( "There are no keyspaces to export" );
+        }
+        long timeStamp = System.currentTimeMillis();
+        List<String> snapshotted = new ArrayList<String>( exported );
+        snapshotted.add( "system" );
+        String[] snapshotKeyspaces = snapshotted.toArray( new String[snapshotted.size()] );
+        NodeProbe probe = null;
+        try
+        {
+            probe = new NodeProbe( "127.0.0.1", jmxPort );
+            for ( String keyspace : exported )
+            {
+                probe.forceKeyspaceFlush( keyspace );
+            }
+            probe.forceKeyspaceFlush( "system", SCHEMA_TABLES );
+            probe.clearSnapshot( SNAPSHOT_TAG, snapshotKeyspaces );
+            probe.takeSnapshot( SNAPSHOT_TAG, null, snapshotKeyspaces );
+            int files = archive( new File( getStorageDirectory( cassandraDir ), "data" ), snapshotted );
+            probe.clearSnapshot( SNAPSHOT_TAG, snapshotKeyspaces );
+            getLog().info( "Exported " + files + " files of keyspaces " + exported + " to " + exportFile + " in "
+                               + ( ( System.currentTimeMillis() - timeStamp ) / 100L ) / 10.0 + "s" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not export keyspaces " + exported + ": " + e.getMessage(), e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new MojoExecutionException( "Could not flush keyspaces " + exported, e.getCause() );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new MojoExecutionException( "Interrupted while flushing keyspaces " + exported, e );
+        }
+        finally
+        {
+            if ( probe != null )
+            {
+                try
+                {
+                    probe.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+        if ( attach )
+        {
+            projectHelper.attachArtifact( project, "zip", classifier, exportFile );
+        }
+    }
+
+    /**
+     * Writes the snapshot files of the exported keyspaces, and of the schema tables, to the archive.
+     *
+     * @return the number of files archived.
+     */
+    private int archive( File data, List<String> snapshotted )
+        throws IOException, MojoExecutionException
+    {
+        if ( !exportFile.getParentFile().isDirectory() && !exportFile.getParentFile().mkdirs() )
+        {
+            throw new IOException( "Could not create directory " + exportFile.getParentFile() );
+        }
+        int count = 0;
+        ZipOutputStream zip = new ZipOutputStream( new FileOutputStream( exportFile ) );
+        try
+        {
+            for ( String keyspace : snapshotted )
+            {
+                File[] tables = new File( data, keyspace ).listFiles();
+                if ( tables == null )
+                {
+                    throw new MojoExecutionException( "There is no keyspace " + keyspace + " in " + data );
+                }
+                for ( File table : tables )
+                {
+                    File[] files = new File( new File( table, "snapshots" ), SNAPSHOT_TAG ).listFiles();
+                    if ( files == null || ( "system".equals( keyspace ) && !isSchemaTable( table.getName() ) ) )
+                    {
+                        continue;
+                    }
+                    for ( File file : files )
+                    {
+                        if ( file.isFile() && !SNAPSHOT_MANIFEST.equals( file.getName() ) )
+                        {
+                            zip.putNextEntry(
+                                new ZipEntry( keyspace + "/" + table.getName() + "/" + file.getName() ) );
+                            InputStream in = new FileInputStream( file );
+                            try
+                            {
+                                IOUtil.copy( in, zip );
+                            }
+                            finally
+                            {
+                                IOUtil.close( in );
+                            }
+                            zip.closeEntry();
+                            count++;
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            IOUtil.close( zip );
+        }
+        return count;
+    }
+
+    private static boolean isSchemaTable( String directory )
+    {
+        for ( String table : SCHEMA_TABLES )
+        {
+            // the directory name is the table name followed by the table id
+            if ( directory.equals( table ) || directory.startsWith( table + "-" ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
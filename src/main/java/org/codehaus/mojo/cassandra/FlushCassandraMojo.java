@@ -46,6 +46,7 @@ public class FlushCassandraMojo extends AbstractCassandraMojo
             getLog().info("Skipping cassandra: cassandra.skip==true");
             return;
         }
+        loadAllocatedPorts();
         try
         {
             Map environment = createEnvironmentVars();
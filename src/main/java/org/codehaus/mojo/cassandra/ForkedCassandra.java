@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.commons.exec.DefaultExecuteResultHandler;
+import org.apache.commons.exec.ExecuteWatchdog;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Cassandra JVM forked by this plugin. The forked instances are registered by their RPC address and port, so that
+ * stopping an instance started earlier in the same Maven JVM can wait for the process itself, and destroy it if it
+ * does not go away.
+ */
+class ForkedCassandra
+{
+    private static final Map<String, ForkedCassandra> RUNNING = new HashMap<String, ForkedCassandra>();
+
+    private final DefaultExecuteResultHandler resultHandler;
+
+    private final ExecuteWatchdog watchdog;
+
+    ForkedCassandra( DefaultExecuteResultHandler resultHandler, ExecuteWatchdog watchdog )
+    {
+        this.resultHandler = resultHandler;
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Registers a forked instance.
+     *
+     * @param rpcAddress the RPC address.
+     * @param rpcPort    the RPC port.
+     * @param instance   the forked instance.
+     */
+    static synchronized void register( String rpcAddress, int rpcPort, ForkedCassandra instance )
+    {
+        RUNNING.put( rpcAddress + ":" + rpcPort, instance );
+    }
+
+    /**
+     * Removes the forked instance with the specified RPC address and port from the registry.
+     *
+     * @param rpcAddress the RPC address.
+     * @param rpcPort    the RPC port.
+     * @return the forked instance, or {@code null} if it was not forked by this JVM or has already exited.
+     */
+    static synchronized ForkedCassandra remove( String rpcAddress, int rpcPort )
+    {
+        ForkedCassandra instance = RUNNING.remove( rpcAddress + ":" + rpcPort );
+        return instance == null || instance.resultHandler.hasResult() ? null : instance;
+    }
+
+    /**
+     * Waits for the process to exit.
+     *
+     * @param timeoutMillis how long to wait.
+     * @return {@code true} if the process has exited.
+     */
+    boolean waitFor( long timeoutMillis )
+    {
+        if ( timeoutMillis > 0 )
+        {
+            try
+            {
+                resultHandler.waitFor( timeoutMillis );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return resultHandler.hasResult();
+    }
+
+    /**
+     * Destroys the process.
+     */
+    void destroy()
+    {
+        watchdog.destroyProcess();
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.transport.SimpleClient;
+import org.apache.cassandra.transport.messages.ResultMessage;
+import org.apache.cassandra.utils.MD5Digest;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills an existing table of the running Cassandra instance with generated rows, for tests that need volumes of data
+ * which would be impractical to write by hand. The columns and their types are read from the schema of the table.
+ * <p/>
+ * The rows are spread over partitions whose number of rows is drawn from {@link #partitionSize}, and the text and
+ * blob values have a length drawn from {@link #valueSize}. Partition key columns take values derived from the number
+ * of their partition, and clustering columns from the number of their row within it, so that every row is a new one.
+ * Every partition draws from a random generator seeded with {@link #seed} and its number, so that the same seed
+ * generates the same data whatever the number of {@link #threads} writing it. Columns of collection types are left
+ * out, and counter tables and boolean key columns are not supported.
+ * <p/>
+ * The rows of a partition are written in unlogged batches over the native protocol, by {@link #threads} threads
+ * having a connection of their own, and the throughput is reported as they go.
+ *
+ * @goal generate
+ * @threadSafe
+ * @phase pre-integration-test
+ * @since 2.0.0-5
+ */
+public class GenerateCassandraMojo
+    extends AbstractCassandraMojo
+{
+    /**
+     * The table to fill, as {@code <keyspace>.<table>}, or as the name of a table of {@code keyspace}.
+     *
+     * @parameter expression="${cassandra.generate.table}"
+     * @required
+     */
+    private String table;
+
+    /**
+     * The number of rows to generate.
+     *
+     * @parameter expression="${cassandra.generate.rows}" default-value="100000"
+     */
+    private long rows;
+
+    /**
+     * The distribution of the number of rows of a partition, such as {@code fixed(1)}, {@code uniform(1..100)},
+     * {@code gaussian(1..100)} or {@code exp(1..1000)}.
+     *
+     * @parameter expression="${cassandra.generate.partitionSize}" default-value="fixed(1)"
+     */
+    private String partitionSize;
+
+    /**
+     * The distribution of the length of the generated text and blob values, in characters and bytes, written as for
+     * {@code partitionSize}.
+     *
+     * @parameter expression="${cassandra.generate.valueSize}" default-value="uniform(8..64)"
+     */
+    private String valueSize;
+
+    /**
+     * The seed of the generated data. A random seed is used, and logged, when it is not set.
+     *
+     * @parameter expression="${cassandra.generate.seed}"
+     */
+    private Long seed;
+
+    /**
+     * How many threads write the rows, each over a connection of its own.
+     *
+     * @parameter expression="${cassandra.generate.threads}" default-value="4"
+     */
+    private int threads;
+
+    /**
+     * The maximum number of rows of a batch.
+     *
+     * @parameter expression="${cassandra.generate.batchSize}" default-value="100"
+     */
+    private int batchSize;
+
+    /**
+     * How many times to retry a batch that timed out or found the node unavailable or overloaded.
+     *
+     * @parameter expression="${cassandra.generate.retries}" default-value="3"
+     */
+    private int retries;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( skip )
+        {
+            getLog().info( "Skipping cassandra: cassandra.skip==true" );
+            return;
+        }
+        loadAllocatedPorts();
+        int dot = table.indexOf( '.' );
+        String tableKeyspace = dot < 0 ? keyspace : table.substring( 0, dot );
+        String tableName = table.substring( dot + 1 );
+        if ( tableKeyspace == null )
+        {
+            throw new MojoExecutionException( "Set keyspace or name the table " + table + " after its keyspace" );
+        }
+        Distribution partitionSizes;
+        Distribution valueSizes;
+        try
+        {
+            partitionSizes = Distribution.parse( partitionSize );
+            valueSizes = Distribution.parse( valueSize );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( e.getMessage() );
+        }
+        if ( rows <= 0 )
+        {
+            getLog().info( "No rows to generate" );
+            return;
+        }
+        if ( !startNativeTransport )
+        {
+            getLog().warn( "startNativeTransport is false, the native transport may not be listening" );
+        }
+        long actualSeed = seed != null ? seed.longValue() : new Random().nextLong();
+        getLog().info( "Generating " + rows + " rows into " + tableKeyspace + "." + tableName + " with partitions of "
+                           + partitionSizes + " rows, values of " + valueSizes + " bytes and seed " + actualSeed );
+        SimpleClient client = NativeClients.connect( rpcAddress, nativeTransportPort );
+        try
+        {
+            RowGenerator rowGenerator = RowGenerator.read( client, tableKeyspace, tableName, getLog() );
+            ResultMessage.Prepared insert;
+            try
+            {
+                insert = client.prepare( rowGenerator.getInsert() );
+            }
+            catch ( RuntimeException e )
+            {
+                throw new MojoExecutionException(
+                    "Could not prepare " + rowGenerator.getInsert() + ": " + NativeClients.describe( e ), e );
+            }
+            new Generator( rowGenerator, insert.statementId, partitionSizes, valueSizes, actualSeed ).run();
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( e.getLocalizedMessage(), e );
+        }
+        finally
+        {
+            client.close();
+        }
+    }
+
+    /**
+     * A partition to generate, with its random generator.
+     */
+    private static class Partition
+    {
+        final long ordinal;
+
+        final long size;
+
+        final Random random;
+
+        Partition( long ordinal, long size, Random random )
+        {
+            this.ordinal = ordinal;
+            this.size = size;
+            this.random = random;
+        }
+    }
+
+    /**
+     * Hands out the partitions to the writer threads and reports their progress.
+     */
+    private class Generator
+    {
+        final RowGenerator rowGenerator;
+
+        final MD5Digest insert;
+
+        final Distribution partitionSizes;
+
+        final Distribution valueSizes;
+
+        final long seed;
+
+        final AtomicLong written = new AtomicLong();
+
+        long nextPartition;
+
+        long claimed;
+
+        volatile boolean failed;
+
+        Generator( RowGenerator rowGenerator, MD5Digest insert, Distribution partitionSizes, Distribution valueSizes,
+                   long seed )
+        {
+            this.rowGenerator = rowGenerator;
+            this.insert = insert;
+            this.partitionSizes = partitionSizes;
+            this.valueSizes = valueSizes;
+            this.seed = seed;
+        }
+
+        void run()
+            throws MojoExecutionException
+        {
+            int connections = Math.max( 1, threads );
+            ExecutorService executor = Executors.newFixedThreadPool( connections );
+            List<Future<Void>> futures = new ArrayList<Future<Void>>( connections );
+            long start = System.nanoTime();
+            try
+            {
+                for ( int i = 0; i < connections; i++ )
+                {
+                    futures.add( executor.submit( new Callable<Void>()
+                    {
+                        public Void call()
+                            throws Exception
+                        {
+                            try
+                            {
+                                write();
+                            }
+                            catch ( Exception e )
+                            {
+                                failed = true;
+                                throw e;
+                            }
+                            return null;
+                        }
+                    } ) );
+                }
+                long lastWritten = 0;
+                long lastTime = start;
+                for ( Future<Void> future : futures )
+                {
+                    while ( !NativeClients.getResultOrProgress( future ) )
+                    {
+                        long now = System.nanoTime();
+                        long count = written.get();
+                        getLog().info( "Generated " + count + " of " + rows + " rows (" + ( count - lastWritten )
+                            * 1000000000L / Math.max( 1L, now - lastTime ) + " rows/s)" );
+                        lastWritten = count;
+                        lastTime = now;
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                throw new MojoExecutionException( "Interrupted while generating rows into " + rowGenerator, e );
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+            long elapsed = Math.max( 1L, ( System.nanoTime() - start ) / 1000000L );
+            getLog().info( "Generated " + written + " rows in " + nextPartition + " partitions into " + rowGenerator
+                               + " in " + elapsed + "ms (" + ( written.get() * 1000L / elapsed ) + " rows/s)" );
+        }
+
+        /**
+         * Claims the next partition, its size drawn in the order of the partitions so that the rows are spread over
+         * the same partitions whatever the number of threads.
+         *
+         * @return the partition, {@code null} once every row is claimed or a thread failed.
+         */
+        synchronized Partition claim()
+        {
+            if ( claimed >= rows || failed )
+            {
+                return null;
+            }
+            long ordinal = nextPartition++;
+            Random random = new Random( seed ^ ( ordinal * 0x9E3779B97F4A7C15L ) );
+            long size = Math.min( Math.max( 1L, partitionSizes.next( random ) ), rows - claimed );
+            claimed += size;
+            return new Partition( ordinal, size, random );
+        }
+
+        /**
+         * Writes the claimed partitions over a connection of its own until there are none left.
+         */
+        void write()
+            throws MojoExecutionException, InterruptedException
+        {
+            SimpleClient worker = NativeClients.connect( rpcAddress, nativeTransportPort );
+            try
+            {
+                List<Object> statements = new ArrayList<Object>();
+                List<List<ByteBuffer>> values = new ArrayList<List<ByteBuffer>>();
+                for ( Partition partition = claim(); partition != null; partition = claim() )
+                {
+                    for ( long row = 0; row < partition.size; row++ )
+                    {
+                        statements.add( insert );
+                        values.add( rowGenerator.getRow( partition.ordinal, row, valueSizes, partition.random ) );
+                        if ( values.size() >= batchSize || row == partition.size - 1 )
+                        {
+                            NativeClients.write( worker, statements, values, retries,
+                                                 "a batch of partition " + partition.ordinal, getLog() );
+                            written.addAndGet( values.size() );
+                            statements.clear();
+                            values.clear();
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                worker.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * The manifest of the resources generated in a Cassandra home directory, recording for each resource the digest of
+ * the inputs it was generated from, so that a resource is only generated again when its inputs have changed.
+ */
+class GeneratedResources
+{
+    /**
+     * The name of the manifest file in the Cassandra home directory.
+     */
+    static final String FILE_NAME = "generated-resources.properties";
+
+    private final File cassandraDir;
+
+    private final File file;
+
+    private final Properties digests = new Properties();
+
+    private boolean modified;
+
+    /**
+     * Loads the manifest of a Cassandra home directory, which is empty if there is none yet.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @throws IOException if the manifest could not be read.
+     */
+    GeneratedResources( File cassandraDir )
+        throws IOException
+    {
+        this.cassandraDir = cassandraDir;
+        this.file = new File( cassandraDir, FILE_NAME );
+        if ( file.isFile() )
+        {
+            InputStream in = new FileInputStream( file );
+            try
+            {
+                digests.load( in );
+            }
+            finally
+            {
+                IOUtil.close( in );
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if a resource exists and was generated from inputs with the specified digest.
+     *
+     * @param resource the resource.
+     * @param digest   the digest of the inputs the resource would be generated from now.
+     * @return {@code true} if the resource does not need to be generated.
+     */
+    boolean isUpToDate( File resource, String digest )
+    {
+        return resource.isFile() && digest.equals( digests.getProperty( getKey( resource ) ) );
+    }
+
+    /**
+     * Records that a resource has been generated from inputs with the specified digest.
+     *
+     * @param resource the resource.
+     * @param digest   the digest of the inputs the resource was generated from.
+     */
+    void generated( File resource, String digest )
+    {
+        digests.setProperty( getKey( resource ), digest );
+        modified = true;
+    }
+
+    /**
+     * Writes the manifest back if any resource has been generated.
+     *
+     * @throws IOException if the manifest could not be written.
+     */
+    void save()
+        throws IOException
+    {
+        if ( !modified )
+        {
+            return;
+        }
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            digests.store( out, "Digests of the inputs of the resources generated by the cassandra-maven-plugin" );
+        }
+        finally
+        {
+            IOUtil.close( out );
+        }
+        modified = false;
+    }
+
+    private String getKey( File resource )
+    {
+        String path = resource.getAbsolutePath();
+        String base = cassandraDir.getAbsolutePath() + File.separator;
+        return ( path.startsWith( base ) ? path.substring( base.length() ) : path ).replace( File.separatorChar, '/' );
+    }
+}
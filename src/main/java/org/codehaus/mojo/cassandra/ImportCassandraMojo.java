@@ -0,0 +1,526 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.transport.SimpleClient;
+import org.apache.cassandra.transport.messages.ResultMessage;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Imports tabular data into existing tables over the native protocol. Each {@code <keyspace>.<table>.csv} file of
+ * {@link #importDirectory}, whose first record names the columns, and each {@code <keyspace>.<table>.json} file,
+ * holding one JSON object per line, is streamed into its table, with the values converted to the types of the
+ * columns. Files named {@code <table>.csv} or {@code <table>.json} go to the table of that name in {@code keyspace}.
+ * <p/>
+ * Rows of the same partition that are close to each other in a file are written together in unlogged batches. The
+ * batches are sent over {@link #concurrency} connections, each having one batch in flight and a few more queued, so
+ * that reading the files never runs far ahead of the writes. Rows of a partition always go over the same connection,
+ * so that they are written in the order of the file. Empty fields and {@code null} values are left out of the
+ * inserts rather than written as tombstones.
+ *
+ * @goal import
+ * @threadSafe
+ * @phase pre-integration-test
+ * @since 2.0.0-5
+ */
+public class ImportCassandraMojo
+    extends AbstractCassandraMojo
+{
+    private static final Pattern FILE_PATTERN = Pattern.compile( "(?:(.+)\\.)?([^.]+)\\.(csv|json)" );
+
+    /**
+     * How many batches may wait for each connection.
+     */
+    private static final int QUEUED_PER_CONNECTION = 4;
+
+    /**
+     * The directory holding the {@code .csv} and {@code .json} files to import.
+     *
+     * @parameter expression="${cassandra.import.directory}" default-value="${basedir}/src/cassandra/import"
+     */
+    private File importDirectory;
+
+    /**
+     * The field separator of the {@code .csv} files.
+     *
+     * @parameter expression="${cassandra.import.separator}" default-value=","
+     */
+    private String separator;
+
+    /**
+     * The maximum number of rows of a batch.
+     *
+     * @parameter expression="${cassandra.import.batchSize}" default-value="100"
+     */
+    private int batchSize;
+
+    /**
+     * How many batches to write concurrently, each over a connection of its own.
+     *
+     * @parameter expression="${cassandra.import.concurrency}" default-value="4"
+     */
+    private int concurrency;
+
+    /**
+     * How many times to retry a batch that timed out or found the node unavailable or overloaded.
+     *
+     * @parameter expression="${cassandra.import.retries}" default-value="3"
+     */
+    private int retries;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( skip )
+        {
+            getLog().info( "Skipping cassandra: cassandra.skip==true" );
+            return;
+        }
+        loadAllocatedPorts();
+        File[] files = importDirectory.listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return FILE_PATTERN.matcher( name ).matches();
+            }
+        } );
+        if ( files == null || files.length == 0 )
+        {
+            getLog().info( "No files to import in " + importDirectory );
+            return;
+        }
+        if ( separator == null || separator.length() != 1 )
+        {
+            throw new MojoExecutionException( "The separator must be a single character, not '" + separator + "'" );
+        }
+        if ( !startNativeTransport )
+        {
+            getLog().warn( "startNativeTransport is false, the native transport may not be listening" );
+        }
+        Arrays.sort( files );
+        SimpleClient client = NativeClients.connect( rpcAddress, nativeTransportPort );
+        try
+        {
+            for ( File file : files )
+            {
+                Matcher matcher = FILE_PATTERN.matcher( file.getName() );
+                matcher.matches();
+                String tableKeyspace = matcher.group( 1 ) != null ? matcher.group( 1 ) : keyspace;
+                if ( tableKeyspace == null )
+                {
+                    throw new MojoExecutionException(
+                        "Set keyspace or name " + file + " after both the keyspace and the table" );
+                }
+                importFile( client, file, tableKeyspace, matcher.group( 2 ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( e.getLocalizedMessage(), e );
+        }
+        finally
+        {
+            client.close();
+        }
+    }
+
+    private void importFile( SimpleClient client, File file, String tableKeyspace, String table )
+        throws IOException, MojoExecutionException
+    {
+        Map<String, String> columns = new LinkedHashMap<String, String>();
+        List<String> partitionKey = new ArrayList<String>();
+        readSchema( client, tableKeyspace, table, columns, partitionKey );
+        Importer importer = new Importer( client, file, tableKeyspace, table, partitionKey );
+        long start = System.nanoTime();
+        try
+        {
+            if ( file.getName().endsWith( ".csv" ) )
+            {
+                importCsv( importer, columns, file );
+            }
+            else
+            {
+                importJson( importer, columns, file );
+            }
+            importer.close();
+        }
+        catch ( InterruptedException e )
+        {
+            throw new MojoExecutionException( "Interrupted while importing " + file, e );
+        }
+        finally
+        {
+            importer.shutdown();
+        }
+        long elapsed = Math.max( 1L, ( System.nanoTime() - start ) / 1000000L );
+        getLog().info( "Imported " + importer.written + " rows into " + tableKeyspace + "." + table + " in "
+                           + importer.batches + " batches, in " + elapsed + "ms (" + ( importer.written.get() * 1000L
+            / elapsed ) + " rows/s)" );
+    }
+
+    private void importCsv( Importer importer, Map<String, String> columns, File file )
+        throws IOException, InterruptedException, MojoExecutionException
+    {
+        CsvReader reader =
+            new CsvReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ), separator.charAt( 0 ) );
+        try
+        {
+            List<String> header = reader.readRecord();
+            if ( header == null )
+            {
+                return;
+            }
+            List<String> names = new ArrayList<String>( header.size() );
+            for ( String column : header )
+            {
+                names.add( NativeClients.getColumnName( columns.keySet(), column, file, reader.getLineNumber() ) );
+            }
+            for ( List<String> record = reader.readRecord(); record != null; record = reader.readRecord() )
+            {
+                if ( record.size() != names.size() )
+                {
+                    throw new MojoExecutionException(
+                        file + ":" + reader.getLineNumber() + ": expected " + names.size() + " fields but got "
+                            + record.size() );
+                }
+                Map<String, String> row = new LinkedHashMap<String, String>();
+                for ( int i = 0; i < names.size(); i++ )
+                {
+                    if ( record.get( i ) != null )
+                    {
+                        row.put( names.get( i ), record.get( i ) );
+                    }
+                }
+                importer.add( row, reader.getLineNumber() );
+            }
+        }
+        finally
+        {
+            Utils.closeQuietly( reader );
+        }
+    }
+
+    private void importJson( Importer importer, Map<String, String> columns, File file )
+        throws IOException, InterruptedException, MojoExecutionException
+    {
+        JsonLinesReader reader = new JsonLinesReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ),
+                                                      file, columns.keySet() );
+        try
+        {
+            for ( Map<String, String> row = reader.readRow(); row != null; row = reader.readRow() )
+            {
+                row.values().removeAll( Collections.singleton( null ) );
+                importer.add( row, reader.getLineNumber() );
+            }
+        }
+        finally
+        {
+            Utils.closeQuietly( reader );
+        }
+    }
+
+    /**
+     * Reads the columns of a table and its partition key columns, in order.
+     */
+    private void readSchema( SimpleClient client, String tableKeyspace, String table, Map<String, String> columns,
+                             List<String> partitionKey )
+        throws IOException, MojoExecutionException
+    {
+        Map<Integer, String> components = new HashMap<Integer, String>();
+        for ( NativeClients.Column column : NativeClients.readColumns( client, tableKeyspace, table ) )
+        {
+            columns.put( column.name, column.kind );
+            if ( "partition_key".equals( column.kind ) )
+            {
+                components.put( column.component, column.name );
+            }
+        }
+        for ( int i = 0; i < components.size(); i++ )
+        {
+            partitionKey.add( components.get( i ) );
+        }
+    }
+
+    /**
+     * The rows of a partition to write together.
+     */
+    private static class Batch
+    {
+        final List<Object> statements = new ArrayList<Object>();
+
+        final List<List<ByteBuffer>> values = new ArrayList<List<ByteBuffer>>();
+
+        final int lineNumber;
+
+        Batch( int lineNumber )
+        {
+            this.lineNumber = lineNumber;
+        }
+    }
+
+    /**
+     * Groups the rows of a file into batches and writes them over worker connections. The inserts are prepared once
+     * for every set of columns the rows have.
+     */
+    private class Importer
+    {
+        final Batch end = new Batch( 0 );
+
+        final SimpleClient client;
+
+        final File file;
+
+        final String tableKeyspace;
+
+        final String table;
+
+        final List<String> partitionKey;
+
+        final Map<List<String>, ResultMessage.Prepared> inserts = new HashMap<List<String>, ResultMessage.Prepared>();
+
+        final Map<List<String>, Batch> pending = new LinkedHashMap<List<String>, Batch>();
+
+        final List<BlockingQueue<Batch>> queues = new ArrayList<BlockingQueue<Batch>>();
+
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        final ExecutorService executor;
+
+        final AtomicLong written = new AtomicLong();
+
+        final AtomicLong batches = new AtomicLong();
+
+        int buffered;
+
+        long nextProgress = System.currentTimeMillis() + NativeClients.PROGRESS_INTERVAL;
+
+        Importer( SimpleClient client, File file, String tableKeyspace, String table, List<String> partitionKey )
+        {
+            this.client = client;
+            this.file = file;
+            this.tableKeyspace = tableKeyspace;
+            this.table = table;
+            this.partitionKey = partitionKey;
+            int connections = Math.max( 1, concurrency );
+            executor = Executors.newFixedThreadPool( connections );
+            for ( int i = 0; i < connections; i++ )
+            {
+                final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>( QUEUED_PER_CONNECTION );
+                queues.add( queue );
+                futures.add( executor.submit( new Callable<Void>()
+                {
+                    public Void call()
+                        throws MojoExecutionException, InterruptedException
+                    {
+                        SimpleClient worker = NativeClients.connect( rpcAddress, nativeTransportPort );
+                        try
+                        {
+                            for ( Batch batch = queue.take(); batch != end; batch = queue.take() )
+                            {
+                                NativeClients.write( worker, batch.statements, batch.values, retries,
+                                                     "the batch at " + file + ":" + batch.lineNumber, getLog() );
+                                written.addAndGet( batch.values.size() );
+                                batches.incrementAndGet();
+                            }
+                        }
+                        finally
+                        {
+                            worker.close();
+                        }
+                        return null;
+                    }
+                } ) );
+            }
+        }
+
+        /**
+         * Adds a row, sending the batch of its partition once it is full, and every pending batch once too many
+         * rows are waiting.
+         */
+        void add( Map<String, String> row, int lineNumber )
+            throws InterruptedException, MojoExecutionException
+        {
+            List<String> partition = new ArrayList<String>( partitionKey.size() );
+            for ( String column : partitionKey )
+            {
+                if ( row.get( column ) == null )
+                {
+                    throw new MojoExecutionException(
+                        file + ":" + lineNumber + ": no value for partition key column " + column );
+                }
+                partition.add( row.get( column ) );
+            }
+            List<String> names = new ArrayList<String>( row.keySet() );
+            ResultMessage.Prepared insert = prepare( names, lineNumber );
+            List<ByteBuffer> values = new ArrayList<ByteBuffer>( names.size() );
+            for ( int i = 0; i < names.size(); i++ )
+            {
+                try
+                {
+                    values.add( insert.metadata.names.get( i ).type.fromString( row.get( names.get( i ) ) ) );
+                }
+                catch ( RuntimeException e )
+                {
+                    throw new MojoExecutionException(
+                        file + ":" + lineNumber + ": invalid value for column " + names.get( i ) + ": "
+                            + e.getMessage(), e );
+                }
+            }
+            Batch batch = pending.get( partition );
+            if ( batch == null )
+            {
+                batch = new Batch( lineNumber );
+                pending.put( partition, batch );
+            }
+            batch.statements.add( insert.statementId );
+            batch.values.add( values );
+            buffered++;
+            if ( batch.values.size() >= batchSize )
+            {
+                pending.remove( partition );
+                send( partition, batch );
+            }
+            else if ( buffered >= batchSize * queues.size() )
+            {
+                flush();
+            }
+            if ( System.currentTimeMillis() >= nextProgress )
+            {
+                getLog().info( "Imported " + written + " rows into " + tableKeyspace + "." + table + " so far" );
+                nextProgress = System.currentTimeMillis() + NativeClients.PROGRESS_INTERVAL;
+            }
+        }
+
+        /**
+         * Sends the pending batches and waits for every batch to be written.
+         */
+        void close()
+            throws InterruptedException, MojoExecutionException
+        {
+            flush();
+            for ( BlockingQueue<Batch> queue : queues )
+            {
+                offer( queue, end );
+            }
+            for ( Future<Void> future : futures )
+            {
+                NativeClients.getResult( future );
+            }
+        }
+
+        void shutdown()
+        {
+            executor.shutdownNow();
+        }
+
+        private ResultMessage.Prepared prepare( List<String> names, int lineNumber )
+            throws MojoExecutionException
+        {
+            ResultMessage.Prepared insert = inserts.get( names );
+            if ( insert == null )
+            {
+                StringBuilder statement = new StringBuilder( "INSERT INTO " ).append(
+                    NativeClients.quote( tableKeyspace ) ).append( '.' ).append( NativeClients.quote( table ) ).append(
+                    " (" );
+                StringBuilder markers = new StringBuilder();
+                for ( String name : names )
+                {
+                    statement.append( markers.length() == 0 ? "" : ", " ).append( NativeClients.quote( name ) );
+                    markers.append( markers.length() == 0 ? "?" : ", ?" );
+                }
+                statement.append( ") VALUES (" ).append( markers ).append( ")" );
+                try
+                {
+                    insert = client.prepare( statement.toString() );
+                }
+                catch ( RuntimeException e )
+                {
+                    throw new MojoExecutionException( file + ":" + lineNumber + ": " + NativeClients.describe( e ),
+                                                      e );
+                }
+                inserts.put( names, insert );
+            }
+            return insert;
+        }
+
+        private void flush()
+            throws InterruptedException, MojoExecutionException
+        {
+            for ( Iterator<Map.Entry<List<String>, Batch>> i = pending.entrySet().iterator(); i.hasNext(); )
+            {
+                Map.Entry<List<String>, Batch> entry = i.next();
+                i.remove();
+                send( entry.getKey(), entry.getValue() );
+            }
+        }
+
+        private void send( List<String> partition, Batch batch )
+            throws InterruptedException, MojoExecutionException
+        {
+            buffered -= batch.values.size();
+            // the same connection for the same partition keeps its rows in order
+            offer( queues.get( ( partition.hashCode() & Integer.MAX_VALUE ) % queues.size() ), batch );
+        }
+
+        private void offer( BlockingQueue<Batch> queue, Batch batch )
+            throws InterruptedException, MojoExecutionException
+        {
+            while ( !queue.offer( batch, 100, TimeUnit.MILLISECONDS ) )
+            {
+                // a worker that failed would leave its queue full forever
+                for ( Future<Void> future : futures )
+                {
+                    if ( future.isDone() )
+                    {
+                        NativeClients.getResult( future );
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the rows of a file holding one JSON object per line one at a time, mapping the keys of the objects to the
+ * columns of a table. Values are read as their JSON text, and collection values are not supported.
+ */
+class JsonLinesReader
+    implements Closeable
+{
+    private final BufferedReader reader;
+
+    private final File file;
+
+    private final Collection<String> columns;
+
+    private final JSONParser parser = new JSONParser();
+
+    private int lineNumber;
+
+    /**
+     * Creates a reader of the rows of a file.
+     *
+     * @param reader  the content of the file.
+     * @param file    the file, for the error messages.
+     * @param columns the columns of the table.
+     */
+    JsonLinesReader( Reader reader, File file, Collection<String> columns )
+    {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader( reader );
+        this.file = file;
+        this.columns = columns;
+    }
+
+    /**
+     * Reads the next row, skipping empty lines.
+     *
+     * @return the values of the row by column, in the order of the object, with {@code null} for a JSON
+     *         {@code null}, or {@code null} if there are no more rows.
+     * @throws IOException            if the file could not be read.
+     * @throws MojoExecutionException if the line is not a JSON object, names an unknown column or holds a collection.
+     */
+    Map<String, String> readRow()
+        throws IOException, MojoExecutionException
+    {
+        String line;
+        do
+        {
+            line = reader.readLine();
+            if ( line == null )
+            {
+                return null;
+            }
+            lineNumber++;
+        }
+        while ( line.trim().length() == 0 );
+        Object object;
+        try
+        {
+            object = parser.parse( line );
+        }
+        catch ( ParseException e )
+        {
+            throw new MojoExecutionException( file + ":" + lineNumber + ": " + e, e );
+        }
+        if ( !( object instanceof Map ) )
+        {
+            throw new MojoExecutionException( file + ":" + lineNumber + ": not a JSON object" );
+        }
+        Map<String, String> row = new LinkedHashMap<String, String>();
+        for ( Map.Entry<?, ?> entry : ( (Map<?, ?>) object ).entrySet() )
+        {
+            String name = NativeClients.getColumnName( columns, String.valueOf( entry.getKey() ), file, lineNumber );
+            if ( entry.getValue() instanceof Map || entry.getValue() instanceof Collection )
+            {
+                throw new MojoExecutionException(
+                    file + ":" + lineNumber + ": collection values are not supported, in column " + name );
+            }
+            row.put( name, entry.getValue() == null ? null : String.valueOf( entry.getValue() ) );
+        }
+        return row;
+    }
+
+    /**
+     * Gets the line of the row last returned by {@link #readRow()}.
+     *
+     * @return the line number, starting at {@code 1}.
+     */
+    int getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+        throws IOException
+    {
+        reader.close();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+/**
+ * A histogram of latencies in microseconds, laid out as an HDR histogram: values below 128 each have a bucket of
+ * their own, and every power of two above is split into 64 buckets, so that a value is known to within less than 2%
+ * whatever its magnitude, in a fixed amount of memory. A histogram is not thread safe: each thread records into its
+ * own, and the histograms are merged once recording is done.
+ */
+class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 7;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final long[] counts = new long[SUB_BUCKETS + ( 64 - SUB_BUCKET_BITS ) * HALF_SUB_BUCKETS];
+
+    private long count;
+
+    private long total;
+
+    private long max;
+
+    /**
+     * Records a latency.
+     *
+     * @param micros the latency, in microseconds.
+     */
+    void record( long micros )
+    {
+        long value = Math.max( 0L, micros );
+        counts[getIndex( value )]++;
+        count++;
+        total += value;
+        max = Math.max( max, value );
+    }
+
+    /**
+     * Adds the latencies recorded by another histogram to this one.
+     *
+     * @param other the other histogram.
+     */
+    void add( LatencyHistogram other )
+    {
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max( max, other.max );
+    }
+
+    /**
+     * Gets the number of latencies recorded.
+     *
+     * @return the number of latencies recorded.
+     */
+    long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Gets the mean latency.
+     *
+     * @return the mean latency, in microseconds, 0 if none was recorded.
+     */
+    double getMean()
+    {
+        return count == 0 ? 0.0 : (double) total / count;
+    }
+
+    /**
+     * Gets the highest latency.
+     *
+     * @return the highest latency, in microseconds, 0 if none was recorded.
+     */
+    long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * Gets the latency that a percentage of the latencies recorded are lower than or equal to, as the highest value of
+     * its bucket.
+     *
+     * @param percentile the percentage, such as {@code 99.9}.
+     * @return the latency, in microseconds, 0 if none was recorded.
+     */
+    long getPercentile( double percentile )
+    {
+        long rank = Math.max( 1L, (long) Math.ceil( Math.min( 100.0, percentile ) / 100.0 * count ) );
+        long seen = 0;
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            seen += counts[i];
+            if ( seen >= rank )
+            {
+                return Math.min( max, getHighestValue( i ) );
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Gets the bucket of a latency.
+     *
+     * @param value the latency, not negative.
+     * @return the index of its bucket.
+     */
+    static int getIndex( long value )
+    {
+        if ( value < SUB_BUCKETS )
+        {
+            return (int) value;
+        }
+        // the shift that brings the value between HALF_SUB_BUCKETS and SUB_BUCKETS
+        int shift = 64 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + ( shift - 1 ) * HALF_SUB_BUCKETS + (int) ( ( value >>> shift ) - HALF_SUB_BUCKETS );
+    }
+
+    /**
+     * Gets the highest latency of a bucket.
+     *
+     * @param index the index of the bucket.
+     * @return the highest latency counted in the bucket.
+     */
+    static long getHighestValue( int index )
+    {
+        if ( index < SUB_BUCKETS )
+        {
+            return index;
+        }
+        int shift = ( index - SUB_BUCKETS ) / HALF_SUB_BUCKETS + 1;
+        long lowest = (long) ( ( index - SUB_BUCKETS ) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS ) << shift;
+        return lowest + ( 1L << shift ) - 1;
+    }
+}
@@ -59,6 +59,7 @@ public class LoadCassandraMojo extends AbstractCassandraMojo
             getLog().info("Skipping cassandra: cassandra.skip==true");
             return;
         }
+        loadAllocatedPorts();
         try
         {
             if (!script.isFile())
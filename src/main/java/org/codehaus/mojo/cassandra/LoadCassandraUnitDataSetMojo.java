@@ -22,8 +22,6 @@ import java.io.File;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.cassandraunit.DataLoader;
-import org.cassandraunit.dataset.FileDataSet;
 import org.cassandraunit.dataset.ParseException;
 
 /**
@@ -63,6 +61,7 @@ public class LoadCassandraUnitDataSetMojo
             getLog().info( "Skipping cassandra: cassandra.skip==true" );
             return;
         }
+        loadAllocatedPorts();
 
         if ( !cuDataSet.isFile() )
         {
@@ -80,8 +79,7 @@ public class LoadCassandraUnitDataSetMojo
 
         try
         {
-            DataLoader dataLoader = new DataLoader( "cassandraUnitCluster", rpcAddress + ":" + rpcPort );
-            dataLoader.load( new FileDataSet( cuDataSet.getAbsolutePath() ) );
+            loadCassandraUnitDataSets( getCassandraUnitDataSets( cuDataSet ) );
         }
         catch ( ParseException e )
         {
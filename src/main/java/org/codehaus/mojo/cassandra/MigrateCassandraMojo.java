@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Compression;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.CqlResult;
+import org.apache.cassandra.thrift.CqlRow;
+import org.apache.cassandra.thrift.InvalidRequestException;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the schema of a Cassandra instance up to date by applying the CQL scripts of {@link #migrationsDirectory}
+ * that were not applied to it yet, in the order of their names, so that an instance whose data directory is reused
+ * does not have to be rebuilt after every schema change. Naming the scripts with a zero padded number, such as
+ * {@code 001-create-users.cql}, keeps them in order.
+ * <p/>
+ * Every script applied is recorded, with a checksum of its content, in a ledger table of {@link #ledgerKeyspace}.
+ * A script whose content changed after it was applied fails the build, as changing it has no effect. A script is only
+ * recorded once all its statements succeeded, so a script that fails halfway is applied again from its first
+ * statement by the next run: writing its statements with {@code IF NOT EXISTS} makes that safe.
+ *
+ * @goal migrate
+ * @threadSafe
+ * @phase pre-integration-test
+ * @since 2.0.0-5
+ */
+public class MigrateCassandraMojo
+    extends AbstractCassandraMojo
+{
+    private static final String LEDGER_TABLE = "schema_migrations";
+
+    /**
+     * The directory holding the {@code .cql} migration scripts.
+     *
+     * @parameter expression="${cassandra.migrate.directory}" default-value="${basedir}/src/cassandra/migrations"
+     */
+    private File migrationsDirectory;
+
+    /**
+     * Whether to only warn, rather than fail, when a script changed after it was applied.
+     *
+     * @parameter expression="${cassandra.migrate.ignoreChangedScripts}" default-value="false"
+     */
+    private boolean ignoreChangedScripts;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( skip )
+        {
+            getLog().info( "Skipping cassandra: cassandra.skip==true" );
+            return;
+        }
+        loadAllocatedPorts();
+        File[] scripts = migrationsDirectory.listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return name.endsWith( ".cql" );
+            }
+        } );
+        if ( scripts == null || scripts.length == 0 )
+        {
+            getLog().info( "No migration scripts in " + migrationsDirectory );
+            return;
+        }
+        Arrays.sort( scripts );
+        long timeStamp = System.currentTimeMillis();
+        MigrateOperation operation = new MigrateOperation( scripts );
+        try
+        {
+            Utils.executeThrift( operation );
+        }
+        catch ( MojoExecutionException e )
+        {
+            if ( operation.failure != null )
+            {
+                throw new MojoExecutionException( operation.failure, e );
+            }
+            throw e;
+        }
+        if ( operation.changed != null && !ignoreChangedScripts )
+        {
+            throw new MojoFailureException( operation.changed + " changed after it was applied, add a new migration "
+                                                + "script instead or set ignoreChangedScripts" );
+        }
+        getLog().info( ( operation.applied == 0
+            ? "Schema is up to date with " + scripts.length + " migration scripts"
+            : "Applied " + operation.applied + " of " + scripts.length + " migration scripts" ) + " in "
+                           + ( System.currentTimeMillis() - timeStamp ) + "ms" );
+    }
+
+    private static String literal( String value )
+    {
+        return "'" + value.replace( "'", "''" ) + "'";
+    }
+
+    private static String describe( Exception e )
+    {
+        return e instanceof InvalidRequestException ? ( (InvalidRequestException) e ).getWhy() : e.toString();
+    }
+
+    /**
+     * Reads the ledger and applies the pending scripts over a single connection.
+     */
+    private class MigrateOperation
+        extends ThriftApiOperation
+    {
+        private final File[] scripts;
+
+        private String failure;
+
+        private String changed;
+
+        private int applied;
+
+        MigrateOperation( File[] scripts )
+        {
+            super( rpcAddress, rpcPort );
+            this.scripts = scripts;
+        }
+
+        void executeOperation( Cassandra.Client client )
+            throws ThriftApiExecutionException
+        {
+            String ledger = NativeClients.quote( ledgerKeyspace ) + "." + LEDGER_TABLE;
+            Map<String, String> checksums = new HashMap<String, String>();
+            try
+            {
+                execute( client, "CREATE KEYSPACE IF NOT EXISTS " + NativeClients.quote( ledgerKeyspace )
+                    + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1}" );
+                execute( client, "CREATE TABLE IF NOT EXISTS " + ledger
+                    + " (script text PRIMARY KEY, checksum text, applied_at timestamp, duration_ms bigint)" );
+                for ( CqlRow row : execute( client, "SELECT script, checksum FROM " + ledger ) )
+                {
+                    checksums.put( ByteBufferUtil.string( row.getColumns().get( 0 ).bufferForValue() ),
+                                   ByteBufferUtil.string( row.getColumns().get( 1 ).bufferForValue() ) );
+                }
+            }
+            catch ( Exception e )
+            {
+                failure = "Could not read the migration ledger " + ledger + ": " + describe( e );
+                throw new ThriftApiExecutionException( e );
+            }
+            for ( File script : scripts )
+            {
+                String checksum;
+                try
+                {
+                    checksum = Utils.digest( Collections.singletonList( script ) );
+                }
+                catch ( IOException e )
+                {
+                    failure = "Could not read " + script + ": " + e.getMessage();
+                    throw new ThriftApiExecutionException( e );
+                }
+                if ( checksums.containsKey( script.getName() ) )
+                {
+                    if ( !checksum.equals( checksums.get( script.getName() ) ) )
+                    {
+                        getLog().warn( script + " changed after it was applied" );
+                        changed = changed == null ? script.getName() : changed;
+                    }
+                    continue;
+                }
+                long start = System.currentTimeMillis();
+                apply( client, script );
+                try
+                {
+                    execute( client, "INSERT INTO " + ledger + " (script, checksum, applied_at, duration_ms) VALUES ("
+                        + literal( script.getName() ) + ", " + literal( checksum ) + ", " + start + ", "
+                        + ( System.currentTimeMillis() - start ) + ")" );
+                }
+                catch ( Exception e )
+                {
+                    failure = "Could not record " + script.getName() + " in the migration ledger: " + describe( e );
+                    throw new ThriftApiExecutionException( e );
+                }
+                applied++;
+                getLog().info( "Applied " + script.getName() );
+            }
+        }
+
+        private void apply( Cassandra.Client client, File script )
+            throws ThriftApiExecutionException
+        {
+            CqlStatementReader reader = null;
+            int lineNumber = 0;
+            try
+            {
+                reader = new CqlStatementReader( new InputStreamReader( new FileInputStream( script ), "UTF-8" ) );
+                if ( StringUtils.isNotBlank( keyspace ) )
+                {
+                    // every script starts in the configured keyspace, whatever the previous one used
+                    client.set_keyspace( keyspace );
+                }
+                for ( String statement = reader.readStatement(); statement != null; statement = reader.readStatement() )
+                {
+                    lineNumber = reader.getLineNumber();
+                    execute( client, statement );
+                }
+            }
+            catch ( Exception e )
+            {
+                failure = script + ( lineNumber > 0 ? ":" + lineNumber : "" ) + ": " + describe( e );
+                throw new ThriftApiExecutionException( e );
+            }
+            finally
+            {
+                Utils.closeQuietly( reader );
+            }
+        }
+
+        private List<CqlRow> execute( Cassandra.Client client, String statement )
+            throws Exception
+        {
+            CqlResult result =
+                client.execute_cql3_query( ByteBufferUtil.bytes( statement ), Compression.NONE, ConsistencyLevel.ONE );
+            return result.getRows() != null ? result.getRows() : new ArrayList<CqlRow>();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.statements.BatchStatement;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.exceptions.OverloadedException;
+import org.apache.cassandra.exceptions.RequestTimeoutException;
+import org.apache.cassandra.exceptions.UnavailableException;
+import org.apache.cassandra.transport.SimpleClient;
+import org.apache.cassandra.transport.messages.BatchMessage;
+import org.apache.cassandra.transport.messages.ResultMessage;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.MD5Digest;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * What the goals talking to Cassandra over the native protocol with its {@link SimpleClient} have in common.
+ */
+final class NativeClients
+{
+    /**
+     * The consistency level of the writes of the goals.
+     */
+    static final ConsistencyLevel CONSISTENCY = ConsistencyLevel.ONE;
+
+    /**
+     * How often the goals report progress, in milliseconds.
+     */
+    static final long PROGRESS_INTERVAL = 10000L;
+
+    private static final QueryOptions BATCH_OPTIONS =
+        QueryOptions.forInternalCalls( CONSISTENCY, Collections.<ByteBuffer>emptyList() );
+
+    /**
+     * The delay before the first retry of a batch, doubled for every further retry.
+     */
+    private static final long RETRY_DELAY = 100L;
+
+    /**
+     * Do not instantiate.
+     */
+    private NativeClients()
+    {
+        throw new IllegalAccessError( "Utility class" );
+    }
+
+    /**
+     * Opens a connection to the native transport.
+     *
+     * @param address the address to connect to.
+     * @param port    the port of the native transport.
+     * @return the connection.
+     * @throws MojoExecutionException if the connection could not be opened.
+     */
+    static SimpleClient connect( String address, int port )
+        throws MojoExecutionException
+    {
+        SimpleClient client = new SimpleClient( address, port );
+        try
+        {
+            client.connect( false );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not connect to the native transport on " + address + ":" + port,
+                                              e );
+        }
+        return client;
+    }
+
+    /**
+     * Describes the failure of a request.
+     *
+     * @param e the failure thrown by the client.
+     * @return the error reported by the server, which the client wraps, or the failure itself.
+     */
+    static String describe( RuntimeException e )
+    {
+        return String.valueOf( e.getCause() != null ? e.getCause() : e );
+    }
+
+    /**
+     * Tells whether a request failed because it timed out or found the nodes unavailable or overloaded, which
+     * retrying it later may get past.
+     *
+     * @param e the failure thrown by the client.
+     * @return {@code true} if the failure is transient.
+     */
+    static boolean isTransient( RuntimeException e )
+    {
+        return e.getCause() instanceof RequestTimeoutException || e.getCause() instanceof UnavailableException
+            || e.getCause() instanceof OverloadedException;
+    }
+
+    /**
+     * Quotes a keyspace, table or column name, so that it keeps its case.
+     *
+     * @param name the name.
+     * @return the quoted name.
+     */
+    static String quote( String name )
+    {
+        return "\"" + name.replace( "\"", "\"\"" ) + "\"";
+    }
+
+    /**
+     * Gets the column of a table that a file names, as it is or, as CQL does with unquoted names, in lower case.
+     *
+     * @param columns    the columns of the table.
+     * @param name       the name in the file.
+     * @param file       the file, for the error message.
+     * @param lineNumber the line of the name, for the error message.
+     * @return the column.
+     * @throws MojoExecutionException if the table has no such column.
+     */
+    static String getColumnName( Collection<String> columns, String name, File file, int lineNumber )
+        throws MojoExecutionException
+    {
+        String trimmed = name == null ? "" : name.trim();
+        if ( columns.contains( trimmed ) )
+        {
+            return trimmed;
+        }
+        if ( columns.contains( trimmed.toLowerCase( Locale.ENGLISH ) ) )
+        {
+            return trimmed.toLowerCase( Locale.ENGLISH );
+        }
+        throw new MojoExecutionException( file + ":" + lineNumber + ": unknown column " + trimmed );
+    }
+
+    /**
+     * Reads the columns of a table from the schema of the instance.
+     *
+     * @param client   the connection to read them over.
+     * @param keyspace the keyspace of the table.
+     * @param table    the table.
+     * @return the columns, in no particular order.
+     * @throws IOException            if the schema could not be decoded.
+     * @throws MojoExecutionException if the schema could not be read or there is no such table.
+     */
+    static List<Column> readColumns( SimpleClient client, String keyspace, String table )
+        throws IOException, MojoExecutionException
+    {
+        ResultMessage result;
+        try
+        {
+            result = client.execute( "SELECT column_name, type, component_index, validator FROM system.schema_columns "
+                                         + "WHERE keyspace_name = '" + keyspace.replace( "'", "''" )
+                                         + "' AND columnfamily_name = '" + table.replace( "'", "''" ) + "'",
+                                     CONSISTENCY );
+        }
+        catch ( RuntimeException e )
+        {
+            throw new MojoExecutionException(
+                "Could not read the schema of " + keyspace + "." + table + ": " + describe( e ), e );
+        }
+        List<Column> columns = new ArrayList<Column>();
+        for ( List<ByteBuffer> row : ( (ResultMessage.Rows) result ).result.rows )
+        {
+            columns.add( new Column( ByteBufferUtil.string( row.get( 0 ) ), ByteBufferUtil.string( row.get( 1 ) ),
+                                     row.get( 2 ) == null ? 0 : ByteBufferUtil.toInt( row.get( 2 ) ),
+                                     ByteBufferUtil.string( row.get( 3 ) ) ) );
+        }
+        if ( columns.isEmpty() )
+        {
+            throw new MojoExecutionException( "There is no table " + keyspace + "." + table );
+        }
+        return columns;
+    }
+
+    /**
+     * Writes rows with prepared statements, in an unlogged batch unless there is a single row. A write that failed
+     * transiently is retried after a delay that doubles with every attempt.
+     *
+     * @param client     the connection to write over.
+     * @param statements the {@link MD5Digest} id of the statement of each row.
+     * @param values     the values of each row.
+     * @param retries    how many times to retry.
+     * @param batch      what is written, for the messages.
+     * @param log        where to report the retries.
+     * @throws MojoExecutionException if the write failed, and was not retried or failed on the last retry.
+     * @throws InterruptedException   if interrupted while waiting to retry.
+     */
+    static void write( SimpleClient client, List<Object> statements, List<List<ByteBuffer>> values, int retries,
+                       String batch, Log log )
+        throws MojoExecutionException, InterruptedException
+    {
+        for ( int attempt = 0; ; attempt++ )
+        {
+            try
+            {
+                if ( statements.size() == 1 )
+                {
+                    client.executePrepared( ( (MD5Digest) statements.get( 0 ) ).bytes, values.get( 0 ), CONSISTENCY );
+                }
+                else
+                {
+                    client.execute(
+                        new BatchMessage( BatchStatement.Type.UNLOGGED, statements, values, BATCH_OPTIONS ) );
+                }
+                return;
+            }
+            catch ( RuntimeException e )
+            {
+                if ( attempt >= retries || !isTransient( e ) )
+                {
+                    throw new MojoExecutionException( "Could not write " + batch + ": " + describe( e ), e );
+                }
+                log.debug( "Retrying " + batch + ": " + describe( e ) );
+                Thread.sleep( RETRY_DELAY << attempt );
+            }
+        }
+    }
+
+    /**
+     * Waits for a worker thread to complete.
+     *
+     * @param future the result of the thread.
+     * @throws InterruptedException   if interrupted while waiting.
+     * @throws MojoExecutionException if the thread failed.
+     */
+    static void getResult( Future<?> future )
+        throws InterruptedException, MojoExecutionException
+    {
+        try
+        {
+            future.get();
+        }
+        catch ( ExecutionException e )
+        {
+            throw toMojoExecutionException( e );
+        }
+    }
+
+    /**
+     * Waits for a worker thread for up to {@link #PROGRESS_INTERVAL}, for the progress to be reported in between.
+     *
+     * @param future the result of the thread.
+     * @return {@code true} if the thread completed.
+     * @throws InterruptedException   if interrupted while waiting.
+     * @throws MojoExecutionException if the thread failed.
+     */
+    static boolean getResultOrProgress( Future<?> future )
+        throws InterruptedException, MojoExecutionException
+    {
+        try
+        {
+            future.get( PROGRESS_INTERVAL, TimeUnit.MILLISECONDS );
+            return true;
+        }
+        catch ( TimeoutException e )
+        {
+            return false;
+        }
+        catch ( ExecutionException e )
+        {
+            throw toMojoExecutionException( e );
+        }
+    }
+
+    private static MojoExecutionException toMojoExecutionException( ExecutionException e )
+    {
+        if ( e.getCause() instanceof MojoExecutionException )
+        {
+            return (MojoExecutionException) e.getCause();
+        }
+        return new MojoExecutionException( e.getCause().getLocalizedMessage(), e.getCause() );
+    }
+
+    /**
+     * A column of a table, as described by {@code system.schema_columns}.
+     */
+    static class Column
+    {
+        final String name;
+
+        /**
+         * {@code partition_key}, {@code clustering_key}, {@code regular} or {@code compact_value}.
+         */
+        final String kind;
+
+        /**
+         * The position of a key column within the partition key or the clustering columns.
+         */
+        final int component;
+
+        /**
+         * The class name of the type.
+         */
+        final String type;
+
+        Column( String name, String kind, int component, String type )
+        {
+            this.name = name;
+            this.kind = kind;
+            this.component = component;
+            this.type = type;
+        }
+    }
+}
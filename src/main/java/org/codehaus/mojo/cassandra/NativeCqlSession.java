@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.cql3.ColumnSpecification;
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.ResultSet;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.service.pager.PagingState;
+import org.apache.cassandra.transport.SimpleClient;
+import org.apache.cassandra.transport.messages.ExecuteMessage;
+import org.apache.cassandra.transport.messages.QueryMessage;
+import org.apache.cassandra.transport.messages.ResultMessage;
+import org.codehaus.plexus.util.StringUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A connection over the CQL native protocol that runs data manipulation statements as prepared statements.
+ * <p/>
+ * The literals of such a statement are replaced by bind markers, and the resulting shape is prepared once and then
+ * executed with the literals of every statement of the same shape as bound values, converted according to the types
+ * the server reports for the markers. Statements that cannot be handled that way, because they use collection
+ * literals or the server will not prepare their shape, are sent as they are. Any other statement clears the prepared
+ * shapes, as it may change the schema they were prepared against.
+ * <p/>
+ * The rows of a statement can be fetched a page at a time, each page carrying the paging state to fetch the next one
+ * with.
+ */
+class NativeCqlSession
+    implements Closeable
+{
+    private static final ConsistencyLevel CONSISTENCY = ConsistencyLevel.ONE;
+
+    private static final List<String> PREPARED_VERBS = Arrays.asList( "INSERT", "UPDATE", "DELETE", "BEGIN", "SELECT" );
+
+    private static final Pattern LITERAL_PATTERN = Pattern.compile(
+        "-?[0-9]+(\\.[0-9]*)?([eE][-+]?[0-9]+)?|0[xX][0-9a-fA-F]*|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-"
+            + "[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|true|false", Pattern.CASE_INSENSITIVE );
+
+    /**
+     * The paging state of a result, which the result metadata of Cassandra 2.1 decodes but does not expose.
+     */
+    private static final Field PAGING_STATE = getPagingStateField();
+
+    private final SimpleClient client;
+
+    private final Map<String, ResultMessage.Prepared> prepared = new HashMap<String, ResultMessage.Prepared>();
+
+    private final Set<String> unprepared = new HashSet<String>();
+
+    private int preparedExecutions;
+
+    /**
+     * Connects to a node.
+     *
+     * @param host     the address of the native transport.
+     * @param port     the port of the native transport.
+     * @param keyspace the keyspace to use, or {@code null} for none.
+     * @throws IOException if the connection could not be established.
+     */
+    NativeCqlSession( String host, int port, String keyspace )
+        throws IOException
+    {
+        client = new SimpleClient( host, port );
+        client.connect( false );
+        if ( StringUtils.isNotBlank( keyspace ) )
+        {
+            client.execute( "USE \"" + keyspace + "\"", CONSISTENCY );
+        }
+    }
+
+    /**
+     * Runs a statement.
+     *
+     * @param statement the statement.
+     * @return the result.
+     * @throws RuntimeException if the statement failed, with the error reported by the server as the cause.
+     */
+    ResultMessage execute( String statement )
+    {
+        return execute( statement, -1, null );
+    }
+
+    /**
+     * Runs a statement, fetching a page of its rows.
+     *
+     * @param statement   the statement.
+     * @param pageSize    the maximum number of rows to fetch, or a negative value for all of them.
+     * @param pagingState the paging state of the previous page, or {@code null} for the first page.
+     * @return the result.
+     * @throws RuntimeException if the statement failed, with the error reported by the server as the cause.
+     */
+    ResultMessage execute( String statement, int pageSize, PagingState pagingState )
+    {
+        if ( !PREPARED_VERBS.contains( getVerb( statement ) ) )
+        {
+            prepared.clear();
+            unprepared.clear();
+            return query( statement, pageSize, pagingState );
+        }
+        List<String> literals = new ArrayList<String>();
+        String shape = getShape( statement, literals );
+        if ( shape == null || unprepared.contains( shape ) )
+        {
+            return query( statement, pageSize, pagingState );
+        }
+        ResultMessage.Prepared preparedStatement = prepared.get( shape );
+        if ( preparedStatement == null )
+        {
+            try
+            {
+                preparedStatement = client.prepare( shape );
+            }
+            catch ( RuntimeException e )
+            {
+                // not every literal can be a bind marker, the server tells
+                unprepared.add( shape );
+                return query( statement, pageSize, pagingState );
+            }
+            if ( preparedStatement.metadata.names.size() != literals.size() )
+            {
+                unprepared.add( shape );
+                return query( statement, pageSize, pagingState );
+            }
+            prepared.put( shape, preparedStatement );
+        }
+        List<ByteBuffer> values = bind( preparedStatement.metadata.names, literals );
+        if ( values == null )
+        {
+            return query( statement, pageSize, pagingState );
+        }
+        preparedExecutions++;
+        if ( pageSize < 0 && pagingState == null )
+        {
+            return client.executePrepared( preparedStatement.statementId.bytes, values, CONSISTENCY );
+        }
+        return (ResultMessage) client.execute(
+            new ExecuteMessage( preparedStatement.statementId, getOptions( values, pageSize, pagingState ) ) );
+    }
+
+    /**
+     * Gets how many statements were run as prepared statements.
+     *
+     * @return how many statements were run as prepared statements.
+     */
+    int getPreparedExecutions()
+    {
+        return preparedExecutions;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+        client.close();
+    }
+
+    /**
+     * Returns {@code true} if the rows of a statement can be fetched a page at a time.
+     *
+     * @return {@code true} if the paging state of a page can be read.
+     */
+    static boolean isPagingSupported()
+    {
+        return PAGING_STATE != null;
+    }
+
+    /**
+     * Gets the paging state to fetch the page after a page of rows with.
+     *
+     * @param rows the page of rows.
+     * @return the paging state, or {@code null} if it is the last page.
+     */
+    static PagingState getPagingState( ResultMessage.Rows rows )
+    {
+        try
+        {
+            return PAGING_STATE == null ? null : (PagingState) PAGING_STATE.get( rows.result.metadata );
+        }
+        catch ( IllegalAccessException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private ResultMessage query( String statement, int pageSize, PagingState pagingState )
+    {
+        if ( pageSize < 0 && pagingState == null )
+        {
+            return client.execute( statement, CONSISTENCY );
+        }
+        return (ResultMessage) client.execute(
+            new QueryMessage( statement, getOptions( Collections.<ByteBuffer>emptyList(), pageSize, pagingState ) ) );
+    }
+
+    private static QueryOptions getOptions( List<ByteBuffer> values, int pageSize, PagingState pagingState )
+    {
+        return QueryOptions.create( CONSISTENCY, values, false, pageSize, pagingState, ConsistencyLevel.SERIAL );
+    }
+
+    private static Field getPagingStateField()
+    {
+        try
+        {
+            Field field = ResultSet.Metadata.class.getDeclaredField( "pagingState" );
+            field.setAccessible( true );
+            return field;
+        }
+        catch ( Exception e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Converts literals to the types of the bind markers that replace them.
+     *
+     * @return the values, or {@code null} if a literal does not convert.
+     */
+    private static List<ByteBuffer> bind( List<ColumnSpecification> markers, List<String> literals )
+    {
+        List<ByteBuffer> values = new ArrayList<ByteBuffer>( literals.size() );
+        for ( int i = 0; i < literals.size(); i++ )
+        {
+            try
+            {
+                values.add( markers.get( i ).type.fromString( literals.get( i ) ) );
+            }
+            catch ( RuntimeException e )
+            {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gets the first keyword of a statement, in upper case.
+     */
+    static String getVerb( String statement )
+    {
+        int start = 0;
+        while ( start < statement.length() )
+        {
+            if ( Character.isWhitespace( statement.charAt( start ) ) )
+            {
+                start++;
+            }
+            else if ( statement.startsWith( "--", start ) || statement.startsWith( "//", start ) )
+            {
+                int end = statement.indexOf( '\n', start );
+                start = end < 0 ? statement.length() : end + 1;
+            }
+            else if ( statement.startsWith( "/*", start ) )
+            {
+                int end = statement.indexOf( "*/", start + 2 );
+                start = end < 0 ? statement.length() : end + 2;
+            }
+            else
+            {
+                break;
+            }
+        }
+        int end = start;
+        while ( end < statement.length() && Character.isLetter( statement.charAt( end ) ) )
+        {
+            end++;
+        }
+        return statement.substring( start, end ).toUpperCase( Locale.ENGLISH );
+    }
+
+    /**
+     * Replaces the literals of a statement with bind markers.
+     *
+     * @param statement the statement.
+     * @param literals  receives the literals, string literals unquoted and blobs without their {@code 0x} prefix.
+     * @return the statement with bind markers, or {@code null} if it has no literals or cannot be prepared.
+     */
+    static String getShape( String statement, List<String> literals )
+    {
+        StringBuilder shape = new StringBuilder( statement.length() );
+        char previous = '(';
+        int i = 0;
+        while ( i < statement.length() )
+        {
+            char c = statement.charAt( i );
+            int end = i + 1;
+            if ( c == '{' || c == '[' || c == '?' || c == ':' )
+            {
+                // collection literals and existing bind markers
+                return null;
+            }
+            if ( c == '\'' || c == '"' )
+            {
+                end = getEndOfQuoted( statement, i );
+                if ( c == '\'' )
+                {
+                    literals.add( statement.substring( i + 1, end - 1 ).replace( "''", "'" ) );
+                    shape.append( '?' );
+                }
+                else
+                {
+                    shape.append( statement, i, end );
+                }
+            }
+            else if ( statement.startsWith( "--", i ) || statement.startsWith( "//", i ) )
+            {
+                end = statement.indexOf( '\n', i );
+                end = end < 0 ? statement.length() : end;
+                shape.append( statement, i, end );
+            }
+            else if ( statement.startsWith( "/*", i ) )
+            {
+                end = statement.indexOf( "*/", i + 2 );
+                end = end < 0 ? statement.length() : end + 2;
+                shape.append( statement, i, end );
+            }
+            else if ( Character.isLetterOrDigit( c ) || c == '_'
+                || ( c == '-' && "(,=<>".indexOf( previous ) >= 0 && i + 1 < statement.length()
+                && Character.isDigit( statement.charAt( i + 1 ) ) ) )
+            {
+                while ( end < statement.length() && ( Character.isLetterOrDigit( statement.charAt( end ) )
+                    || "_.-+".indexOf( statement.charAt( end ) ) >= 0 ) )
+                {
+                    end++;
+                }
+                String word = statement.substring( i, end );
+                if ( LITERAL_PATTERN.matcher( word ).matches() )
+                {
+                    literals.add( word.startsWith( "0x" ) || word.startsWith( "0X" ) ? word.substring( 2 ) : word );
+                    shape.append( '?' );
+                }
+                else
+                {
+                    shape.append( word );
+                }
+            }
+            else
+            {
+                shape.append( c );
+            }
+            if ( !Character.isWhitespace( c ) )
+            {
+                previous = statement.charAt( end - 1 );
+            }
+            i = end;
+        }
+        return literals.isEmpty() ? null : shape.toString();
+    }
+
+    private static int getEndOfQuoted( String statement, int start )
+    {
+        char quote = statement.charAt( start );
+        int i = start + 1;
+        while ( i < statement.length() )
+        {
+            if ( statement.charAt( i ) == quote )
+            {
+                if ( i + 1 < statement.length() && statement.charAt( i + 1 ) == quote )
+                {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return statement.length();
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Compression;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.CqlResult;
+import org.apache.cassandra.thrift.CqlRow;
+import org.apache.cassandra.tools.NodeProbe;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Resets the data of a running Cassandra instance without restarting it, so that the phases of an integration test
+ * run each start from a known state.
+ *
+ * @goal reset
+ * @threadSafe
+ * @since 2.0.0-5
+ */
+public class ResetCassandraMojo
+    extends AbstractCassandraMojo
+{
+    /**
+     * The tag of the snapshot that the {@code restore} mode restores, taken by the {@code start} goal when
+     * {@code captureResetState} is set.
+     */
+    static final String SNAPSHOT_TAG = "cassandra-maven-plugin-reset";
+
+    /**
+     * The keyspaces that are never reset.
+     */
+    private static final List<String> SYSTEM_KEYSPACES = Arrays.asList( "system", "system_auth", "system_traces" );
+
+    /**
+     * How to reset the keyspaces: {@code truncate} empties every table, {@code drop} drops the keyspaces and
+     * {@code restore} empties every table and then reloads the data captured by the {@code start} goal right after
+     * the initial load (see {@code captureResetState}).
+     *
+     * @parameter expression="${cassandra.reset.mode}" default-value="truncate"
+     */
+    private String mode;
+
+    /**
+     * The comma separated keyspaces to reset. All the keyspaces except the system ones and {@link #ledgerKeyspace}
+     * are reset when not set.
+     *
+     * @parameter expression="${cassandra.reset.keyspaces}"
+     */
+    private String keyspaces;
+
+    /**
+     * How many tables to truncate concurrently, each truncation thread using a connection of its own.
+     *
+     * @parameter expression="${cassandra.reset.threads}" default-value="4"
+     */
+    private int threads;
+
+    /**
+     * When {@code false}, the snapshots that Cassandra takes of the tables before truncating or dropping them, as
+     * {@code auto_snapshot} is set, are deleted once they are reset.
+     *
+     * @parameter expression="${cassandra.reset.keepSnapshots}" default-value="false"
+     */
+    private boolean keepSnapshots;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( skip )
+        {
+            getLog().info( "Skipping cassandra: cassandra.skip==true" );
+            return;
+        }
+        loadAllocatedPorts();
+        if ( !Arrays.asList( "truncate", "drop", "restore" ).contains( mode ) )
+        {
+            throw new MojoExecutionException(
+                "Unsupported reset mode '" + mode + "', use one of truncate, drop or restore" );
+        }
+        long timeStamp = System.currentTimeMillis();
+        List<String> tables = new ArrayList<String>();
+        List<String> resetKeyspaces = listKeyspaces( tables );
+        List<File> snapshots = listSnapshots( resetKeyspaces, false );
+        // checked before truncating anything
+        List<File> resetSnapshots = "restore".equals( mode ) ? getResetSnapshots( resetKeyspaces ) : null;
+        if ( "drop".equals( mode ) )
+        {
+            // schema changes are serialised by Cassandra anyway
+            for ( String keyspace : resetKeyspaces )
+            {
+                execute( "DROP KEYSPACE \"" + keyspace + "\"" );
+                getLog().debug( "Dropped keyspace " + keyspace );
+            }
+        }
+        else
+        {
+            truncate( tables );
+            if ( "restore".equals( mode ) )
+            {
+                restore( resetSnapshots );
+            }
+        }
+        if ( !keepSnapshots )
+        {
+            deleteAutomaticSnapshots( resetKeyspaces, snapshots );
+        }
+        getLog().info( "Reset " + resetKeyspaces.size() + " keyspaces (" + mode + ") in "
+                           + ( ( System.currentTimeMillis() - timeStamp ) / 100L ) / 10.0 + "s" );
+    }
+
+    /**
+     * Lists the keyspaces to reset and their tables.
+     *
+     * @param tables receives the tables of the keyspaces to reset, as {@code keyspace.table}.
+     * @return the keyspaces to reset.
+     * @throws MojoExecutionException if something went wrong.
+     */
+    private List<String> listKeyspaces( List<String> tables )
+        throws MojoExecutionException
+    {
+        List<String> requested =
+            StringUtils.isBlank( keyspaces ) ? null : Arrays.asList( StringUtils.stripAll( StringUtils.split(
+                keyspaces, "," ) ) );
+        List<String> resetKeyspaces = new ArrayList<String>();
+        for ( CqlRow row : execute( "SELECT keyspace_name, columnfamily_name FROM system.schema_columnfamilies" ) )
+        {
+            String keyspace = getString( row, 0 );
+            if ( SYSTEM_KEYSPACES.contains( keyspace ) || ( requested == null ? keyspace.equals( ledgerKeyspace )
+                : !requested.contains( keyspace ) ) )
+            {
+                continue;
+            }
+            if ( !resetKeyspaces.contains( keyspace ) )
+            {
+                resetKeyspaces.add( keyspace );
+            }
+            tables.add( keyspace + "." + getString( row, 1 ) );
+        }
+        return resetKeyspaces;
+    }
+
+    /**
+     * Lists the snapshots of the tables of the keyspaces.
+     *
+     * @param resetKeyspaces the keyspaces.
+     * @param includeReset   whether to include the snapshot that the {@code restore} mode restores.
+     * @return the snapshot directories.
+     * @throws MojoExecutionException if the storage directory could not be found.
+     */
+    private List<File> listSnapshots( List<String> resetKeyspaces, boolean includeReset )
+        throws MojoExecutionException
+    {
+        List<File> snapshots = new ArrayList<File>();
+        File data;
+        try
+        {
+            data = new File( getStorageDirectory( cassandraDir ), "data" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( e.getLocalizedMessage(), e );
+        }
+        for ( String keyspace : resetKeyspaces )
+        {
+            File[] tableDirs = new File( data, keyspace ).listFiles();
+            for ( File tableDir : tableDirs == null ? new File[0] : tableDirs )
+            {
+                File[] tableSnapshots = new File( tableDir, "snapshots" ).listFiles();
+                for ( File snapshot : tableSnapshots == null ? new File[0] : tableSnapshots )
+                {
+                    if ( includeReset || !SNAPSHOT_TAG.equals( snapshot.getName() ) )
+                    {
+                        snapshots.add( snapshot );
+                    }
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Deletes the snapshots that Cassandra took while the keyspaces were reset.
+     *
+     * @param resetKeyspaces the keyspaces.
+     * @param previous       the snapshots that were there before the reset, which are kept.
+     * @throws MojoExecutionException if a snapshot could not be deleted.
+     */
+    private void deleteAutomaticSnapshots( List<String> resetKeyspaces, List<File> previous )
+        throws MojoExecutionException
+    {
+        List<File> snapshots = listSnapshots( resetKeyspaces, false );
+        snapshots.removeAll( previous );
+        for ( File snapshot : snapshots )
+        {
+            try
+            {
+                FileUtils.deleteDirectory( snapshot );
+            }
+            catch ( IOException e )
+            {
+                throw new MojoExecutionException( "Could not delete snapshot " + snapshot, e );
+            }
+        }
+        getLog().debug( "Deleted " + snapshots.size() + " automatic snapshots" );
+    }
+
+    /**
+     * Truncates tables concurrently.
+     *
+     * @param tables the tables to truncate, as {@code keyspace.table}.
+     * @throws MojoExecutionException if something went wrong.
+     */
+    private void truncate( List<String> tables )
+        throws MojoExecutionException
+    {
+        if ( tables.isEmpty() )
+        {
+            return;
+        }
+        final Queue<String> queue = new ConcurrentLinkedQueue<String>( tables );
+        int workers = Math.max( 1, Math.min( threads, tables.size() ) );
+        ExecutorService executor = Executors.newFixedThreadPool( workers );
+        try
+        {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>( workers );
+            for ( int i = 0; i < workers; i++ )
+            {
+                futures.add( executor.submit( new Callable<Void>()
+                {
+                    public Void call()
+                        throws MojoExecutionException
+                    {
+                        Utils.executeThrift( new TruncateOperation( queue ) );
+                        return null;
+                    }
+                } ) );
+            }
+            for ( Future<Void> future : futures )
+            {
+                future.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            throw new MojoExecutionException( "Interrupted while truncating", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof MojoExecutionException )
+            {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException( e.getCause().getLocalizedMessage(), e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the snapshots tagged {@link #SNAPSHOT_TAG} of the tables of the keyspaces.
+     *
+     * @param resetKeyspaces the keyspaces to restore.
+     * @return the snapshot directories.
+     * @throws MojoExecutionException if something went wrong.
+     * @throws MojoFailureException   if there is no snapshot to restore.
+     */
+    private List<File> getResetSnapshots( List<String> resetKeyspaces )
+        throws MojoExecutionException, MojoFailureException
+    {
+        List<File> snapshots = new ArrayList<File>();
+        for ( File snapshot : listSnapshots( resetKeyspaces, true ) )
+        {
+            if ( SNAPSHOT_TAG.equals( snapshot.getName() ) )
+            {
+                snapshots.add( snapshot );
+            }
+        }
+        if ( snapshots.isEmpty() )
+        {
+            throw new MojoFailureException( "There is no reset snapshot to restore, set captureResetState on the "
+                                                + "start goal to capture one right after the initial load" );
+        }
+        return snapshots;
+    }
+
+    /**
+     * Reloads tables from their snapshots tagged {@link #SNAPSHOT_TAG}. The snapshot files are
+     * linked into the table directories under generations that no live SSTable uses, and then picked up through JMX
+     * just like {@code nodetool refresh} does.
+     *
+     * @param snapshots the snapshots to restore, as returned by {@link #getResetSnapshots(List)}.
+     * @throws MojoExecutionException if something went wrong.
+     */
+    private void restore( List<File> snapshots )
+        throws MojoExecutionException
+    {
+        NodeProbe probe = null;
+        try
+        {
+            for ( File snapshot : snapshots )
+            {
+                File tableDir = snapshot.getParentFile().getParentFile();
+                int generation = Utils.getMaxSSTableGeneration( tableDir.listFiles() );
+                File[] files = snapshot.listFiles();
+                for ( File file : files == null ? new File[0] : files )
+                {
+                    String name = Utils.withSSTableGeneration( file.getName(), generation );
+                    if ( name != null )
+                    {
+                        DataTemplate.link( file, new File( tableDir, name ) );
+                    }
+                }
+                if ( probe == null )
+                {
+                    probe = new NodeProbe( "127.0.0.1", jmxPort );
+                }
+                // the directory name is the table name followed by the table id
+                String table = tableDir.getName();
+                probe.loadNewSSTables( tableDir.getParentFile().getName(), table.contains( "-" ) ? table.substring(
+                    0, table.lastIndexOf( '-' ) ) : table );
+            }
+            getLog().debug( "Restored " + snapshots.size() + " tables" );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( e.getLocalizedMessage(), e );
+        }
+        finally
+        {
+            if ( probe != null )
+            {
+                try
+                {
+                    probe.close();
+                }
+                catch ( IOException e )
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private List<CqlRow> execute( final String statement )
+        throws MojoExecutionException
+    {
+        final List<CqlRow> rows = new ArrayList<CqlRow>();
+        Utils.executeThrift( new ThriftApiOperation( rpcAddress, rpcPort )
+        {
+            void executeOperation( Cassandra.Client client )
+                throws ThriftApiExecutionException
+            {
+                try
+                {
+                    CqlResult result = client.execute_cql3_query( ByteBufferUtil.bytes( statement ), Compression.NONE,
+                                                                  ConsistencyLevel.ONE );
+                    if ( result.getRows() != null )
+                    {
+                        rows.addAll( result.getRows() );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    throw new ThriftApiExecutionException( e );
+                }
+            }
+        } );
+        return rows;
+    }
+
+    private static String getString( CqlRow row, int column )
+        throws MojoExecutionException
+    {
+        try
+        {
+            return ByteBufferUtil.string( row.getColumns().get( column ).bufferForValue() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( e.getLocalizedMessage(), e );
+        }
+    }
+
+    /**
+     * Truncates tables from a shared queue until it is empty, over a single connection.
+     */
+    private class TruncateOperation
+        extends ThriftApiOperation
+    {
+        private final Queue<String> queue;
+
+        TruncateOperation( Queue<String> queue )
+        {
+            super( rpcAddress, rpcPort );
+            this.queue = queue;
+        }
+
+        void executeOperation( Cassandra.Client client )
+            throws ThriftApiExecutionException
+        {
+            for ( String table = queue.poll(); table != null; table = queue.poll() )
+            {
+                int dot = table.indexOf( '.' );
+                String statement =
+                    "TRUNCATE \"" + table.substring( 0, dot ) + "\".\"" + table.substring( dot + 1 ) + "\"";
+                try
+                {
+                    client.execute_cql3_query( ByteBufferUtil.bytes( statement ), Compression.NONE,
+                                               ConsistencyLevel.ONE );
+                }
+                catch ( Exception e )
+                {
+                    throw new ThriftApiExecutionException( e );
+                }
+                getLog().debug( "Truncated " + table );
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.BooleanType;
+import org.apache.cassandra.db.marshal.CounterColumnType;
+import org.apache.cassandra.db.marshal.DecimalType;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.db.marshal.FloatType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.IntegerType;
+import org.apache.cassandra.db.marshal.LongType;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Writes rows to a file as they arrive, either as CSV, with a header record each time the columns change, or as one
+ * JSON object per line. Values are formatted with the types of their columns, and numbers and booleans are written
+ * as such in JSON.
+ */
+class ResultWriter
+    implements Closeable
+{
+    private static final Pattern JSON_LITERAL_PATTERN = Pattern.compile( "-?[0-9][0-9.eE+-]*|true|false" );
+
+    private final Writer writer;
+
+    private final boolean json;
+
+    private List<String> header;
+
+    private long rows;
+
+    /**
+     * Creates a writer, replacing the file if it exists.
+     *
+     * @param file   the file to write to.
+     * @param format {@code csv} or {@code json}.
+     * @throws IOException if the file could not be created.
+     */
+    ResultWriter( File file, String format )
+        throws IOException
+    {
+        if ( !"csv".equals( format ) && !"json".equals( format ) )
+        {
+            throw new IllegalArgumentException( "Unsupported result format '" + format + "', use csv or json" );
+        }
+        if ( file.getParentFile() != null && !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs() )
+        {
+            throw new IOException( "Could not create directory " + file.getParentFile() );
+        }
+        this.writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+        this.json = "json".equals( format );
+    }
+
+    /**
+     * Writes a row.
+     *
+     * @param names  the names of the columns.
+     * @param types  the types of the columns.
+     * @param values the values of the columns, {@code null} for a missing one.
+     * @throws IOException if the row could not be written.
+     */
+    void write( List<String> names, List<? extends AbstractType<?>> types, List<ByteBuffer> values )
+        throws IOException
+    {
+        if ( json )
+        {
+            writer.write( '{' );
+            for ( int i = 0; i < names.size(); i++ )
+            {
+                writer.write( i == 0 ? "\"" : ",\"" );
+                writer.write( JSONValue.escape( names.get( i ) ) );
+                writer.write( "\":" );
+                ByteBuffer value = values.get( i );
+                if ( value == null )
+                {
+                    writer.write( "null" );
+                }
+                else
+                {
+                    String string = types.get( i ).getString( value );
+                    // NaN and Infinity are no JSON numbers
+                    if ( isJsonLiteral( types.get( i ) ) && JSON_LITERAL_PATTERN.matcher( string ).matches() )
+                    {
+                        writer.write( string );
+                    }
+                    else
+                    {
+                        writer.write( '"' );
+                        writer.write( JSONValue.escape( string ) );
+                        writer.write( '"' );
+                    }
+                }
+            }
+            writer.write( "}\n" );
+        }
+        else
+        {
+            if ( !names.equals( header ) )
+            {
+                header = names;
+                for ( int i = 0; i < names.size(); i++ )
+                {
+                    writer.write( i == 0 ? "" : "," );
+                    writer.write( toCsvField( names.get( i ) ) );
+                }
+                writer.write( '\n' );
+            }
+            for ( int i = 0; i < values.size(); i++ )
+            {
+                writer.write( i == 0 ? "" : "," );
+                // an empty field reads back as null, a quoted empty one as an empty value
+                ByteBuffer value = values.get( i );
+                writer.write( value == null ? "" : toCsvField( types.get( i ).getString( value ) ) );
+            }
+            writer.write( '\n' );
+        }
+        rows++;
+    }
+
+    /**
+     * Gets the number of rows written so far.
+     *
+     * @return the number of rows written so far.
+     */
+    long getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+        throws IOException
+    {
+        writer.close();
+    }
+
+    private static String toCsvField( String value )
+    {
+        if ( value.length() > 0 && value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0
+            && value.indexOf( '\r' ) < 0 )
+        {
+            return value;
+        }
+        return "\"" + value.replace( "\"", "\"\"" ) + "\"";
+    }
+
+    private static boolean isJsonLiteral( AbstractType<?> type )
+    {
+        return type instanceof Int32Type || type instanceof LongType || type instanceof IntegerType
+            || type instanceof DecimalType || type instanceof FloatType || type instanceof DoubleType
+            || type instanceof CounterColumnType || type instanceof BooleanType;
+    }
+}
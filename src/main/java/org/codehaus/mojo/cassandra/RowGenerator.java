@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.AsciiType;
+import org.apache.cassandra.db.marshal.BooleanType;
+import org.apache.cassandra.db.marshal.BytesType;
+import org.apache.cassandra.db.marshal.CounterColumnType;
+import org.apache.cassandra.db.marshal.DateType;
+import org.apache.cassandra.db.marshal.DecimalType;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.db.marshal.FloatType;
+import org.apache.cassandra.db.marshal.InetAddressType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.IntegerType;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.ReversedType;
+import org.apache.cassandra.db.marshal.TimeUUIDType;
+import org.apache.cassandra.db.marshal.TimestampType;
+import org.apache.cassandra.db.marshal.TypeParser;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.marshal.UUIDType;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.exceptions.SyntaxException;
+import org.apache.cassandra.transport.SimpleClient;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates rows for an existing table from the types of its columns, as read from its schema. Partition key columns
+ * take values derived from the number of their partition, and clustering columns from the number of their row within
+ * the partition, so that the key of any row can be generated again. The other columns take random values, with text
+ * and blob values of a length drawn from a {@link Distribution}. Columns of collection types are left out, and
+ * counter tables and boolean key columns are not supported.
+ */
+class RowGenerator
+{
+    /**
+     * The time generated timestamps and time uuids start from, 2015-01-01T00:00:00Z.
+     */
+    private static final long BASE_TIME = 1420070400000L;
+
+    /**
+     * The difference between the uuid epoch, in 1582, and the unix epoch, in 100ns intervals.
+     */
+    private static final long UUID_EPOCH_OFFSET = 0x01B21DD213814000L;
+
+    private static final char[] TEXT_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    private final String name;
+
+    private final List<GeneratedColumn> columns;
+
+    private final String insert;
+
+    private final String select;
+
+    private final int partitionKeySize;
+
+    private RowGenerator( String keyspace, String table, List<GeneratedColumn> columns )
+    {
+        this.name = keyspace + "." + table;
+        this.columns = columns;
+        String qualified = NativeClients.quote( keyspace ) + "." + NativeClients.quote( table );
+        StringBuilder insert = new StringBuilder( "INSERT INTO " ).append( qualified ).append( " (" );
+        StringBuilder markers = new StringBuilder();
+        StringBuilder select = new StringBuilder( "SELECT * FROM " ).append( qualified );
+        int partitionKeySize = 0;
+        for ( GeneratedColumn column : columns )
+        {
+            insert.append( markers.length() == 0 ? "" : ", " ).append( NativeClients.quote( column.name ) );
+            markers.append( markers.length() == 0 ? "?" : ", ?" );
+            if ( column.rank == 0 )
+            {
+                select.append( partitionKeySize == 0 ? " WHERE " : " AND " ).append(
+                    NativeClients.quote( column.name ) ).append( " = ?" );
+                partitionKeySize++;
+            }
+        }
+        this.insert = insert.append( ") VALUES (" ).append( markers ).append( ")" ).toString();
+        this.select = select.toString();
+        this.partitionKeySize = partitionKeySize;
+    }
+
+    /**
+     * Reads the schema of a table.
+     *
+     * @param client   the connection to read it over.
+     * @param keyspace the keyspace of the table.
+     * @param table    the table.
+     * @param log      where to warn about the columns left out.
+     * @return the generator of the rows of the table.
+     * @throws IOException            if the schema could not be decoded.
+     * @throws MojoExecutionException if the schema could not be read, or rows cannot be generated for the table.
+     */
+    static RowGenerator read( SimpleClient client, String keyspace, String table, Log log )
+        throws IOException, MojoExecutionException
+    {
+        List<GeneratedColumn> columns = new ArrayList<GeneratedColumn>();
+        for ( NativeClients.Column column : NativeClients.readColumns( client, keyspace, table ) )
+        {
+            String name = column.name;
+            if ( name.length() == 0 )
+            {
+                // the value of a compact table with no other column than its keys
+                continue;
+            }
+            AbstractType<?> type;
+            try
+            {
+                type = TypeParser.parse( column.type );
+            }
+            catch ( ConfigurationException e )
+            {
+                throw new MojoExecutionException( "Could not parse the type of column " + name, e );
+            }
+            catch ( SyntaxException e )
+            {
+                throw new MojoExecutionException( "Could not parse the type of column " + name, e );
+            }
+            if ( type instanceof ReversedType )
+            {
+                type = ( (ReversedType<?>) type ).baseType;
+            }
+            if ( type instanceof CounterColumnType )
+            {
+                throw new MojoExecutionException(
+                    "Counter tables are not supported, " + keyspace + "." + table + " is one" );
+            }
+            int rank = "partition_key".equals( column.kind ) ? 0 : "clustering_key".equals( column.kind ) ? 1 : 2;
+            if ( !isSupported( type ) )
+            {
+                if ( rank < 2 )
+                {
+                    throw new MojoExecutionException(
+                        "Cannot generate values of type " + type + " for key column " + name );
+                }
+                log.warn( "Leaving out column " + name + " of type " + type + ", which is not supported" );
+                continue;
+            }
+            if ( rank < 2 && type instanceof BooleanType )
+            {
+                // two values would have most partitions, or rows, overwrite each other
+                throw new MojoExecutionException(
+                    "Cannot generate distinct values of type " + type + " for key column " + name );
+            }
+            columns.add( new GeneratedColumn( name, rank, column.component, type ) );
+        }
+        Collections.sort( columns, new Comparator<GeneratedColumn>()
+        {
+            public int compare( GeneratedColumn a, GeneratedColumn b )
+            {
+                return a.rank != b.rank ? a.rank - b.rank : a.component - b.component;
+            }
+        } );
+        return new RowGenerator( keyspace, table, columns );
+    }
+
+    /**
+     * Gets the statement inserting a row, with a bind marker for each value of {@link #getRow}.
+     *
+     * @return the INSERT statement.
+     */
+    String getInsert()
+    {
+        return insert;
+    }
+
+    /**
+     * Gets the statement selecting a partition, with a bind marker for each value of {@link #getPartitionKey}.
+     *
+     * @return the SELECT statement.
+     */
+    String getSelect()
+    {
+        return select;
+    }
+
+    /**
+     * Generates the partition key of a partition.
+     *
+     * @param partition the number of the partition.
+     * @return the values of the partition key columns.
+     */
+    List<ByteBuffer> getPartitionKey( long partition )
+    {
+        List<ByteBuffer> values = new ArrayList<ByteBuffer>( partitionKeySize );
+        for ( int i = 0; i < partitionKeySize; i++ )
+        {
+            values.add( generateKey( columns.get( i ).type, partition ) );
+        }
+        return values;
+    }
+
+    /**
+     * Generates a row.
+     *
+     * @param partition  the number of the partition of the row.
+     * @param row        the number of the row within its partition.
+     * @param valueSizes the distribution of the length of text and blob values.
+     * @param random     the source of the values of the columns other than the key columns.
+     * @return the values of the columns.
+     */
+    List<ByteBuffer> getRow( long partition, long row, Distribution valueSizes, Random random )
+    {
+        List<ByteBuffer> values = new ArrayList<ByteBuffer>( columns.size() );
+        for ( GeneratedColumn column : columns )
+        {
+            if ( column.rank == 0 )
+            {
+                values.add( generateKey( column.type, partition ) );
+            }
+            else if ( column.rank == 1 )
+            {
+                values.add( generateKey( column.type, row ) );
+            }
+            else
+            {
+                values.add( generateValue( column.type, valueSizes, random ) );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString()
+    {
+        return name;
+    }
+
+    private static boolean isSupported( AbstractType<?> type )
+    {
+        return type instanceof UTF8Type || type instanceof AsciiType || type instanceof BytesType
+            || generateNumber( type, 0L ) != null;
+    }
+
+    /**
+     * Generates the value of a key column, which is the same for the same ordinal.
+     */
+    private static ByteBuffer generateKey( AbstractType<?> type, long ordinal )
+    {
+        if ( type instanceof UTF8Type || type instanceof AsciiType )
+        {
+            // zero padded, so that the text order is the numeric order
+            return ByteBufferUtil.bytes( String.format( "%019d", ordinal ) );
+        }
+        if ( type instanceof BytesType )
+        {
+            return ByteBufferUtil.bytes( ordinal );
+        }
+        return generateNumber( type, ordinal );
+    }
+
+    /**
+     * Generates the value of a regular column.
+     */
+    private static ByteBuffer generateValue( AbstractType<?> type, Distribution valueSizes, Random random )
+    {
+        if ( type instanceof UTF8Type || type instanceof AsciiType )
+        {
+            char[] text = new char[(int) valueSizes.next( random )];
+            for ( int i = 0; i < text.length; i++ )
+            {
+                text[i] = TEXT_CHARACTERS[random.nextInt( TEXT_CHARACTERS.length )];
+            }
+            return ByteBufferUtil.bytes( new String( text ) );
+        }
+        if ( type instanceof BytesType )
+        {
+            byte[] bytes = new byte[(int) valueSizes.next( random )];
+            random.nextBytes( bytes );
+            return ByteBuffer.wrap( bytes );
+        }
+        long number = type instanceof UUIDType ? random.nextLong() : random.nextInt( Integer.MAX_VALUE );
+        return generateNumber( type, number );
+    }
+
+    /**
+     * Generates a value of a type other than text and blob from a number, {@code null} if the type is not supported.
+     * Timestamps and time uuids are the number of milliseconds after {@link #BASE_TIME}.
+     */
+    private static ByteBuffer generateNumber( AbstractType<?> type, long number )
+    {
+        if ( type instanceof Int32Type )
+        {
+            return ByteBufferUtil.bytes( (int) number );
+        }
+        if ( type instanceof LongType )
+        {
+            return ByteBufferUtil.bytes( number );
+        }
+        if ( type instanceof IntegerType )
+        {
+            return ByteBuffer.wrap( BigInteger.valueOf( number ).toByteArray() );
+        }
+        if ( type instanceof DecimalType )
+        {
+            return DecimalType.instance.decompose( BigDecimal.valueOf( number, 2 ) );
+        }
+        if ( type instanceof FloatType )
+        {
+            return ByteBufferUtil.bytes( number / 100f );
+        }
+        if ( type instanceof DoubleType )
+        {
+            return ByteBufferUtil.bytes( number / 100d );
+        }
+        if ( type instanceof BooleanType )
+        {
+            return ByteBuffer.wrap( new byte[]{ (byte) ( number & 1 ) } );
+        }
+        if ( type instanceof TimestampType || type instanceof DateType )
+        {
+            return ByteBufferUtil.bytes( BASE_TIME + number );
+        }
+        if ( type instanceof InetAddressType )
+        {
+            // an IPv4 address
+            return ByteBufferUtil.bytes( (int) number );
+        }
+        // the variant bits, and the number itself so that different numbers give different uuids
+        long leastSigBits = ( number & 0x3FFFFFFFFFFFFFFFL ) | 0x8000000000000000L;
+        if ( type instanceof TimeUUIDType )
+        {
+            long time = ( BASE_TIME + number ) * 10000L + UUID_EPOCH_OFFSET;
+            long mostSigBits = ( time << 32 ) | ( ( ( time >>> 32 ) & 0xFFFFL ) << 16 ) | 0x1000L | ( ( time >>> 48 )
+                & 0x0FFFL );
+            return TimeUUIDType.instance.decompose( new UUID( mostSigBits, leastSigBits ) );
+        }
+        if ( type instanceof UUIDType )
+        {
+            long mostSigBits = ( ( number * 0x9E3779B97F4A7C15L ) & 0xFFFFFFFFFFFF0FFFL ) | 0x4000L;
+            return UUIDType.instance.decompose( new UUID( mostSigBits, leastSigBits ) );
+        }
+        return null;
+    }
+
+    /**
+     * A column to generate values for.
+     */
+    private static class GeneratedColumn
+    {
+        final String name;
+
+        /**
+         * 0 for a partition key column, 1 for a clustering column, 2 for the others, which is the order they come in.
+         */
+        final int rank;
+
+        final int component;
+
+        final AbstractType<?> type;
+
+        GeneratedColumn( String name, int rank, int component, AbstractType<?> type )
+        {
+            this.name = name;
+            this.rank = rank;
+            this.component = component;
+            this.type = type;
+        }
+    }
+}
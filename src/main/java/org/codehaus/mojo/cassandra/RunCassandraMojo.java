@@ -20,12 +20,11 @@ package org.codehaus.mojo.cassandra;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.commons.exec.DefaultExecuteResultHandler;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.cassandraunit.DataLoader;
-import org.cassandraunit.dataset.FileDataSet;
 import org.cassandraunit.dataset.ParseException;
 
 /**
@@ -95,20 +94,41 @@ public class RunCassandraMojo
             return;
         }
         long timeStamp = System.currentTimeMillis();
-        boolean isClean = !cassandraDir.isDirectory();
-        getLog().debug(
-            ( isClean ? "First start of Cassandra instance in " : "Re-using existing Cassandra instance in " )
-                + cassandraDir.getAbsolutePath() );
         try
         {
-            DefaultExecuteResultHandler execHandler =
-                Utils.startCassandraServer( cassandraDir, newServiceCommandLine(), createEnvironmentVars(), getLog() );
+            boolean isClean = isCleanStart( cassandraDir );
+            getLog().debug(
+                ( isClean ? "First start of Cassandra instance in " : "Re-using existing Cassandra instance in " )
+                    + cassandraDir.getAbsolutePath() );
+            allocatePorts();
+            DataTemplate template = isClean && useDataTemplate ? getDataTemplate(
+                loadAfterFirstStart ? script : null, cuLoadAfterFirstStart ? cuDataSet : null ) : null;
+            boolean fromTemplate = template != null && template.exists();
+            if ( fromTemplate )
+            {
+                restoreDataTemplate( template );
+            }
+            DefaultExecuteResultHandler execHandler = null;
+            if ( embedded )
+            {
+                startEmbeddedCassandraServer();
+            }
+            else
+            {
+                execHandler = Utils.startCassandraServer( cassandraDir, newServiceCommandLine(),
+                                                          createEnvironmentVars(), rpcAddress, rpcPort, getLog() );
+            }
             try
             {
-                getLog().info( "Waiting for Cassandra to start..." );
-                Utils.waitUntilStarted( rpcAddress, rpcPort, 0, getLog() );
+                if ( execHandler != null )
+                {
+                    getLog().info( "Waiting for Cassandra to start..." );
+                    Utils.waitUntilStarted( rpcAddress, rpcPort, listenAddress, stopPort,
+                                            monitorReadiness ? stopKey : null, 0, getLog() );
+                }
 
-                if ( isClean && loadAfterFirstStart && script != null && script.isFile() )
+                boolean loaded = true;
+                if ( isClean && !fromTemplate && loadAfterFirstStart && script != null && script.isFile() )
                 {
                     getLog().info( "Running " + script + "..." );
                     int rv = Utils.runLoadScript( cassandraDir, newCliCommandLine( "--file", script.getAbsolutePath() ),
@@ -119,6 +139,7 @@ public class RunCassandraMojo
                         {
                             getLog().error(
                                 "Command exited with error code " + rv + ". Ignoring as loadFailureIgnore is true" );
+                            loaded = false;
                         }
                         else
                         {
@@ -131,26 +152,31 @@ public class RunCassandraMojo
                     }
                 }
 
-                if ( isClean && cuLoadAfterFirstStart && cuDataSet != null && cuDataSet.isFile() )
+                List<File> dataSets = getCassandraUnitDataSets( cuDataSet );
+                if ( isClean && !fromTemplate && cuLoadAfterFirstStart && !dataSets.isEmpty() )
                 {
-                    getLog().info( "Loading CassandraUnit dataSet " + cuDataSet + "..." );
+                    getLog().info( "Loading CassandraUnit dataSet(s) " + dataSets + "..." );
                     try
                     {
-                        DataLoader dataLoader = new DataLoader( "cassandraUnitCluster", rpcAddress + ":" + rpcPort );
-                        dataLoader.load( new FileDataSet( cuDataSet.getAbsolutePath() ) );
+                        loadCassandraUnitDataSets( dataSets );
                     }
                     catch ( ParseException e )
                     {
                         if ( cuLoadFailureIgnore )
                         {
                             getLog().error( e.getMessage() + ". Ignoring as cuLoadFailureIgnore is true" );
+                            loaded = false;
                         }
                         else
                         {
                             throw new MojoExecutionException( "Error while loading CassandraUnit dataSet", e );
                         }
                     }
-                    getLog().info( "Finished " + cuDataSet + "." );
+                    getLog().info( "Finished " + dataSets + "." );
+                }
+                if ( template != null && !fromTemplate && loaded )
+                {
+                    captureDataTemplate( template );
                 }
 
                 getLog().info(
@@ -169,14 +195,18 @@ public class RunCassandraMojo
             }
             finally
             {
-                Utils.stopCassandraServer( rpcAddress, rpcPort, listenAddress, stopPort, stopKey, getLog() );
-                try
+                Utils.stopCassandraServer( rpcAddress, rpcPort, listenAddress, stopPort, stopKey, stopGraceSeconds,
+                                           getLog() );
+                if ( execHandler != null )
                 {
-                    execHandler.waitFor();
-                }
-                catch ( InterruptedException e )
-                {
-                    // ignore
+                    try
+                    {
+                        execHandler.waitFor();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        // ignore
+                    }
                 }
             }
         }
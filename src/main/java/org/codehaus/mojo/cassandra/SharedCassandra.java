@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The registry of the Cassandra instances shared by the modules of a reactor build.
+ * <p/>
+ * Reference counting alone is not enough in a sequential reactor, where every module releases the instance before the
+ * next one attaches, so each shared instance also knows which modules of the reactor are going to use it and is only
+ * stopped once none of them is still to come. Instances are registered per build, which relies on the plugin's class
+ * realm being reused by all the modules of the build, and by their configured RPC address and port, which all the
+ * modules agree on even when the instance runs on allocated ports. Each instance keeps the home directory and the
+ * ports of the module that started it, as those of the other modules are never used.
+ */
+class SharedCassandra
+{
+    /**
+     * The shared instances of the builds, by {@link #getBuildKey(MavenSession)}.
+     */
+    private static final Map<String, Map<String, SharedCassandra>> BUILDS =
+        new HashMap<String, Map<String, SharedCassandra>>();
+
+    /**
+     * The ids of the reactor projects expected to use the instance, in reactor order.
+     */
+    private final List<String> users;
+
+    private final Set<String> attached = new HashSet<String>();
+
+    private final File cassandraDir;
+
+    private final Properties ports;
+
+    private int references;
+
+    private SharedCassandra( List<String> users, File cassandraDir, Properties ports )
+    {
+        this.users = users;
+        this.cassandraDir = cassandraDir;
+        this.ports = ports;
+    }
+
+    /**
+     * Gets the home directory of the instance.
+     *
+     * @return the home directory of the module that started the instance.
+     */
+    File getCassandraDir()
+    {
+        return cassandraDir;
+    }
+
+    /**
+     * Gets the ports allocated to the instance.
+     *
+     * @return the ports allocated to the instance, or {@code null} if it runs on the configured ones.
+     */
+    Properties getPorts()
+    {
+        return ports;
+    }
+
+    /**
+     * Finds the shared instance with the specified RPC address and port.
+     *
+     * @param session    the build session.
+     * @param rpcAddress the configured RPC address.
+     * @param rpcPort    the configured RPC port.
+     * @return the shared instance, or {@code null} if there is none.
+     */
+    static synchronized SharedCassandra find( MavenSession session, String rpcAddress, int rpcPort )
+    {
+        return get( session, rpcAddress, rpcPort );
+    }
+
+    /**
+     * Attaches a project to the shared instance with the specified RPC address and port, if there is one.
+     *
+     * @param session    the build session.
+     * @param project    the project to attach.
+     * @param rpcAddress the configured RPC address.
+     * @param rpcPort    the configured RPC port.
+     * @return the instance the project was attached to, or {@code null} if the instance has still to be started.
+     */
+    static synchronized SharedCassandra attach( MavenSession session, MavenProject project, String rpcAddress,
+                                                int rpcPort )
+    {
+        SharedCassandra instance = get( session, rpcAddress, rpcPort );
+        if ( instance == null )
+        {
+            return null;
+        }
+        instance.attached.add( project.getId() );
+        instance.references++;
+        return instance;
+    }
+
+    /**
+     * Registers a freshly started shared instance, attaching the project that started it.
+     *
+     * @param session    the build session.
+     * @param project    the project that started the instance.
+     * @param rpcAddress   the configured RPC address.
+     * @param rpcPort      the configured RPC port.
+     * @param users        the ids of the reactor projects expected to use the instance, in reactor order.
+     * @param cassandraDir the home directory of the instance.
+     * @param ports        the ports allocated to the instance, or {@code null} if it runs on the configured ones.
+     */
+    static synchronized void register( MavenSession session, MavenProject project, String rpcAddress, int rpcPort,
+                                       List<String> users, File cassandraDir, Properties ports )
+    {
+        Map<String, SharedCassandra> instances = BUILDS.get( getBuildKey( session ) );
+        if ( instances == null )
+        {
+            instances = new HashMap<String, SharedCassandra>();
+            BUILDS.put( getBuildKey( session ), instances );
+        }
+        SharedCassandra instance = new SharedCassandra( users, cassandraDir, ports );
+        instance.attached.add( project.getId() );
+        instance.references = 1;
+        instances.put( rpcAddress + ":" + rpcPort, instance );
+    }
+
+    /**
+     * Releases a project's reference to the shared instance with the specified RPC address and port.
+     *
+     * @param session    the build session.
+     * @param project    the project releasing the instance.
+     * @param rpcAddress the configured RPC address.
+     * @param rpcPort    the configured RPC port.
+     * @return the number of projects still using or expected to use the instance, {@code 0} if it should be stopped
+     *         now, or {@code -1} if there is no such shared instance.
+     */
+    static synchronized int release( MavenSession session, MavenProject project, String rpcAddress, int rpcPort )
+    {
+        SharedCassandra instance = get( session, rpcAddress, rpcPort );
+        if ( instance == null )
+        {
+            return -1;
+        }
+        if ( instance.references > 0 )
+        {
+            instance.references--;
+        }
+        int pending = instance.references;
+        // modules before this one that never attached have been skipped and are not coming back
+        int index = instance.users.indexOf( project.getId() );
+        for ( String user : instance.users.subList( index + 1, instance.users.size() ) )
+        {
+            if ( !instance.attached.contains( user ) )
+            {
+                pending++;
+            }
+        }
+        if ( pending == 0 )
+        {
+            Map<String, SharedCassandra> instances = BUILDS.get( getBuildKey( session ) );
+            instances.remove( rpcAddress + ":" + rpcPort );
+            if ( instances.isEmpty() )
+            {
+                BUILDS.remove( getBuildKey( session ) );
+            }
+        }
+        return pending;
+    }
+
+    private static SharedCassandra get( MavenSession session, String rpcAddress, int rpcPort )
+    {
+        Map<String, SharedCassandra> instances = BUILDS.get( getBuildKey( session ) );
+        return instances == null ? null : instances.get( rpcAddress + ":" + rpcPort );
+    }
+
+    /**
+     * Identifies the build of a session. Maven 3 gives every module a clone of the session, which does not compare
+     * equal to the others, so the build is told by what the clones share: where and when it was started.
+     */
+    private static String getBuildKey( MavenSession session )
+    {
+        return session.getExecutionRootDirectory() + "@" + session.getStartTime().getTime();
+    }
+}
@@ -20,14 +20,13 @@ package org.codehaus.mojo.cassandra;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.cassandraunit.DataLoader;
-import org.cassandraunit.dataset.FileDataSet;
 import org.cassandraunit.dataset.ParseException;
 
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Starts a Cassandra instance in the background.
@@ -124,7 +123,6 @@ public class StartCassandraClusterMojo
         File[] cassandraDir = new File[clusterSize];
         BigInteger[] initialToken = new BigInteger[clusterSize];
         String[] listenAddress = new String[clusterSize];
-        boolean isClean = true;
         for ( int node = 0; node < clusterSize; node++ )
         {
             listenAddress[node] = "127.0.0." + ( node + 1 );
@@ -132,43 +130,50 @@ public class StartCassandraClusterMojo
                 BigInteger.valueOf( clusterSize ) );
             cassandraDir[node] =
                 new File( this.cassandraDir.getParent(), this.cassandraDir.getName() + "-node" + ( node + 1 ) );
-            if ( isClean && cassandraDir[node].isDirectory() )
-            {
-                getLog().debug( "Re-using existing Cassandra cluster in " + cassandraDir[node].getAbsolutePath() );
-                isClean = false;
-            }
         }
-        long timeStamp = System.currentTimeMillis();
-        if ( isClean )
+        if ( useDataTemplate )
+        {
+            // a template would need a snapshot of every node, but only the seed node exposes JMX
+            getLog().warn( "Data templates are not supported by start-cluster, ignoring useDataTemplate" );
+        }
+        if ( embedded )
+        {
+            // the nodes would all register their MBeans in the same platform MBean server
+            getLog().warn( "Embedded mode is not supported by start-cluster, forking the nodes" );
+        }
+        if ( allocatePorts )
         {
-            getLog().debug( "First start of Cassandra cluster in " + Arrays.asList( cassandraDir ) );
+            // the nodes share their ports and are told apart by their addresses
+            getLog().warn( "Port allocation is not supported by start-cluster, using the configured ports" );
         }
+        long timeStamp = System.currentTimeMillis();
         try
         {
-            for ( int node = 0; node < clusterSize; node++ )
+            boolean isClean = true;
+            for ( int node = 0; node < clusterSize && isClean; node++ )
             {
-                getLog().info( "Starting for Cassandra Node " + ( node + 1 ) + "..." );
-                Utils.startCassandraServer( cassandraDir[node],
-                                            newServiceCommandLine( cassandraDir[node], listenAddress[node],
-                                                                   listenAddress[node], initialToken[node],
-                                                                   listenAddress, node == 0, node == 0 ? jmxPort : 0 ),
-                                            createEnvironmentVars(), getLog() );
+                if ( !isCleanStart( cassandraDir[node] ) )
+                {
+                    getLog().debug( "Re-using existing Cassandra cluster in " + cassandraDir[node].getAbsolutePath() );
+                    isClean = false;
+                }
             }
-
+            if ( isClean )
+            {
+                getLog().debug( "First start of Cassandra cluster in " + Arrays.asList( cassandraDir ) );
+            }
+            long[] forkedAt = new long[clusterSize];
             if ( startWaitSeconds >= 0 )
             {
-                for ( int node = 0; node < clusterSize; node++ )
-                {
-                    getLog().info( "Waiting for Cassandra Node " + ( node + 1 ) + " to start..." );
-                    boolean started =
-                        Utils.waitUntilStarted( listenAddress[node], rpcPort, startWaitSeconds, getLog() );
-                    if ( !started )
-                    {
-                        Utils.stopCassandraServer( listenAddress[node], rpcPort, listenAddress[node], stopPort, stopKey,
-                                                   getLog() );
-                        throw new MojoFailureException( "Cassandra failed to start within " + startWaitSeconds + "s" );
-                    }
-                }
+                // the seed node goes first so that the other nodes find someone to gossip with as soon as they boot
+                startNodes( 0, 1, cassandraDir, listenAddress, initialToken, forkedAt );
+                waitForNodes( 0, 1, listenAddress, forkedAt );
+                startNodes( 1, clusterSize, cassandraDir, listenAddress, initialToken, forkedAt );
+                waitForNodes( 1, clusterSize, listenAddress, forkedAt );
+            }
+            else
+            {
+                startNodes( 0, clusterSize, cassandraDir, listenAddress, initialToken, forkedAt );
             }
             if ( isClean && loadAfterFirstStart && script != null && script.isFile() )
             {
@@ -193,13 +198,13 @@ public class StartCassandraClusterMojo
                 }
             }
 
-            if ( isClean && cuLoadAfterFirstStart && cuDataSet != null && cuDataSet.isFile() )
+            List<File> dataSets = getCassandraUnitDataSets( cuDataSet );
+            if ( isClean && cuLoadAfterFirstStart && !dataSets.isEmpty() )
             {
-                getLog().info( "Loading CassandraUnit dataSet " + cuDataSet + "..." );
+                getLog().info( "Loading CassandraUnit dataSet(s) " + dataSets + "..." );
                 try
                 {
-                    DataLoader dataLoader = new DataLoader( "cassandraUnitCluster", rpcAddress + ":" + rpcPort );
-                    dataLoader.load( new FileDataSet( cuDataSet.getAbsolutePath() ) );
+                    loadCassandraUnitDataSets( dataSets );
                 }
                 catch ( ParseException e )
                 {
@@ -212,7 +217,7 @@ public class StartCassandraClusterMojo
                         throw new MojoExecutionException( "Error while loading CassandraUnit dataSet", e );
                     }
                 }
-                getLog().info( "Finished " + cuDataSet + "." );
+                getLog().info( "Finished " + dataSets + "." );
             }
 
             getLog().info(
@@ -223,4 +228,83 @@ public class StartCassandraClusterMojo
             throw new MojoExecutionException( e.getLocalizedMessage(), e );
         }
     }
+
+    /**
+     * Forks the Cassandra nodes in the range {@code [from, to)} without waiting for any of them to start.
+     *
+     * @param from          the first node to start.
+     * @param to            the node after the last node to start.
+     * @param cassandraDir  the home directory of each node.
+     * @param listenAddress the listen address of each node.
+     * @param initialToken  the initial token of each node.
+     * @param forkedAt      receives the time at which each node was forked.
+     * @throws IOException            if the home directory of a node could not be created.
+     * @throws MojoExecutionException if a node could not be forked.
+     */
+    private void startNodes( int from, int to, File[] cassandraDir, String[] listenAddress, BigInteger[] initialToken,
+                             long[] forkedAt )
+        throws IOException, MojoExecutionException
+    {
+        for ( int node = from; node < to; node++ )
+        {
+            getLog().info( "Starting for Cassandra Node " + ( node + 1 ) + "..." );
+            forkedAt[node] = System.currentTimeMillis();
+            Utils.startCassandraServer( cassandraDir[node],
+                                        newServiceCommandLine( cassandraDir[node], listenAddress[node],
+                                                               listenAddress[node], initialToken[node], listenAddress,
+                                                               node == 0, node == 0 ? jmxPort : 0 ),
+                                        createEnvironmentVars(), listenAddress[node], rpcPort, getLog() );
+        }
+    }
+
+    /**
+     * Waits for all the Cassandra nodes in the range {@code [from, to)} to start, probing them concurrently, and
+     * reports how long each node took. If any node fails to start in time, all the nodes that have been forked so far
+     * are stopped.
+     *
+     * @param from          the first node to wait for.
+     * @param to            the node after the last node to wait for.
+     * @param listenAddress the listen address of each node.
+     * @param forkedAt      the time at which each node was forked.
+     * @throws MojoExecutionException if something went wrong.
+     * @throws MojoFailureException   if a node did not start within {@link #startWaitSeconds}.
+     */
+    private void waitForNodes( int from, int to, String[] listenAddress, long[] forkedAt )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( from >= to )
+        {
+            return;
+        }
+        getLog().info( "Waiting for Cassandra Node" + ( to - from == 1 ? " " + to : "s " + ( from + 1 ) + " to " + to )
+                           + " to start..." );
+        long[] startedAt =
+            Utils.waitUntilAllStarted( Arrays.copyOfRange( listenAddress, from, to ), rpcPort, stopPort,
+                                       monitorReadiness ? stopKey : null, startWaitSeconds, getLog() );
+        boolean allStarted = true;
+        for ( int node = from; node < to; node++ )
+        {
+            long nodeStartedAt = startedAt[node - from];
+            if ( nodeStartedAt < 0 )
+            {
+                getLog().error(
+                    "Cassandra Node " + ( node + 1 ) + " failed to start within " + startWaitSeconds + "s" );
+                allStarted = false;
+            }
+            else
+            {
+                getLog().info( "Cassandra Node " + ( node + 1 ) + " started in "
+                                   + ( ( nodeStartedAt - forkedAt[node] ) / 100L ) / 10.0 + "s" );
+            }
+        }
+        if ( !allStarted )
+        {
+            for ( int node = 0; node < to; node++ )
+            {
+                Utils.stopCassandraServer( listenAddress[node], rpcPort, listenAddress[node], stopPort, stopKey,
+                                           stopGraceSeconds, getLog() );
+            }
+            throw new MojoFailureException( "Cassandra failed to start within " + startWaitSeconds + "s" );
+        }
+    }
 }
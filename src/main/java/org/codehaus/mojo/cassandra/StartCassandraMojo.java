@@ -18,14 +18,28 @@
  */
 package org.codehaus.mojo.cassandra;
 
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Compression;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.CqlResult;
+import org.apache.cassandra.thrift.CqlRow;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.commons.exec.CommandLine;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.cassandraunit.DataLoader;
-import org.cassandraunit.dataset.FileDataSet;
+import org.apache.maven.project.MavenProject;
 import org.cassandraunit.dataset.ParseException;
+import org.codehaus.plexus.util.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Starts a Cassandra instance in the background.
@@ -46,6 +60,15 @@ public class StartCassandraMojo
      */
     protected int startWaitSeconds;
 
+    /**
+     * How long to wait for a previous Cassandra instance to release the home directory and the ports needed by this
+     * instance before failing the goal. A value of 0 will start Cassandra without checking.
+     *
+     * @parameter expression="${cassandra.handoverWaitSeconds}" default-value="30"
+     * @since 2.0.0-5
+     */
+    protected int handoverWaitSeconds;
+
     /**
      * The script to load.
      *
@@ -91,6 +114,51 @@ public class StartCassandraMojo
      */
     private boolean cuLoadAfterFirstStart;
 
+    /**
+     * When {@code true}, the instance is shared by all the modules of a reactor build: the first module to run this
+     * goal starts it, later modules attach to it, and the {@code stop} goal only stops it once no module of the
+     * reactor still needs it. Modules attaching to a running instance do not load their script or dataSet.
+     *
+     * @parameter expression="${cassandra.shared}" default-value="false"
+     * @since 2.0.0-5
+     */
+    private boolean shared;
+
+    /**
+     * When {@code true}, a module attaching to a shared instance truncates all the tables of {@link #keyspace} so that
+     * it does not see the data of the modules before it.
+     *
+     * @parameter expression="${cassandra.resetKeyspaceOnAttach}" default-value="false"
+     * @since 2.0.0-5
+     */
+    private boolean resetKeyspaceOnAttach;
+
+    /**
+     * When {@code true}, a snapshot of the instance is taken right after its initial load on a clean start, which the
+     * {@code reset} goal restores when run with {@code mode=restore}.
+     *
+     * @parameter expression="${cassandra.captureResetState}" default-value="false"
+     * @since 2.0.0-5
+     */
+    private boolean captureResetState;
+
+    /**
+     * The archive written by the {@code export-snapshot} goal to populate the data directory with on a clean start,
+     * as {@code groupId:artifactId:version[:classifier]} where the classifier defaults to {@code cassandra-data}. The
+     * archive attached to a project of the build is used if there is one, and the installed one otherwise. Data
+     * directory templates are not used along with a data snapshot, and neither the load script nor the CassandraUnit
+     * dataSets are loaded on top of it.
+     *
+     * @parameter expression="${cassandra.dataSnapshot}"
+     * @since 2.0.0-5
+     */
+    private String dataSnapshot;
+
+    /**
+     * @component
+     */
+    private ArtifactFactory artifactFactory;
+
     /**
      * {@inheritDoc}
      */
@@ -102,39 +170,101 @@ public class StartCassandraMojo
             getLog().info( "Skipping cassandra: cassandra.skip==true" );
             return;
         }
+        if ( !shared )
+        {
+            startCassandra();
+            return;
+        }
+        // held while starting so that modules built in parallel attach to the instance rather than start their own
+        synchronized ( SharedCassandra.class )
+        {
+            // the shared instance is identified by the configured port, as the allocated ones differ between modules
+            int sharedRpcPort = rpcPort;
+            SharedCassandra instance = SharedCassandra.attach( session, project, rpcAddress, sharedRpcPort );
+            if ( instance != null )
+            {
+                if ( instance.getPorts() != null )
+                {
+                    useAllocatedPorts( instance.getPorts() );
+                }
+                getLog().info( "Attaching to the shared Cassandra instance in " + instance.getCassandraDir() + " on "
+                                   + rpcAddress + ":" + rpcPort );
+                if ( resetKeyspaceOnAttach )
+                {
+                    resetKeyspace();
+                }
+                return;
+            }
+            startCassandra();
+            SharedCassandra.register( session, project, rpcAddress, sharedRpcPort, getSharedUsers(), cassandraDir,
+                                      getAllocatedPorts() );
+        }
+    }
+
+    /**
+     * Starts Cassandra, loading the script and dataSet if this is a clean start.
+     *
+     * @throws MojoExecutionException if something went wrong.
+     * @throws MojoFailureException   if Cassandra did not start within {@link #startWaitSeconds}.
+     */
+    private void startCassandra()
+        throws MojoExecutionException, MojoFailureException
+    {
         long timeStamp = System.currentTimeMillis();
-        boolean isClean = !cassandraDir.isDirectory();
-        getLog().debug(
-            ( isClean ? "First start of Cassandra instance in " : "Re-using existing Cassandra instance in " )
-                + cassandraDir.getAbsolutePath() );
         try
         {
+            boolean isClean = isCleanStart( cassandraDir );
+            getLog().debug(
+                ( isClean ? "First start of Cassandra instance in " : "Re-using existing Cassandra instance in " )
+                    + cassandraDir.getAbsolutePath() );
+            allocatePorts();
+            DataTemplate template = isClean && useDataTemplate && StringUtils.isEmpty( dataSnapshot )
+                ? getDataTemplate( loadAfterFirstStart ? script : null, cuLoadAfterFirstStart ? cuDataSet : null )
+                : null;
+            boolean fromTemplate = template != null && template.exists();
+            boolean fromSnapshot = !fromTemplate && isClean && StringUtils.isNotEmpty( dataSnapshot );
             /*
-            * The reason for the nasty hack below is to avoid failing to start Cassandra in a multimodule project.
-            * This happens if the first module to run Cassandra fails to stop it fast enough.
-            *
-            * Utils.startCassandra returns happily and the code below simply assumes Cassandra is starting and therefore
-            * it only needs to wait, and while that's probably the case in a single module project,
-            * it might not be in a multimodule one where Cassandra might still be in the process of shutting down.
+            * In a multimodule project the instance started by the previous module may still be shutting down, and
+            * Utils.startCassandra returns happily whether or not the new instance will be able to bind its ports.
             */
-            try {
-                Thread.sleep(2000); // TODO: Fix this horrible hack.
-            } catch (InterruptedException e) {
-                getLog().error("Error in random wait...", e);
+            waitForHandover();
+            if ( fromTemplate )
+            {
+                restoreDataTemplate( template );
+            }
+            else if ( fromSnapshot )
+            {
+                File archive = resolveDataSnapshot();
+                createCassandraHome();
+                int files = Utils.unzip( archive, new File( getStorageDirectory( cassandraDir ), "data" ) );
+                getLog().info( "Populated the data directory with " + files + " files from " + archive + "." );
+            }
+            if ( embedded )
+            {
+                startEmbeddedCassandraServer();
+            }
+            else
+            {
+                Utils.startCassandraServer( cassandraDir, newServiceCommandLine(), createEnvironmentVars(), rpcAddress,
+                                            rpcPort, getLog() );
             }
-            Utils.startCassandraServer( cassandraDir, newServiceCommandLine(), createEnvironmentVars(), getLog() );
 
-            if ( startWaitSeconds >= 0 )
+            if ( !embedded && startWaitSeconds >= 0 )
             {
                 getLog().info( "Waiting for Cassandra to start..." );
-                boolean started = Utils.waitUntilStarted( rpcAddress, rpcPort, startWaitSeconds, getLog() );
+                boolean started = Utils.waitUntilStarted( rpcAddress, rpcPort, listenAddress, stopPort,
+                                                          monitorReadiness ? stopKey : null, startWaitSeconds,
+                                                          getLog() );
                 if ( !started )
                 {
-                    Utils.stopCassandraServer( rpcAddress, rpcPort, listenAddress, stopPort, stopKey, getLog() );
+                    Utils.stopCassandraServer( rpcAddress, rpcPort, listenAddress, stopPort, stopKey, stopGraceSeconds,
+                                               getLog() );
                     throw new MojoFailureException( "Cassandra failed to start within " + startWaitSeconds + "s" );
                 }
             }
-            if ( isClean && loadAfterFirstStart && script != null && script.isFile() )
+            boolean loaded = true;
+            if ( isClean && !fromTemplate && !fromSnapshot && loadAfterFirstStart && script != null
+                && script.isFile() )
             {
                 getLog().info( "Running " + script + "..." );
                 int rv = Utils.runLoadScript( cassandraDir, newCliCommandLine( "--file", script.getAbsolutePath() ),
@@ -145,6 +275,7 @@ public class StartCassandraMojo
                     {
                         getLog().error(
                             "Command exited with error code " + rv + ". Ignoring as loadFailureIgnore is true" );
+                        loaded = false;
                     }
                     else
                     {
@@ -157,26 +288,45 @@ public class StartCassandraMojo
                 }
             }
 
-            if ( isClean && cuLoadAfterFirstStart && cuDataSet != null && cuDataSet.isFile() )
+            List<File> dataSets = getCassandraUnitDataSets( cuDataSet );
+            if ( isClean && !fromTemplate && !fromSnapshot && cuLoadAfterFirstStart && !dataSets.isEmpty() )
             {
-                getLog().info( "Loading CassandraUnit dataSet " + cuDataSet + "..." );
+                getLog().info( "Loading CassandraUnit dataSet(s) " + dataSets + "..." );
                 try
                 {
-                    DataLoader dataLoader = new DataLoader( "cassandraUnitCluster", rpcAddress + ":" + rpcPort );
-                    dataLoader.load( new FileDataSet( cuDataSet.getAbsolutePath() ) );
+                    loadCassandraUnitDataSets( dataSets );
                 }
                 catch ( ParseException e )
                 {
                     if ( cuLoadFailureIgnore )
                     {
                         getLog().error( e.getMessage() + ". Ignoring as cuLoadFailureIgnore is true" );
+                        loaded = false;
                     }
                     else
                     {
                         throw new MojoExecutionException( "Error while loading CassandraUnit dataSet", e );
                     }
                 }
-                getLog().info( "Finished " + cuDataSet + "." );
+                getLog().info( "Finished " + dataSets + "." );
+            }
+            if ( template != null && !fromTemplate && loaded && ( embedded || startWaitSeconds >= 0 ) )
+            {
+                captureDataTemplate( template );
+            }
+            if ( captureResetState && isClean && loaded && ( embedded || startWaitSeconds >= 0 ) )
+            {
+                getLog().info( "Capturing the reset state..." );
+                Utils.runLoadScript( cassandraDir,
+                                     newNodetoolCommandLine( "clearsnapshot", "-t", ResetCassandraMojo.SNAPSHOT_TAG ),
+                                     createEnvironmentVars(), getLog() );
+                CommandLine snapshot = newNodetoolCommandLine( "snapshot", "-t", ResetCassandraMojo.SNAPSHOT_TAG );
+                int rv = Utils.runLoadScript( cassandraDir, snapshot, createEnvironmentVars(), getLog() );
+                if ( rv != 0 )
+                {
+                    getLog().warn( "Could not snapshot Cassandra (nodetool exited with error code " + rv
+                                       + "), the reset state was not captured" );
+                }
             }
 
             getLog().info(
@@ -187,4 +337,144 @@ public class StartCassandraMojo
             throw new MojoExecutionException( e.getLocalizedMessage(), e );
         }
     }
+
+    /**
+     * Gets the ids of the reactor projects that run this goal, in reactor order.
+     *
+     * @return the ids of the reactor projects that run this goal.
+     */
+    private List<String> getSharedUsers()
+    {
+        List<String> users = new ArrayList<String>();
+        for ( MavenProject reactorProject : (List<MavenProject>) session.getSortedProjects() )
+        {
+            for ( Plugin plugin : (List<Plugin>) reactorProject.getBuildPlugins() )
+            {
+                if ( getPluginKey().equals( plugin.getKey() ) )
+                {
+                    for ( PluginExecution execution : (List<PluginExecution>) plugin.getExecutions() )
+                    {
+                        if ( execution.getGoals().contains( "start" ) && !users.contains( reactorProject.getId() ) )
+                        {
+                            users.add( reactorProject.getId() );
+                        }
+                    }
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Finds the archive of {@link #dataSnapshot}, among the artifacts attached to the projects of the build first and
+     * then in the local repository.
+     *
+     * @return the archive.
+     * @throws MojoExecutionException if there is no such archive.
+     */
+    private File resolveDataSnapshot()
+        throws MojoExecutionException
+    {
+        String[] coordinates = StringUtils.split( dataSnapshot, ":" );
+        if ( coordinates.length < 3 || coordinates.length > 4 )
+        {
+            throw new MojoExecutionException(
+                "dataSnapshot must be groupId:artifactId:version[:classifier], not " + dataSnapshot );
+        }
+        String classifier = coordinates.length == 4 ? coordinates[3] : "cassandra-data";
+        for ( Object reactorProject : session.getSortedProjects() )
+        {
+            MavenProject candidate = (MavenProject) reactorProject;
+            if ( coordinates[0].equals( candidate.getGroupId() ) && coordinates[1].equals( candidate.getArtifactId() )
+                && coordinates[2].equals( candidate.getVersion() ) )
+            {
+                for ( Object attached : candidate.getAttachedArtifacts() )
+                {
+                    Artifact artifact = (Artifact) attached;
+                    if ( classifier.equals( artifact.getClassifier() ) && artifact.getFile() != null
+                        && artifact.getFile().isFile() )
+                    {
+                        return artifact.getFile();
+                    }
+                }
+            }
+        }
+        Artifact artifact = artifactFactory.createArtifactWithClassifier( coordinates[0], coordinates[1],
+                                                                          coordinates[2], "zip", classifier );
+        ArtifactRepository localRepository = session.getLocalRepository();
+        File archive = new File( localRepository.getBasedir(), localRepository.pathOf( artifact ) );
+        if ( !archive.isFile() )
+        {
+            throw new MojoExecutionException( "The data snapshot " + dataSnapshot + " is neither attached to a "
+                                                  + "project of the build nor installed in the local repository" );
+        }
+        return archive;
+    }
+
+    /**
+     * Truncates all the tables of {@link #keyspace}.
+     *
+     * @throws MojoExecutionException if something went wrong.
+     */
+    private void resetKeyspace()
+        throws MojoExecutionException
+    {
+        if ( StringUtils.isBlank( keyspace ) )
+        {
+            getLog().warn( "No keyspace specified, nothing to reset" );
+            return;
+        }
+        ThriftApiOperation truncate = new ThriftApiOperation( rpcAddress, rpcPort )
+        {
+            void executeOperation( Cassandra.Client client )
+                throws ThriftApiExecutionException
+            {
+                try
+                {
+                    CqlResult tables = client.execute_cql3_query( ByteBufferUtil.bytes(
+                        "SELECT columnfamily_name FROM system.schema_columnfamilies WHERE keyspace_name = '"
+                            + getKeyspace() + "'" ), Compression.NONE, ConsistencyLevel.ONE );
+                    for ( CqlRow row : tables.getRows() )
+                    {
+                        String table = ByteBufferUtil.string( row.getColumns().get( 0 ).bufferForValue() );
+                        client.execute_cql3_query( ByteBufferUtil.bytes( "TRUNCATE \"" + table + "\"" ),
+                                                   Compression.NONE, ConsistencyLevel.ONE );
+                        getLog().debug( "Truncated " + getKeyspace() + "." + table );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    throw new ThriftApiExecutionException( e );
+                }
+            }
+        };
+        truncate.setKeyspace( keyspace );
+        Utils.executeThrift( truncate );
+        getLog().info( "Reset keyspace \"" + keyspace + "\"." );
+    }
+
+    /**
+     * Waits until any previous Cassandra instance has released the lock on {@link #cassandraDir} and all of the ports
+     * needed by this instance.
+     *
+     * @throws MojoExecutionException if something went wrong.
+     * @throws MojoFailureException   if the previous instance did not go away within {@link #handoverWaitSeconds}.
+     */
+    private void waitForHandover()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( handoverWaitSeconds <= 0 )
+        {
+            return;
+        }
+        String[] addresses = { rpcAddress, listenAddress, listenAddress, rpcAddress, "0.0.0.0" };
+        int[] ports = { rpcPort, storagePort, stopKey == null ? 0 : stopPort,
+            startNativeTransport ? nativeTransportPort : 0, jmxPort };
+        if ( !Utils.waitForHandover( getInstanceLockFile( cassandraDir ), addresses, ports, handoverWaitSeconds,
+                                     getLog() ) )
+        {
+            throw new MojoFailureException(
+                "A previous Cassandra instance did not release its ports within " + handoverWaitSeconds + "s" );
+        }
+    }
 }
@@ -58,6 +58,14 @@ public class StopCassandraClusterMojo extends AbstractMojo
      */
     protected String stopKey;
 
+    /**
+     * How long to wait for all the nodes to stop before destroying their processes and failing the goal.
+     *
+     * @parameter expression="${cassandra.stopGraceSeconds}" default-value="30"
+     * @since 2.0.0-5
+     */
+    protected int stopGraceSeconds;
+
     /**
      * Address to use for the RPC interface. Do not change this unless you really know what you are doing.
      *
@@ -72,6 +80,24 @@ public class StopCassandraClusterMojo extends AbstractMojo
      */
     protected int rpcPort;
 
+    /**
+     * The directory to hold cassandra's database.
+     *
+     * @parameter default-value="${project.build.directory}/cassandra"
+     * @required
+     * @since 2.0.0-5
+     */
+    protected File cassandraDir;
+
+    /**
+     * When {@code true}, all the nodes are drained (flushed, with writes refused) in parallel before they are told to
+     * stop.
+     *
+     * @parameter expression="${cassandra.drainBeforeStop}" default-value="false"
+     * @since 2.0.0-5
+     */
+    private boolean drainBeforeStop;
+
     /**
      * The number of nodes in the cluster.
      *
@@ -103,9 +129,28 @@ public class StopCassandraClusterMojo extends AbstractMojo
         if (clusterSize > 254) {
             throw new MojoExecutionException("Invalid cluster size of " + clusterSize + " specified. Must be less than 254");
         }
+        String[] addresses = new String[clusterSize];
         for (int node = 0; node < clusterSize; node++) {
-            Utils.stopCassandraServer("127.0.0." + (node + 1), rpcPort, "127.0.0." + (node + 1), stopPort, stopKey, getLog());
+            addresses[node] = "127.0.0." + (node + 1);
+        }
+        getLog().info("Stopping " + clusterSize + " Cassandra Nodes...");
+        long startedAt = System.currentTimeMillis();
+        long[] stoppedAt = Utils.stopAllCassandraServers(addresses, rpcPort, stopPort, stopKey, drainBeforeStop,
+                stopGraceSeconds, getLog());
+        boolean allStopped = true;
+        for (int node = 0; node < clusterSize; node++) {
+            if (stoppedAt[node] < 0) {
+                getLog().error("Cassandra Node " + (node + 1) + " did not stop within " + stopGraceSeconds + "s");
+                allStopped = false;
+            } else {
+                getLog().info("Cassandra Node " + (node + 1) + " stopped in "
+                        + ((stoppedAt[node] - startedAt) / 100L) / 10.0 + "s");
+            }
+            Utils.deleteStorageDirectory(new File(cassandraDir.getParent(), cassandraDir.getName() + "-node" + (node + 1)),
+                    getLog());
+        }
+        if (!allStopped) {
+            throw new MojoFailureException("Cassandra cluster did not stop within " + stopGraceSeconds + "s");
         }
-
     }
 }
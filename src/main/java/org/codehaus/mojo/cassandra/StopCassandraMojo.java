@@ -18,9 +18,14 @@
  */
 package org.codehaus.mojo.cassandra;
 
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.util.Properties;
 
 /**
  * Stops a background Cassandra instance.
@@ -55,6 +60,14 @@ public class StopCassandraMojo extends AbstractMojo
      */
     protected String stopKey;
 
+    /**
+     * How long to wait for Cassandra to stop before destroying its process.
+     *
+     * @parameter expression="${cassandra.stopGraceSeconds}" default-value="30"
+     * @since 2.0.0-5
+     */
+    protected int stopGraceSeconds;
+
     /**
      * Address to use for the RPC interface. Do not change this unless you really know what you are doing.
      *
@@ -86,6 +99,33 @@ public class StopCassandraMojo extends AbstractMojo
      */
     protected String listenAddress;
 
+    /**
+     * The directory to hold cassandra's database.
+     *
+     * @parameter default-value="${project.build.directory}/cassandra"
+     * @required
+     * @since 2.0.0-5
+     */
+    protected File cassandraDir;
+
+    /**
+     * The current build session instance, which shared instances are registered with.
+     *
+     * @parameter default-value="${session}"
+     * @required
+     * @readonly
+     */
+    protected MavenSession session;
+
+    /**
+     * The enclosing project.
+     *
+     * @parameter default-value="${project}"
+     * @required
+     * @readonly
+     */
+    protected MavenProject project;
+
     /**
      * {@inheritDoc}
      */
@@ -96,6 +136,25 @@ public class StopCassandraMojo extends AbstractMojo
             getLog().info("Skipping cassandra: cassandra.skip==true");
             return;
         }
+        // a shared instance is identified by the configured port and stopped with the ports and home directory of the
+        // module that started it
+        int sharedRpcPort = rpcPort;
+        File dir = cassandraDir;
+        SharedCassandra instance = SharedCassandra.find(session, rpcAddress, sharedRpcPort);
+        Properties ports;
+        if (instance != null)
+        {
+            dir = instance.getCassandraDir();
+            ports = instance.getPorts();
+        } else
+        {
+            ports = Utils.readAllocatedPorts(cassandraDir);
+        }
+        if (ports != null)
+        {
+            rpcPort = Integer.parseInt(ports.getProperty("cassandra.rpcPort"));
+            stopPort = Integer.parseInt(ports.getProperty("cassandra.stopPort"));
+        }
         if (stopPort <= 0)
         {
             throw new MojoExecutionException("Please specify a valid port");
@@ -105,6 +164,14 @@ public class StopCassandraMojo extends AbstractMojo
             throw new MojoExecutionException("Please specify a valid stopKey");
         }
 
-        Utils.stopCassandraServer(rpcAddress, rpcPort, listenAddress, stopPort, stopKey, getLog());
+        int pending = SharedCassandra.release(session, project, rpcAddress, sharedRpcPort);
+        if (pending > 0)
+        {
+            getLog().info("Leaving the shared Cassandra instance running for " + pending + " more module(s)");
+            return;
+        }
+
+        Utils.stopCassandraServer(rpcAddress, rpcPort, listenAddress, stopPort, stopKey, stopGraceSeconds, getLog());
+        Utils.deleteStorageDirectory(dir, getLog());
     }
 }
@@ -0,0 +1,583 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.transport.SimpleClient;
+import org.apache.cassandra.transport.messages.ResultMessage;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the running Cassandra instance, or cluster, with a mixed workload of writes and reads over the native
+ * protocol, so that the performance of a schema can be tracked from build to build.
+ * <p/>
+ * For {@link #duration} seconds, after {@link #warmup} seconds that are not measured, {@link #threads} threads each
+ * run one operation at a time over a connection of their own. An operation is a write of a row, or a read of a
+ * partition, chosen according to {@link #writeRatio} and {@link #readRatio}, of a partition picked at random among
+ * {@link #partitions}. The rows are those of the {@code generate} goal, so that a table it filled with the same number
+ * of partitions can be read from, and without {@link #table} a table of a key and a blob value is created for the
+ * workload.
+ * <p/>
+ * The latency of every operation is recorded in a histogram, and the throughput, mean, percentiles and maximum
+ * latency of the writes, the reads and both are logged and written to {@link #outputDirectory}, as {@code stress.txt}
+ * and as {@code stress.json} for tools. Operations that time out or find the nodes unavailable or overloaded are
+ * counted as errors, any other failure fails the build.
+ *
+ * @goal stress
+ * @threadSafe
+ * @phase integration-test
+ * @since 2.0.0-5
+ */
+public class StressCassandraMojo
+    extends AbstractCassandraMojo
+{
+    private static final String STRESS_TABLE = "stress";
+
+    private static final double[] PERCENTILES = { 50.0, 95.0, 99.0, 99.9 };
+
+    /**
+     * The table to run the workload against, as {@code <keyspace>.<table>}, or as the name of a table of
+     * {@code keyspace}. A table of a key and a blob value is created for the workload when it is not set.
+     *
+     * @parameter expression="${cassandra.stress.table}"
+     */
+    private String table;
+
+    /**
+     * The share of writes among the operations, against {@code readRatio}.
+     *
+     * @parameter expression="${cassandra.stress.writeRatio}" default-value="1"
+     */
+    private int writeRatio;
+
+    /**
+     * The share of reads among the operations, against {@code writeRatio}.
+     *
+     * @parameter expression="${cassandra.stress.readRatio}" default-value="1"
+     */
+    private int readRatio;
+
+    /**
+     * How many threads run operations, each over a connection of its own.
+     *
+     * @parameter expression="${cassandra.stress.threads}" default-value="8"
+     */
+    private int threads;
+
+    /**
+     * How many seconds to measure for.
+     *
+     * @parameter expression="${cassandra.stress.duration}" default-value="30"
+     */
+    private int duration;
+
+    /**
+     * How many seconds to run operations for before measuring, while the caches and the JIT warm up.
+     *
+     * @parameter expression="${cassandra.stress.warmup}" default-value="5"
+     */
+    private int warmup;
+
+    /**
+     * The consistency level of the operations.
+     *
+     * @parameter expression="${cassandra.stress.consistencyLevel}" default-value="ONE"
+     */
+    private String consistencyLevel;
+
+    /**
+     * The number of partitions that the operations pick from.
+     *
+     * @parameter expression="${cassandra.stress.partitions}" default-value="100000"
+     */
+    private long partitions;
+
+    /**
+     * The number of rows of a partition that writes pick from, for tables with clustering columns.
+     *
+     * @parameter expression="${cassandra.stress.rowsPerPartition}" default-value="1"
+     */
+    private int rowsPerPartition;
+
+    /**
+     * The distribution of the length of the written text and blob values, as for the {@code generate} goal.
+     *
+     * @parameter expression="${cassandra.stress.valueSize}" default-value="uniform(8..64)"
+     */
+    private String valueSize;
+
+    /**
+     * The seed of the operations and of the written values.
+     *
+     * @parameter expression="${cassandra.stress.seed}" default-value="0"
+     */
+    private long seed;
+
+    /**
+     * The number of nodes to spread the connections over: 1 for the instance of the {@code start} goal, or the number
+     * of nodes of the {@code start-cluster} goal, which listen on 127.0.0.1 to 127.0.0.N.
+     *
+     * @parameter expression="${cassandra.stress.nodes}" default-value="1"
+     */
+    private int nodes;
+
+    /**
+     * The replication factor of the keyspace created for the workload when there is no {@code table}.
+     *
+     * @parameter expression="${cassandra.stress.replicationFactor}" default-value="1"
+     */
+    private int replicationFactor;
+
+    /**
+     * The directory to write the results to.
+     *
+     * @parameter expression="${cassandra.stress.outputDirectory}"
+     * default-value="${project.build.directory}/cassandra-stress"
+     */
+    private File outputDirectory;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( skip )
+        {
+            getLog().info( "Skipping cassandra: cassandra.skip==true" );
+            return;
+        }
+        loadAllocatedPorts();
+        if ( writeRatio < 0 || readRatio < 0 || writeRatio + readRatio <= 0 )
+        {
+            throw new MojoExecutionException( "Invalid ratios of " + writeRatio + " writes to " + readRatio
+                                                  + " reads, at least one must be positive and neither negative" );
+        }
+        if ( duration <= 0 || warmup < 0 || partitions <= 0 || rowsPerPartition <= 0 )
+        {
+            throw new MojoExecutionException(
+                "The duration, partitions and rowsPerPartition must be positive, and the warmup not negative" );
+        }
+        ConsistencyLevel consistency;
+        try
+        {
+            consistency = ConsistencyLevel.valueOf( consistencyLevel.toUpperCase( Locale.ENGLISH ) );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( "Invalid consistency level " + consistencyLevel );
+        }
+        Distribution valueSizes;
+        try
+        {
+            valueSizes = Distribution.parse( valueSize );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MojoExecutionException( e.getMessage() );
+        }
+        if ( !startNativeTransport )
+        {
+            getLog().warn( "startNativeTransport is false, the native transport may not be listening" );
+        }
+        String tableKeyspace = ledgerKeyspace;
+        String tableName = STRESS_TABLE;
+        if ( table != null )
+        {
+            int dot = table.indexOf( '.' );
+            tableKeyspace = dot < 0 ? keyspace : table.substring( 0, dot );
+            tableName = table.substring( dot + 1 );
+            if ( tableKeyspace == null )
+            {
+                throw new MojoExecutionException( "Set keyspace or name the table " + table + " after its keyspace" );
+            }
+        }
+        RowGenerator rowGenerator;
+        SimpleClient client = NativeClients.connect( rpcAddress, nativeTransportPort );
+        try
+        {
+            if ( table == null )
+            {
+                createStressTable( client );
+            }
+            rowGenerator = RowGenerator.read( client, tableKeyspace, tableName, getLog() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( e.getLocalizedMessage(), e );
+        }
+        finally
+        {
+            client.close();
+        }
+        getLog().info( "Stressing " + rowGenerator + " with " + writeRatio + " write(s) to " + readRatio
+                           + " read(s) over " + Math.max( 1, threads ) + " threads at consistency level "
+                           + consistency + " for " + duration + "s after a " + warmup + "s warmup" );
+        Stress stress = new Stress( rowGenerator, consistency, valueSizes );
+        stress.run();
+        String text = stress.toText();
+        for ( String line : text.split( "\n" ) )
+        {
+            getLog().info( line );
+        }
+        try
+        {
+            write( new File( outputDirectory, "stress.txt" ), text );
+            write( new File( outputDirectory, "stress.json" ), stress.toJson() );
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( "Could not write the results to " + outputDirectory, e );
+        }
+        if ( stress.writes.getCount() + stress.reads.getCount() == 0 )
+        {
+            throw new MojoFailureException( "No operation succeeded, " + stress.errors + " failed" );
+        }
+    }
+
+    private void createStressTable( SimpleClient client )
+        throws MojoExecutionException
+    {
+        try
+        {
+            client.execute( "CREATE KEYSPACE IF NOT EXISTS " + NativeClients.quote( ledgerKeyspace )
+                                + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': "
+                                + replicationFactor + "}", ConsistencyLevel.ONE );
+            client.execute( "CREATE TABLE IF NOT EXISTS " + NativeClients.quote( ledgerKeyspace ) + "." + STRESS_TABLE
+                                + " (key bigint PRIMARY KEY, value blob)", ConsistencyLevel.ONE );
+        }
+        catch ( RuntimeException e )
+        {
+            throw new MojoExecutionException( "Could not create the stress table: " + NativeClients.describe( e ), e );
+        }
+    }
+
+    private static void write( File file, String content )
+        throws IOException
+    {
+        if ( !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs() )
+        {
+            throw new IOException( "Could not create directory " + file.getParentFile() );
+        }
+        Writer writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+        try
+        {
+            writer.write( content );
+        }
+        finally
+        {
+            Utils.closeQuietly( writer );
+        }
+    }
+
+    /**
+     * Runs the workload and holds its results.
+     */
+    private class Stress
+    {
+        final RowGenerator rowGenerator;
+
+        final ConsistencyLevel consistency;
+
+        final Distribution valueSizes;
+
+        final LatencyHistogram writes = new LatencyHistogram();
+
+        final LatencyHistogram reads = new LatencyHistogram();
+
+        final AtomicLong operations = new AtomicLong();
+
+        long errors;
+
+        long writeErrors;
+
+        long readErrors;
+
+        long measuredNanos;
+
+        Date startedAt;
+
+        Stress( RowGenerator rowGenerator, ConsistencyLevel consistency, Distribution valueSizes )
+        {
+            this.rowGenerator = rowGenerator;
+            this.consistency = consistency;
+            this.valueSizes = valueSizes;
+        }
+
+        void run()
+            throws MojoExecutionException
+        {
+            int connections = Math.max( 1, threads );
+            ExecutorService executor = Executors.newFixedThreadPool( connections );
+            List<Worker> workers = new ArrayList<Worker>( connections );
+            List<Future<Void>> futures = new ArrayList<Future<Void>>( connections );
+            startedAt = new Date();
+            long start = System.nanoTime();
+            long measureFrom = start + TimeUnit.SECONDS.toNanos( warmup );
+            long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos( duration );
+            try
+            {
+                for ( int i = 0; i < connections; i++ )
+                {
+                    Worker worker = new Worker( nodes <= 1 ? rpcAddress : "127.0.0." + ( i % nodes + 1 ),
+                                                new Random( seed ^ ( ( i + 1 ) * 0x9E3779B97F4A7C15L ) ),
+                                                measureFrom, measureUntil );
+                    workers.add( worker );
+                    futures.add( executor.submit( worker ) );
+                }
+                long lastOperations = 0;
+                long lastTime = start;
+                for ( Future<Void> future : futures )
+                {
+                    while ( !NativeClients.getResultOrProgress( future ) )
+                    {
+                        long now = System.nanoTime();
+                        long count = operations.get();
+                        getLog().info( ( now < measureFrom ? "Warming up, " : "" ) + count + " operations so far ("
+                                           + ( count - lastOperations ) * 1000000000L / Math.max( 1L, now - lastTime )
+                                           + " operations/s)" );
+                        lastOperations = count;
+                        lastTime = now;
+                    }
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                throw new MojoExecutionException( "Interrupted while stressing " + rowGenerator, e );
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+            measuredNanos = Math.max( 1L, System.nanoTime() - measureFrom );
+            for ( Worker worker : workers )
+            {
+                writes.add( worker.writes );
+                reads.add( worker.reads );
+                writeErrors += worker.writeErrors;
+                readErrors += worker.readErrors;
+            }
+            errors = writeErrors + readErrors;
+        }
+
+        String toText()
+        {
+            StringBuilder text = new StringBuilder();
+            text.append( "Stress of " ).append( rowGenerator ).append( ", " ).append( writeRatio ).append(
+                " write(s) to " ).append( readRatio ).append( " read(s), " ).append( Math.max( 1, threads ) ).append(
+                " threads, consistency level " ).append( consistency ).append( ", " ).append( duration ).append(
+                "s after a " ).append( warmup ).append( "s warmup\n" );
+            text.append( String.format( Locale.ENGLISH, "%-9s %10s %8s %10s %9s %9s %9s %9s %9s %9s\n", "operation",
+                                        "count", "errors", "ops/s", "mean ms", "p50 ms", "p95 ms", "p99 ms",
+                                        "p99.9 ms", "max ms" ) );
+            LatencyHistogram all = new LatencyHistogram();
+            all.add( writes );
+            all.add( reads );
+            appendText( text, "write", writes, writeErrors );
+            appendText( text, "read", reads, readErrors );
+            appendText( text, "total", all, errors );
+            return text.toString();
+        }
+
+        String toJson()
+        {
+            SimpleDateFormat format = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.ENGLISH );
+            format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+            StringBuilder json = new StringBuilder( "{\n" );
+            json.append( "  \"table\": \"" ).append( JSONValue.escape( rowGenerator.toString() ) ).append( "\",\n" );
+            json.append( "  \"startedAt\": \"" ).append( format.format( startedAt ) ).append( "\",\n" );
+            json.append( "  \"writeRatio\": " ).append( writeRatio ).append( ",\n" );
+            json.append( "  \"readRatio\": " ).append( readRatio ).append( ",\n" );
+            json.append( "  \"threads\": " ).append( Math.max( 1, threads ) ).append( ",\n" );
+            json.append( "  \"consistencyLevel\": \"" ).append( consistency ).append( "\",\n" );
+            json.append( "  \"durationSeconds\": " ).append( duration ).append( ",\n" );
+            json.append( "  \"warmupSeconds\": " ).append( warmup ).append( ",\n" );
+            json.append( "  \"partitions\": " ).append( partitions ).append( ",\n" );
+            json.append( "  \"operations\": {\n" );
+            LatencyHistogram all = new LatencyHistogram();
+            all.add( writes );
+            all.add( reads );
+            appendJson( json, "write", writes, writeErrors ).append( ",\n" );
+            appendJson( json, "read", reads, readErrors ).append( ",\n" );
+            appendJson( json, "total", all, errors ).append( "\n" );
+            return json.append( "  }\n}\n" ).toString();
+        }
+
+        private void appendText( StringBuilder text, String operation, LatencyHistogram histogram, long errorCount )
+        {
+            text.append( String.format( Locale.ENGLISH, "%-9s %10d %8d %10.1f %9.3f", operation, histogram.getCount(),
+                                        errorCount, getThroughput( histogram ), histogram.getMean() / 1000.0 ) );
+            for ( double percentile : PERCENTILES )
+            {
+                long latency = histogram.getPercentile( percentile );
+                text.append( String.format( Locale.ENGLISH, " %9.3f", latency / 1000.0 ) );
+            }
+            text.append( String.format( Locale.ENGLISH, " %9.3f\n", histogram.getMax() / 1000.0 ) );
+        }
+
+        private StringBuilder appendJson( StringBuilder json, String operation, LatencyHistogram histogram,
+                                          long errorCount )
+        {
+            json.append( "    \"" ).append( operation ).append( "\": {\n" );
+            json.append( "      \"count\": " ).append( histogram.getCount() ).append( ",\n" );
+            json.append( "      \"errors\": " ).append( errorCount ).append( ",\n" );
+            json.append( "      \"throughput\": " ).append(
+                String.format( Locale.ENGLISH, "%.1f", getThroughput( histogram ) ) ).append( ",\n" );
+            json.append( "      \"latencyMicros\": {\n" );
+            json.append( "        \"mean\": " ).append(
+                String.format( Locale.ENGLISH, "%.1f", histogram.getMean() ) ).append( ",\n" );
+            json.append( "        \"p50\": " ).append( histogram.getPercentile( 50.0 ) ).append( ",\n" );
+            json.append( "        \"p95\": " ).append( histogram.getPercentile( 95.0 ) ).append( ",\n" );
+            json.append( "        \"p99\": " ).append( histogram.getPercentile( 99.0 ) ).append( ",\n" );
+            json.append( "        \"p999\": " ).append( histogram.getPercentile( 99.9 ) ).append( ",\n" );
+            json.append( "        \"max\": " ).append( histogram.getMax() ).append( "\n" );
+            return json.append( "      }\n    }" );
+        }
+
+        private double getThroughput( LatencyHistogram histogram )
+        {
+            return histogram.getCount() * 1000000000.0 / measuredNanos;
+        }
+
+        /**
+         * Runs operations one at a time over a connection of its own until the end of the measurement, recording the
+         * latencies of those that start after the warmup in histograms of its own.
+         */
+        private class Worker
+            implements Callable<Void>
+        {
+            final String address;
+
+            final Random random;
+
+            final long measureFrom;
+
+            final long measureUntil;
+
+            final LatencyHistogram writes = new LatencyHistogram();
+
+            final LatencyHistogram reads = new LatencyHistogram();
+
+            long writeErrors;
+
+            long readErrors;
+
+            Worker( String address, Random random, long measureFrom, long measureUntil )
+            {
+                this.address = address;
+                this.random = random;
+                this.measureFrom = measureFrom;
+                this.measureUntil = measureUntil;
+            }
+
+            public Void call()
+                throws MojoExecutionException
+            {
+                SimpleClient client = NativeClients.connect( address, nativeTransportPort );
+                try
+                {
+                    // statements are prepared per node
+                    byte[] insert = prepare( client, rowGenerator.getInsert() );
+                    byte[] select = prepare( client, rowGenerator.getSelect() );
+                    while ( System.nanoTime() < measureUntil )
+                    {
+                        boolean write = random.nextInt( writeRatio + readRatio ) < writeRatio;
+                        long partition = (long) ( random.nextDouble() * partitions );
+                        List<ByteBuffer> values = write
+                            ? rowGenerator.getRow( partition, random.nextInt( rowsPerPartition ), valueSizes, random )
+                            : rowGenerator.getPartitionKey( partition );
+                        long start = System.nanoTime();
+                        try
+                        {
+                            client.executePrepared( write ? insert : select, values, consistency );
+                        }
+                        catch ( RuntimeException e )
+                        {
+                            if ( !NativeClients.isTransient( e ) )
+                            {
+                                throw new MojoExecutionException(
+                                    "Could not " + ( write ? "write to " : "read from " ) + rowGenerator + ": "
+                                        + NativeClients.describe( e ), e );
+                            }
+                            if ( start >= measureFrom )
+                            {
+                                if ( write )
+                                {
+                                    writeErrors++;
+                                }
+                                else
+                                {
+                                    readErrors++;
+                                }
+                            }
+                            continue;
+                        }
+                        operations.incrementAndGet();
+                        if ( start >= measureFrom )
+                        {
+                            ( write ? writes : reads ).record( ( System.nanoTime() - start ) / 1000L );
+                        }
+                    }
+                }
+                finally
+                {
+                    client.close();
+                }
+                return null;
+            }
+
+            private byte[] prepare( SimpleClient client, String statement )
+                throws MojoExecutionException
+            {
+                try
+                {
+                    ResultMessage.Prepared prepared = client.prepare( statement );
+                    return prepared.statementId.bytes;
+                }
+                catch ( RuntimeException e )
+                {
+                    throw new MojoExecutionException(
+                        "Could not prepare " + statement + ": " + NativeClients.describe( e ), e );
+                }
+            }
+        }
+    }
+}
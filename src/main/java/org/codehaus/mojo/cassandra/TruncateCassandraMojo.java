@@ -35,6 +35,7 @@ public class TruncateCassandraMojo extends AbstractCassandraMojo
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException 
     {
+        loadAllocatedPorts();
         try 
         {      
             createCassandraHome();
@@ -26,7 +26,6 @@ import org.apache.commons.exec.*;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
-import org.apache.maven.project.MavenProject;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
@@ -34,17 +33,47 @@ import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Utility classes for interacting with Cassandra.
@@ -53,6 +82,17 @@ import java.util.concurrent.TimeUnit;
  */
 public final class Utils
 {
+    /**
+     * The file in a Cassandra home directory recording where its storage directory is, when it is not the home
+     * directory itself.
+     */
+    static final String STORAGE_LOCATION_FILE = "storage.location";
+
+    /**
+     * The file in a Cassandra home directory recording the ports allocated to it, when they were allocated.
+     */
+    static final String PORTS_FILE = "ports.properties";
+
     /**
      * Do not instantiate.
      */
@@ -63,63 +103,255 @@ public final class Utils
 
     /**
      * Stops the Cassandra service.
+     * <p/>
+     * The monitor acknowledges the stop command with the process id and leaves the connection open until the JVM
+     * exits, so no polling is needed. If the process was forked by this JVM, the stop waits for the process itself. If
+     * Cassandra has not gone away within the grace period, the process is destroyed.
      *
-     * @param rpcAddress The rpcAddress to connect to in order to see if Cassandra has stopped.
-     * @param rpcPort    The rpcPort to connect on to check if Cassandra has stopped.
-     * @param stopPort   The port to stop on.
-     * @param stopKey    The key to stop with,
-     * @param log        The log to write to.
+     * @param rpcAddress   The rpcAddress to connect to in order to see if Cassandra has stopped.
+     * @param rpcPort      The rpcPort to connect on to check if Cassandra has stopped.
+     * @param stopAddress  The address to stop on.
+     * @param stopPort     The port to stop on.
+     * @param stopKey      The key to stop with,
+     * @param graceSeconds How long to wait for Cassandra to stop before destroying the process.
+     * @param log          The log to write to.
+     * @return {@code true} if Cassandra is not running or stopped within the grace period.
      */
-    static void stopCassandraServer(String rpcAddress, int rpcPort, String stopAddress, int stopPort, String stopKey, Log log)
+    static boolean stopCassandraServer(String rpcAddress, int rpcPort, String stopAddress, int stopPort, String stopKey,
+                                    int graceSeconds, Log log)
     {
+        if (EmbeddedCassandra.stop(rpcAddress, rpcPort, log))
+        {
+            return true;
+        }
+        ForkedCassandra forked = ForkedCassandra.remove(rpcAddress, rpcPort);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(graceSeconds);
+        boolean requested = false;
+        boolean stopped = false;
+        String pid = null;
+        Socket s = null;
         try
         {
             log.info(String.format("Attempting to stop Cassandra listening on %s:%s using %s stopKey", stopAddress, stopPort, stopKey));
-            Socket s = new Socket(InetAddress.getByName(stopAddress), stopPort);
+            s = new Socket(InetAddress.getByName(stopAddress), stopPort);
             s.setSoLinger(false, 0);
 
             OutputStream out = s.getOutputStream();
-            out.write((stopKey + "\r\nstop\r\n").getBytes());
+            out.write((stopKey + "\r\n" + CassandraMonitor.STOP_COMMAND + "\r\n").getBytes());
             out.flush();
-            s.close();
+            requested = true;
+
+            s.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+            LineNumberReader in = new LineNumberReader(new InputStreamReader(s.getInputStream()));
+            String reply = in.readLine();
+            if (reply != null && reply.startsWith(CassandraMonitor.STOPPING_REPLY))
+            {
+                pid = reply.substring(CassandraMonitor.STOPPING_REPLY.length()).trim();
+                log.info("Waiting for Cassandra (pid " + pid + ") to stop...");
+                if (forked == null)
+                {
+                    // the monitor keeps the connection open until its JVM exits
+                    while (in.read() != -1)
+                    {
+                        // discard
+                    }
+                    stopped = true;
+                }
+            } else if (forked == null)
+            {
+                log.info("Waiting for Cassandra to stop...");
+                stopped = waitUntilStopped(rpcAddress, rpcPort, deadline, log);
+            }
         } catch (ConnectException e)
         {
-            log.info("Cassandra not running!");
-            return;
-        } catch (Exception e)
+            if (forked == null)
+            {
+                log.info("Cassandra not running!");
+                return true;
+            }
+        } catch (SocketTimeoutException e)
+        {
+            // the grace period is over
+        } catch (IOException e)
         {
-            log.error(e);
-            return;
-        }
-        log.info("Waiting for Cassandra to stop...");
-        long maxWaiting = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
-        boolean stopped = false;
-        while (!stopped && System.currentTimeMillis() < maxWaiting)
+            // most likely the connection was reset by the JVM exiting
+            log.debug(e);
+            stopped = requested && forked == null && pid != null;
+        } finally
         {
-            TTransport tr = new TFramedTransport(new TSocket(rpcAddress, rpcPort));
-            try
+            if (s != null)
             {
-                TProtocol proto = new TBinaryProtocol(tr);
-                Cassandra.Client client = new Cassandra.Client(proto);
                 try
                 {
-                    tr.open();
-                } catch (TTransportException e)
+                    s.close();
+                } catch (IOException e)
                 {
-                    if (e.getCause() instanceof ConnectException)
-                    {
-                        stopped = true;
-                        continue;
-                    }
-                    log.debug(e.getLocalizedMessage(), e);
-                    try
-                    {
-                        Thread.sleep(500);
-                    } catch (InterruptedException e1)
+                    // ignore
+                }
+            }
+        }
+        if (forked != null)
+        {
+            // when the stop command could not be delivered there is no point in waiting for the process
+            stopped = requested && forked.waitFor(deadline - System.currentTimeMillis());
+        }
+        if (stopped)
+        {
+            log.info("Cassandra has stopped.");
+            return true;
+        }
+        if (forked != null)
+        {
+            log.warn("Cassandra did not stop within " + graceSeconds + "s, destroying the process.");
+            forked.destroy();
+            forked.waitFor(TimeUnit.SECONDS.toMillis(10));
+        } else if (pid != null)
+        {
+            log.warn("Cassandra did not stop within " + graceSeconds + "s, killing process " + pid + ".");
+            killProcess(pid, log);
+        } else
+        {
+            log.warn("Gave up waiting for Cassandra to stop.");
+        }
+        return false;
+    }
+
+    /**
+     * Stops several Cassandra services at once, optionally draining them all first, and waits for them together.
+     *
+     * @param addresses    The addresses of the services, each being both the rpc and the stop address of a service.
+     * @param rpcPort      The rpcPort to connect on to check if Cassandra has stopped.
+     * @param stopPort     The port to stop on.
+     * @param stopKey      The key to stop with,
+     * @param drain        Whether to drain the services before stopping them.
+     * @param graceSeconds How long to wait for all the services to stop before destroying the processes.
+     * @param log          The log to write to.
+     * @return for each service the time at which it stopped, or {@code -1} if it had to be destroyed.
+     * @throws MojoExecutionException if something went wrong.
+     */
+    static long[] stopAllCassandraServers(String[] addresses, final int rpcPort, final int stopPort,
+                                          final String stopKey, final boolean drain, final int graceSeconds,
+                                          final Log log)
+            throws MojoExecutionException
+    {
+        long[] stoppedAt = new long[addresses.length];
+        if (addresses.length == 0)
+        {
+            return stoppedAt;
+        }
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(graceSeconds);
+        ExecutorService executor = Executors.newFixedThreadPool(addresses.length);
+        try
+        {
+            List<Future<Long>> stops = new ArrayList<Future<Long>>(addresses.length);
+            for (final String address : addresses)
+            {
+                stops.add(executor.submit(new Callable<Long>()
+                {
+                    public Long call()
                     {
-                        // ignore
+                        if (drain)
+                        {
+                            drainCassandraServer(address, stopPort, stopKey, deadline, log);
+                        }
+                        int remaining = (int) TimeUnit.MILLISECONDS.toSeconds(deadline - System.currentTimeMillis());
+                        return stopCassandraServer(address, rpcPort, address, stopPort, stopKey, Math.max(1, remaining),
+                                log)
+                                ? System.currentTimeMillis()
+                                : -1L;
                     }
+                }));
+            }
+            for (int i = 0; i < stoppedAt.length; i++)
+            {
+                stoppedAt[i] = stops.get(i).get();
+            }
+            return stoppedAt;
+        } catch (InterruptedException e)
+        {
+            throw new MojoExecutionException("Interrupted while waiting for Cassandra to stop", e);
+        } catch (ExecutionException e)
+        {
+            throw new MojoExecutionException(e.getCause().getLocalizedMessage(), e.getCause());
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Asks a Cassandra service to drain, i.e. to flush its memtables and stop accepting writes, and waits until it has.
+     *
+     * @param stopAddress The address of the monitor.
+     * @param stopPort    The port of the monitor.
+     * @param stopKey     The key of the monitor.
+     * @param deadline    When to give up waiting.
+     * @param log         The log to write to.
+     * @return {@code true} if the service has drained.
+     */
+    static boolean drainCassandraServer(String stopAddress, int stopPort, String stopKey, long deadline, Log log)
+    {
+        Socket s = null;
+        try
+        {
+            s = new Socket(InetAddress.getByName(stopAddress), stopPort);
+            s.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+            OutputStream out = s.getOutputStream();
+            out.write((stopKey + "\r\n" + CassandraMonitor.DRAIN_COMMAND + "\r\n").getBytes());
+            out.flush();
+            LineNumberReader in = new LineNumberReader(new InputStreamReader(s.getInputStream()));
+            if (CassandraMonitor.DRAINED_REPLY.equals(in.readLine()))
+            {
+                log.debug("Cassandra on " + stopAddress + " has drained.");
+                return true;
+            }
+            log.warn("Cassandra on " + stopAddress + " did not drain.");
+        } catch (ConnectException e)
+        {
+            log.debug("Cassandra on " + stopAddress + " not running, nothing to drain.");
+        } catch (IOException e)
+        {
+            log.warn("Could not drain Cassandra on " + stopAddress + ": " + e.getLocalizedMessage());
+        } finally
+        {
+            if (s != null)
+            {
+                try
+                {
+                    s.close();
+                } catch (IOException e)
+                {
+                    // ignore
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Polls the RPC port until it is closed, for monitors that do not acknowledge the stop command.
+     *
+     * @param rpcAddress The rpcAddress to connect to in order to see if Cassandra has stopped.
+     * @param rpcPort    The rpcPort to connect on to check if Cassandra has stopped.
+     * @param deadline   When to give up.
+     * @param log        The log to write to.
+     * @return {@code true} if the RPC port was closed before the deadline.
+     */
+    private static boolean waitUntilStopped(String rpcAddress, int rpcPort, long deadline, Log log)
+    {
+        while (System.currentTimeMillis() < deadline)
+        {
+            TTransport tr = new TFramedTransport(new TSocket(rpcAddress, rpcPort));
+            try
+            {
+                tr.open();
+            } catch (TTransportException e)
+            {
+                if (e.getCause() instanceof ConnectException)
+                {
+                    return true;
                 }
+                log.debug(e.getLocalizedMessage(), e);
             } finally
             {
                 if (tr.isOpen())
@@ -127,13 +359,42 @@ public final class Utils
                     tr.close();
                 }
             }
+            try
+            {
+                Thread.sleep(500);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
-        if (stopped)
+        return false;
+    }
+
+    /**
+     * Forcibly kills a process that this JVM did not fork.
+     *
+     * @param pid the process id.
+     * @param log the log to write to.
+     */
+    private static void killProcess(String pid, Log log)
+    {
+        CommandLine commandLine;
+        if (OS.isFamilyWindows())
         {
-            log.info("Cassandra has stopped.");
+            commandLine = new CommandLine("taskkill").addArgument("/F").addArgument("/PID").addArgument(pid);
         } else
         {
-            log.warn("Gave up waiting for Cassandra to stop.");
+            commandLine = new CommandLine("kill").addArgument("-9").addArgument(pid);
+        }
+        try
+        {
+            Executor exec = new DefaultExecutor();
+            exec.setStreamHandler(new PumpStreamHandler(new MavenLogOutputStream(log), new MavenLogOutputStream(log)));
+            exec.execute(commandLine);
+        } catch (IOException e)
+        {
+            log.error("Could not kill process " + pid, e);
         }
     }
 
@@ -143,12 +404,16 @@ public final class Utils
      * @param cassandraDir The directory to start the Server process in.
      * @param commandLine  The command line to use to start the Server process.
      * @param environment  The environment to start the Server process with.
+     * @param rpcAddress   The RPC address of the Server, which the forked process is registered by so that it
+     *                     can be destroyed if it does not acknowledge a stop request.
+     * @param rpcPort      The RPC port of the Server, which the forked process is registered by.
      * @param log          The log to send the output to.
      * @return The {@link ExecuteResultHandler} for the started process.
      * @throws MojoExecutionException if something went wrong.
      */
     protected static DefaultExecuteResultHandler startCassandraServer(File cassandraDir, CommandLine commandLine,
-                                                                      Map environment, Log log)
+                                                                      Map environment, String rpcAddress, int rpcPort,
+                                                                      Log log)
             throws MojoExecutionException
     {
 
@@ -156,8 +421,10 @@ public final class Utils
         {
             Executor exec = new DefaultExecutor();
             DefaultExecuteResultHandler execHandler = new DefaultExecuteResultHandler();
+            ExecuteWatchdog watchdog = new ExecuteWatchdog(ExecuteWatchdog.INFINITE_TIMEOUT);
             exec.setWorkingDirectory(cassandraDir);
             exec.setProcessDestroyer(new ShutdownHookProcessDestroyer());
+            exec.setWatchdog(watchdog);
 
             LogOutputStream stdout = new MavenLogOutputStream(log);
             LogOutputStream stderr = new MavenLogOutputStream(log);
@@ -167,6 +434,7 @@ public final class Utils
             exec.setStreamHandler(new PumpStreamHandler(stdout, stderr));
 
             exec.execute(commandLine, environment, execHandler);
+            ForkedCassandra.register(rpcAddress, rpcPort, new ForkedCassandra(execHandler, watchdog));
             return execHandler;
         } catch (ExecuteException e)
         {
@@ -178,29 +446,495 @@ public final class Utils
     }
 
     /**
-     * Returns {@code true} if the resource is not a file, does not exist or is older than the project file.
+     * Waits until no running Cassandra server holds the lock file of a Cassandra home directory and all of the
+     * supplied ports can be bound, i.e. until any previous instance using them has gone away.
      *
-     * @param project  the project that the resource is dependent on.
-     * @param resource the resource to query.
-     * @return {@code true} if the resource is not a file, does not exist or is older than the project file.
+     * @param lockFile    The lock file held by a Cassandra server for as long as its JVM is alive.
+     * @param addresses   The address of each port.
+     * @param ports       The ports that must be free, a value outside of 1-65535 is not checked.
+     * @param waitSeconds The maximum number of seconds to wait.
+     * @param log         The log to write to.
+     * @return {@code true} if the lock and all of the ports were released in time.
+     * @throws MojoExecutionException if something went wrong.
      */
-    static boolean shouldGenerateResource(MavenProject project, File resource)
+    static boolean waitForHandover(File lockFile, String[] addresses, int[] ports, int waitSeconds, Log log)
+            throws MojoExecutionException
     {
-        if (!resource.isFile())
+        long maxWaiting = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(waitSeconds);
+        if (lockFile.isFile() && !waitForLock(lockFile, maxWaiting, log))
         {
-            return true;
+            log.error("Cassandra instance in " + lockFile.getParent() + " is still running");
+            return false;
         }
-        long resourceLM = resource.lastModified();
-        long projectLM = project.getFile().lastModified();
-        if (Long.signum(resourceLM) == Long.signum(projectLM))
+        for (int i = 0; i < ports.length; i++)
         {
-            // the two dates are in the same epoch or else the universe is lasting a really long time.
-            return resourceLM < projectLM;
+            if (ports[i] <= 0 || ports[i] >= 65536)
+            {
+                continue;
+            }
+            boolean waiting = false;
+            while (!isPortFree(addresses[i], ports[i]))
+            {
+                if (!waiting)
+                {
+                    log.info("Waiting for " + addresses[i] + ":" + ports[i] + " to be released...");
+                    waiting = true;
+                }
+                if (System.currentTimeMillis() >= maxWaiting)
+                {
+                    log.error(addresses[i] + ":" + ports[i] + " is still in use");
+                    return false;
+                }
+                try
+                {
+                    Thread.sleep(100);
+                } catch (InterruptedException e)
+                {
+                    throw new MojoExecutionException("Interrupted while waiting for " + addresses[i] + ":"
+                            + ports[i], e);
+                }
+            }
         }
-        // the universe has been around long enough that we should rewrite the resource.
         return true;
     }
 
+    /**
+     * Waits until the lock file can be locked, blocking on the lock itself rather than polling for it, unless it is
+     * held by an embedded instance of this JVM, which can only be polled for.
+     *
+     * @param lockFile   The lock file.
+     * @param maxWaiting The time after which to give up.
+     * @param log        The log to write to.
+     * @return {@code true} if the lock was released in time.
+     * @throws MojoExecutionException if something went wrong.
+     */
+    private static boolean waitForLock(File lockFile, long maxWaiting, Log log) throws MojoExecutionException
+    {
+        RandomAccessFile file = null;
+        try
+        {
+            file = new RandomAccessFile(lockFile, "rw");
+            final FileChannel channel = file.getChannel();
+            FileLock lock;
+            try
+            {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e)
+            {
+                return waitForEmbeddedLock(channel, lockFile, maxWaiting, log);
+            }
+            if (lock == null)
+            {
+                log.info("Waiting for the Cassandra instance in " + lockFile.getParent() + " to exit...");
+                ExecutorService executor = Executors.newSingleThreadExecutor();
+                try
+                {
+                    Future<FileLock> pending = executor.submit(new Callable<FileLock>()
+                    {
+                        public FileLock call() throws IOException
+                        {
+                            return channel.lock();
+                        }
+                    });
+                    try
+                    {
+                        lock = pending.get(Math.max(1L, maxWaiting - System.currentTimeMillis()),
+                                TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e)
+                    {
+                        // interrupting the blocked lock() closes the channel
+                        pending.cancel(true);
+                        return false;
+                    }
+                } finally
+                {
+                    executor.shutdownNow();
+                }
+            }
+            // the new instance takes the lock for itself as soon as it starts
+            lock.release();
+            return true;
+        } catch (InterruptedException e)
+        {
+            throw new MojoExecutionException("Interrupted while waiting for " + lockFile, e);
+        } catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof OverlappingFileLockException)
+            {
+                // an embedded instance of this JVM took the lock in the meantime
+                return waitForEmbeddedLock(file.getChannel(), lockFile, maxWaiting, log);
+            }
+            throw new MojoExecutionException("Could not lock " + lockFile, e.getCause());
+        } catch (IOException e)
+        {
+            throw new MojoExecutionException("Could not lock " + lockFile, e);
+        } finally
+        {
+            if (file != null)
+            {
+                try
+                {
+                    file.close();
+                } catch (IOException e)
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Polls the lock file while an embedded instance of this JVM holds it, as blocking on it would fail at once.
+     */
+    private static boolean waitForEmbeddedLock(FileChannel channel, File lockFile, long maxWaiting, Log log)
+            throws IOException, InterruptedException
+    {
+        log.info("Waiting for the embedded Cassandra instance holding " + lockFile + " to stop");
+        while (System.currentTimeMillis() < maxWaiting)
+        {
+            Thread.sleep(100);
+            try
+            {
+                FileLock lock = channel.tryLock();
+                if (lock != null)
+                {
+                    lock.release();
+                    return true;
+                }
+            } catch (OverlappingFileLockException e)
+            {
+                // still held within this JVM
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if a server socket can currently be bound to the address and port.
+     *
+     * @param address The address.
+     * @param port    The port.
+     * @return {@code true} if the port is free.
+     */
+    static boolean isPortFree(String address, int port)
+    {
+        ServerSocket socket = null;
+        try
+        {
+            socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+            return true;
+        } catch (IOException e)
+        {
+            return false;
+        } finally
+        {
+            if (socket != null)
+            {
+                try
+                {
+                    socket.close();
+                } catch (IOException e)
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the highest SSTable generation among some files.
+     *
+     * @param files the files.
+     * @return the highest SSTable generation, {@code 0} if there are none.
+     */
+    static int getMaxSSTableGeneration(File[] files)
+    {
+        int max = 0;
+        for (File file : files == null ? new File[0] : files)
+        {
+            String[] parts = StringUtils.split(file.getName(), "-");
+            if (file.isFile() && parts.length >= 4 && StringUtils.isNumeric(parts[parts.length - 2]))
+            {
+                max = Math.max(max, Integer.parseInt(parts[parts.length - 2]));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Renames an SSTable component file ({@code keyspace-table-version-generation-Component.db}) so that its
+     * generation is offset past the specified generation.
+     *
+     * @param name   the file name.
+     * @param offset the generation to offset by.
+     * @return the new file name, or {@code null} if the file is not an SSTable component.
+     */
+    static String withSSTableGeneration(String name, int offset)
+    {
+        int componentStart = name.lastIndexOf('-');
+        int generationStart = componentStart < 0 ? -1 : name.lastIndexOf('-', componentStart - 1);
+        if (generationStart < 0)
+        {
+            return null;
+        }
+        String generation = name.substring(generationStart + 1, componentStart);
+        if (!StringUtils.isNumeric(generation) || generation.length() == 0)
+        {
+            return null;
+        }
+        return name.substring(0, generationStart + 1) + (offset + Integer.parseInt(generation))
+                + name.substring(componentStart);
+    }
+
+    /**
+     * Reads the ports recorded in a Cassandra home directory by a goal that allocated them.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @return the ports, keyed by the name of the property they are exported as, or {@code null} if the ports were not
+     *         allocated.
+     * @throws MojoExecutionException if the ports could not be read.
+     */
+    static Properties readAllocatedPorts(File cassandraDir) throws MojoExecutionException
+    {
+        File file = new File(cassandraDir, PORTS_FILE);
+        if (!file.isFile())
+        {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e)
+        {
+            throw new MojoExecutionException("Could not read " + file + ": " + e.getLocalizedMessage(), e);
+        } finally
+        {
+            IOUtil.close(in);
+        }
+        for (String name : new String[]{"cassandra.rpcPort", "cassandra.storagePort", "cassandra.jmxPort",
+                "cassandra.nativeTransportPort", "cassandra.stopPort"})
+        {
+            if (!StringUtils.isNumeric(properties.getProperty(name)) || properties.getProperty(name).length() == 0)
+            {
+                throw new MojoExecutionException("Invalid " + name + " in " + file);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Finds free ports, one per address. All the sockets are held until every port has been found, so that the ports
+     * are distinct even when the addresses overlap. Another process may still grab one of the ports before Cassandra
+     * binds it, which is unlikely as the operating system hands out ephemeral ports in sequence.
+     *
+     * @param addresses the addresses to find free ports on.
+     * @return the free ports.
+     * @throws IOException if the ports could not be found.
+     */
+    static int[] findFreePorts(String[] addresses) throws IOException
+    {
+        int[] ports = new int[addresses.length];
+        ServerSocket[] sockets = new ServerSocket[addresses.length];
+        try
+        {
+            for (int i = 0; i < addresses.length; i++)
+            {
+                sockets[i] = new ServerSocket();
+                sockets[i].setReuseAddress(true);
+                sockets[i].bind(new InetSocketAddress(InetAddress.getByName(addresses[i]), 0));
+                ports[i] = sockets[i].getLocalPort();
+            }
+            return ports;
+        } finally
+        {
+            for (ServerSocket socket : sockets)
+            {
+                if (socket != null)
+                {
+                    try
+                    {
+                        socket.close();
+                    } catch (IOException e)
+                    {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the directory holding the data, commitlog and saved caches directories of a Cassandra home directory, as
+     * recorded when it was created.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @return the storage directory, which is the home directory itself unless it was placed elsewhere.
+     * @throws IOException if the location could not be read.
+     */
+    static File getStorageDirectory(File cassandraDir) throws IOException
+    {
+        File location = new File(cassandraDir, STORAGE_LOCATION_FILE);
+        if (!location.isFile())
+        {
+            return cassandraDir;
+        }
+        return new File(FileUtils.fileRead(location).trim());
+    }
+
+    /**
+     * Deletes the storage directory of a Cassandra home directory if it was placed outside of the home directory, for
+     * example on a memory backed file system.
+     *
+     * @param cassandraDir the cassandra home directory.
+     * @param log          the log to report to.
+     */
+    static void deleteStorageDirectory(File cassandraDir, Log log)
+    {
+        File location = new File(cassandraDir, STORAGE_LOCATION_FILE);
+        try
+        {
+            File storage = getStorageDirectory(cassandraDir);
+            if (!storage.equals(cassandraDir))
+            {
+                log.info("Deleting " + storage.getAbsolutePath());
+                FileUtils.deleteDirectory(storage);
+            }
+            if (location.isFile() && !location.delete())
+            {
+                log.warn("Could not delete " + location);
+            }
+        } catch (IOException e)
+        {
+            log.warn("Failed to delete the storage directory of " + cassandraDir.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Closes a reader of the plugin ignoring any failure, as {@link IOUtil} only does for the JDK streams.
+     *
+     * @param closeable the reader to close, may be {@code null}.
+     */
+    static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            } catch (IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Extracts the files of a zip archive into a directory.
+     *
+     * @param archive   the archive.
+     * @param directory the directory to extract to.
+     * @return the number of files extracted.
+     * @throws IOException if the archive could not be read, or has entries outside of the directory.
+     */
+    static int unzip(File archive, File directory) throws IOException
+    {
+        String root = directory.getCanonicalPath() + File.separator;
+        int count = 0;
+        ZipInputStream zip = new ZipInputStream(new FileInputStream(archive));
+        try
+        {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry())
+            {
+                File file = new File(directory, entry.getName());
+                if (!file.getCanonicalPath().startsWith(root))
+                {
+                    throw new IOException("Entry " + entry.getName() + " of " + archive + " is outside of "
+                            + directory);
+                }
+                if (entry.isDirectory())
+                {
+                    continue;
+                }
+                if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+                {
+                    throw new IOException("Could not create directory " + file.getParentFile());
+                }
+                OutputStream out = new FileOutputStream(file);
+                try
+                {
+                    IOUtil.copy(zip, out);
+                } finally
+                {
+                    IOUtil.close(out);
+                }
+                count++;
+            }
+        } finally
+        {
+            IOUtil.close(zip);
+        }
+        return count;
+    }
+
+    /**
+     * Computes a SHA-1 digest of a list of inputs. {@link File} and {@link URL} inputs contribute their content,
+     * a missing file or a {@code null} contributes a marker and anything else contributes its string form.
+     *
+     * @param inputs the inputs to digest.
+     * @return the digest as a hexadecimal string.
+     * @throws IOException if a file or URL could not be read.
+     */
+    static String digest(List<?> inputs) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException("SHA-1 is a required algorithm", e);
+        }
+        byte[] buffer = new byte[8192];
+        for (Object input : inputs)
+        {
+            InputStream in = null;
+            try
+            {
+                if (input instanceof File && ((File) input).isFile())
+                {
+                    in = new FileInputStream((File) input);
+                } else if (input instanceof URL)
+                {
+                    in = ((URL) input).openStream();
+                } else
+                {
+                    in = new ByteArrayInputStream(String.valueOf(input instanceof File ? null : input)
+                            .getBytes("UTF-8"));
+                }
+                for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+                {
+                    digest.update(buffer, 0, read);
+                }
+            } finally
+            {
+                IOUtil.close(in);
+            }
+            // separate the inputs so that moving bytes from one input to the next changes the digest
+            digest.update((byte) 0);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
     /**
      * Applies the glossYaml on top of the baseYaml and returns the result.
      *
@@ -286,6 +1020,175 @@ public final class Utils
         return false;
     }
 
+    /**
+     * Waits until the Cassandra server at the specified RPC address and port has started accepting connections. When
+     * a monitor key is supplied, this asks the {@link CassandraMonitor} of the server to report when the daemon is
+     * serving rather than repeatedly probing the RPC port.
+     *
+     * @param rpcAddress       The RPC address to connect to.
+     * @param rpcPort          The RPC port to connect on.
+     * @param monitorAddress   The address the {@link CassandraMonitor} listens on.
+     * @param monitorPort      The port the {@link CassandraMonitor} listens on.
+     * @param monitorKey       The key of the {@link CassandraMonitor} or {@code null} to probe the RPC port.
+     * @param startWaitSeconds The maximum number of seconds to wait.
+     * @param log              the {@link Log} to log to.
+     * @return {@code true} if Cassandra is started.
+     * @throws MojoExecutionException if something went wrong.
+     */
+    static boolean waitUntilStarted(String rpcAddress, int rpcPort, String monitorAddress, int monitorPort,
+                                    String monitorKey, int startWaitSeconds, Log log)
+            throws MojoExecutionException
+    {
+        if (monitorKey == null || monitorPort <= 0 || monitorPort >= 65536)
+        {
+            return waitUntilStarted(rpcAddress, rpcPort, startWaitSeconds, log);
+        }
+        long maxWaiting = startWaitSeconds == 0 ? 0 : System.currentTimeMillis()
+                + TimeUnit.SECONDS.toMillis(startWaitSeconds);
+        if (!waitUntilMonitorReportsStarted(monitorAddress, monitorPort, monitorKey, maxWaiting, log))
+        {
+            return false;
+        }
+        // the daemon is serving, so this connects at the first attempt and just reports the cluster name
+        return waitUntilStarted(rpcAddress, rpcPort, startWaitSeconds, log);
+    }
+
+    /**
+     * Asks the {@link CassandraMonitor} to report when the daemon has started and waits for the reply.
+     *
+     * @param monitorAddress The address the {@link CassandraMonitor} listens on.
+     * @param monitorPort    The port the {@link CassandraMonitor} listens on.
+     * @param monitorKey     The key of the {@link CassandraMonitor}.
+     * @param maxWaiting     The time after which to give up or {@code 0} to wait indefinitely.
+     * @param log            the {@link Log} to log to.
+     * @return {@code true} if the monitor reported that the daemon started.
+     * @throws MojoExecutionException if something went wrong.
+     */
+    private static boolean waitUntilMonitorReportsStarted(String monitorAddress, int monitorPort, String monitorKey,
+                                                          long maxWaiting, Log log)
+            throws MojoExecutionException
+    {
+        while (true)
+        {
+            Socket s = null;
+            try
+            {
+                s = new Socket(InetAddress.getByName(monitorAddress), monitorPort);
+                long remaining = maxWaiting - System.currentTimeMillis();
+                if (maxWaiting != 0 && remaining <= 0)
+                {
+                    return false;
+                }
+                s.setSoTimeout(maxWaiting == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, remaining));
+                OutputStream out = s.getOutputStream();
+                out.write((monitorKey + "\r\n" + CassandraMonitor.READY_COMMAND + "\r\n").getBytes());
+                out.flush();
+                String reply = new LineNumberReader(new InputStreamReader(s.getInputStream())).readLine();
+                if (CassandraMonitor.STARTED_REPLY.equals(reply))
+                {
+                    return true;
+                }
+                log.debug("Cassandra monitor on " + monitorAddress + ":" + monitorPort
+                        + " closed the connection before the daemon started");
+                return false;
+            } catch (ConnectException e)
+            {
+                // the forked JVM has not bound the monitor port yet
+                if (maxWaiting != 0 && System.currentTimeMillis() >= maxWaiting)
+                {
+                    return false;
+                }
+                try
+                {
+                    Thread.sleep(50);
+                } catch (InterruptedException e1)
+                {
+                    throw new MojoExecutionException("Interrupted while waiting for Cassandra to start", e1);
+                }
+            } catch (SocketTimeoutException e)
+            {
+                return false;
+            } catch (IOException e)
+            {
+                throw new MojoExecutionException(e.getLocalizedMessage(), e);
+            } finally
+            {
+                if (s != null)
+                {
+                    try
+                    {
+                        s.close();
+                    } catch (IOException e)
+                    {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until each of the Cassandra servers at the specified RPC addresses has started accepting connections.
+     * All the servers are probed at the same time, so the overall wait is bounded by the slowest server rather than
+     * by the sum of all of them.
+     *
+     * @param rpcAddresses     The RPC addresses to connect to, which are also the addresses the monitors listen on.
+     * @param rpcPort          The RPC port to connect on.
+     * @param monitorPort      The port the {@link CassandraMonitor}s listen on.
+     * @param monitorKey       The key of the {@link CassandraMonitor}s or {@code null} to probe the RPC ports.
+     * @param startWaitSeconds The maximum number of seconds to wait.
+     * @param log              the {@link Log} to log to.
+     * @return for each address, the {@link System#currentTimeMillis()} at which the server was found to be started or
+     *         {@code -1} if it did not start within the time allowed.
+     * @throws MojoExecutionException if something went wrong.
+     */
+    static long[] waitUntilAllStarted(String[] rpcAddresses, final int rpcPort, final int monitorPort,
+                                      final String monitorKey, final int startWaitSeconds, final Log log)
+            throws MojoExecutionException
+    {
+        long[] startedAt = new long[rpcAddresses.length];
+        if (rpcAddresses.length == 0)
+        {
+            return startedAt;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(rpcAddresses.length);
+        try
+        {
+            List<Future<Long>> probes = new ArrayList<Future<Long>>(rpcAddresses.length);
+            for (final String rpcAddress : rpcAddresses)
+            {
+                probes.add(executor.submit(new Callable<Long>()
+                {
+                    public Long call() throws MojoExecutionException
+                    {
+                        return waitUntilStarted(rpcAddress, rpcPort, rpcAddress, monitorPort, monitorKey,
+                                startWaitSeconds, log)
+                                ? System.currentTimeMillis()
+                                : -1L;
+                    }
+                }));
+            }
+            for (int i = 0; i < startedAt.length; i++)
+            {
+                startedAt[i] = probes.get(i).get();
+            }
+            return startedAt;
+        } catch (InterruptedException e)
+        {
+            throw new MojoExecutionException("Interrupted while waiting for Cassandra to start", e);
+        } catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof MojoExecutionException)
+            {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException(e.getCause().getLocalizedMessage(), e.getCause());
+        } finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * Runs the cassandra-cli load script command.
      * @param cassandraDir The directory to start the cassandra-cli process in.
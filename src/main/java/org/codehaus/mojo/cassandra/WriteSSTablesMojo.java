@@ -0,0 +1,446 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.apache.cassandra.tools.NodeProbe;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the SSTables of fixture tables offline, so that large fixtures load at disk speed instead of going through
+ * the write path. Each table of {@link #sstablesDirectory} is described by a {@code <name>.cql} file holding its
+ * {@code CREATE TABLE} statement, with a keyspace qualified table name, and its rows come from a {@code <name>.csv}
+ * file, whose first record names the columns, or from a {@code <name>.json} file holding one JSON object per line.
+ * <p/>
+ * Run before {@code start}, the SSTables are written into the data directory where Cassandra picks them up once the
+ * load script has created the table. Run against a running instance, they are moved into the directory of the
+ * existing table and loaded as {@code nodetool refresh} does.
+ *
+ * @goal write-sstables
+ * @threadSafe
+ * @phase pre-integration-test
+ * @since 2.0.0-5
+ */
+public class WriteSSTablesMojo
+    extends AbstractCassandraMojo
+{
+    private static final String IDENTIFIER = "(\"(?:[^\"]|\"\")+\"|\\w+)";
+
+    private static final Pattern CREATE_TABLE_PATTERN = Pattern.compile(
+        "CREATE\\s+(?:TABLE|COLUMNFAMILY)\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?" + IDENTIFIER + "\\s*\\.\\s*" + IDENTIFIER,
+        Pattern.CASE_INSENSITIVE );
+
+    /**
+     * The {@code CREATE TABLE} statement each table was written with, by keyspace qualified name. The writer registers
+     * a table in the schema of the JVM the first time it is written and keeps using that definition, so a reactor
+     * module writing the same table with another definition would silently get the definition of an earlier module.
+     */
+    private static final Map<String, String> DEFINITIONS = new HashMap<String, String>();
+
+    /**
+     * The directory holding the {@code .cql} schema and the {@code .csv} or {@code .json} data of the fixture tables.
+     *
+     * @parameter expression="${cassandra.sstables.directory}" default-value="${basedir}/src/cassandra/sstables"
+     */
+    private File sstablesDirectory;
+
+    /**
+     * The partitioner of the instance the SSTables are written for.
+     *
+     * @parameter expression="${cassandra.sstables.partitioner}"
+     * default-value="org.apache.cassandra.dht.Murmur3Partitioner"
+     */
+    private String partitioner;
+
+    /**
+     * How many megabytes of rows to buffer before writing an SSTable.
+     *
+     * @parameter expression="${cassandra.sstables.bufferSize}" default-value="64"
+     */
+    private int bufferSize;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( skip )
+        {
+            getLog().info( "Skipping cassandra: cassandra.skip==true" );
+            return;
+        }
+        loadAllocatedPorts();
+        File[] schemas = sstablesDirectory.listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return name.endsWith( ".cql" );
+            }
+        } );
+        if ( schemas == null || schemas.length == 0 )
+        {
+            getLog().info( "No fixture tables in " + sstablesDirectory );
+            return;
+        }
+        Arrays.sort( schemas );
+        // keeps the schema of the tables written in this JVM rather than reading it from a cassandra.yaml, see
+        // DEFINITIONS
+        Config.setClientMode( true );
+        boolean running =
+            EmbeddedCassandra.isRunning( rpcAddress, rpcPort ) || !Utils.isPortFree( rpcAddress, rpcPort );
+        try
+        {
+            File storage = getStorageDirectory( cassandraDir );
+            File data = new File( storage, "data" );
+            for ( File schema : schemas )
+            {
+                String name = schema.getName().substring( 0, schema.getName().length() - ".cql".length() );
+                File csv = new File( sstablesDirectory, name + ".csv" );
+                File json = new File( sstablesDirectory, name + ".json" );
+                if ( !csv.isFile() && !json.isFile() )
+                {
+                    getLog().warn( "There is neither " + csv.getName() + " nor " + json.getName() + " for " + schema );
+                    continue;
+                }
+                String statement = readSchema( schema );
+                Matcher matcher = CREATE_TABLE_PATTERN.matcher( statement );
+                if ( !matcher.find() )
+                {
+                    throw new MojoExecutionException(
+                        schema + " does not hold a CREATE TABLE statement with a keyspace qualified table name" );
+                }
+                String keyspace = toName( matcher.group( 1 ) );
+                String table = toName( matcher.group( 2 ) );
+                long timeStamp = System.currentTimeMillis();
+                File directory = running
+                    ? new File( new File( new File( storage, "sstables-staging" ), keyspace ), table )
+                    : getTableDirectory( data, keyspace, table, true );
+                if ( running )
+                {
+                    FileUtils.deleteDirectory( directory );
+                }
+                if ( !directory.isDirectory() && !directory.mkdirs() )
+                {
+                    throw new MojoExecutionException( "Could not create " + directory );
+                }
+                long rows = write( statement, keyspace, table, csv.isFile() ? csv : json, directory );
+                if ( running )
+                {
+                    refresh( directory, data, keyspace, table );
+                }
+                getLog().info( "Wrote " + rows + " rows of " + keyspace + "." + table + " in "
+                                   + ( ( System.currentTimeMillis() - timeStamp ) / 100L ) / 10.0 + "s" );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MojoExecutionException( e.getLocalizedMessage(), e );
+        }
+    }
+
+    /**
+     * Writes the rows of a data file as SSTables.
+     *
+     * @return the number of rows written.
+     */
+    private long write( String statement, String keyspace, String table, File file, File directory )
+        throws IOException, MojoExecutionException
+    {
+        CQLSSTableWriter.Builder builder;
+        CFMetaData metadata;
+        String definition = StringUtils.join( StringUtils.split( statement ), " " );
+        synchronized ( DEFINITIONS )
+        {
+            String previous = DEFINITIONS.get( keyspace + "." + table );
+            if ( previous != null && !previous.equals( definition ) )
+            {
+                throw new MojoExecutionException(
+                    "The table " + keyspace + "." + table + " was already written with another definition in this "
+                        + "build, which cannot be replaced: " + previous + ". Use different table names in the "
+                        + "modules or build them separately." );
+            }
+            DEFINITIONS.put( keyspace + "." + table, definition );
+        }
+        try
+        {
+            builder = CQLSSTableWriter.builder().inDirectory( directory ).forTable( statement ).withPartitioner(
+                FBUtilities.newPartitioner( partitioner ) ).withBufferSizeInMB( bufferSize );
+            metadata = Schema.instance.getCFMetaData( keyspace, table );
+        }
+        catch ( ConfigurationException e )
+        {
+            throw new MojoExecutionException( "Invalid partitioner " + partitioner, e );
+        }
+        catch ( RuntimeException e )
+        {
+            throw new MojoExecutionException( "Invalid schema for " + keyspace + "." + table + ": " + e.getMessage(),
+                                              e );
+        }
+        Map<String, AbstractType<?>> columns = new LinkedHashMap<String, AbstractType<?>>();
+        for ( ColumnDefinition column : metadata.allColumns() )
+        {
+            if ( column.name.toString().length() > 0 )
+            {
+                columns.put( column.name.toString(), column.type );
+            }
+        }
+        return file.getName().endsWith( ".csv" )
+            ? writeCsv( builder, columns, keyspace, table, file )
+            : writeJson( builder, columns, keyspace, table, file );
+    }
+
+    private long writeCsv( CQLSSTableWriter.Builder builder, Map<String, AbstractType<?>> columns, String keyspace,
+                           String table, File file )
+        throws IOException, MojoExecutionException
+    {
+        CsvReader reader = new CsvReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ), ',' );
+        try
+        {
+            List<String> header = reader.readRecord();
+            if ( header == null )
+            {
+                return 0;
+            }
+            List<String> names = new ArrayList<String>( header.size() );
+            for ( String column : header )
+            {
+                names.add( NativeClients.getColumnName( columns.keySet(), column, file, reader.getLineNumber() ) );
+            }
+            CQLSSTableWriter writer = builder.using( getInsertStatement( keyspace, table, names ) ).build();
+            long rows = 0;
+            try
+            {
+                for ( List<String> record = reader.readRecord(); record != null; record = reader.readRecord() )
+                {
+                    if ( record.size() != names.size() )
+                    {
+                        throw new MojoExecutionException(
+                            file + ":" + reader.getLineNumber() + ": expected " + names.size() + " fields but got "
+                                + record.size() );
+                    }
+                    List<ByteBuffer> values = new ArrayList<ByteBuffer>( names.size() );
+                    for ( int i = 0; i < names.size(); i++ )
+                    {
+                        values.add( decode( columns, names.get( i ), record.get( i ), file, reader.getLineNumber() ) );
+                    }
+                    writer.rawAddRow( values );
+                    rows++;
+                }
+            }
+            catch ( InvalidRequestException e )
+            {
+                throw new MojoExecutionException( file + ":" + reader.getLineNumber() + ": " + e.getMessage(), e );
+            }
+            finally
+            {
+                writer.close();
+            }
+            return rows;
+        }
+        finally
+        {
+            Utils.closeQuietly( reader );
+        }
+    }
+
+    /**
+     * Writes a file holding one JSON object per line. As every row is written with all the columns of the table, the
+     * columns missing from an object are written as {@code null}.
+     */
+    private long writeJson( CQLSSTableWriter.Builder builder, Map<String, AbstractType<?>> columns, String keyspace,
+                            String table, File file )
+        throws IOException, MojoExecutionException
+    {
+        List<String> names = new ArrayList<String>( columns.keySet() );
+        CQLSSTableWriter writer = builder.using( getInsertStatement( keyspace, table, names ) ).build();
+        JsonLinesReader reader = new JsonLinesReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ),
+                                                      file, names );
+        long rows = 0;
+        try
+        {
+            for ( Map<String, String> row = reader.readRow(); row != null; row = reader.readRow() )
+            {
+                ByteBuffer[] values = new ByteBuffer[names.size()];
+                for ( Map.Entry<String, String> entry : row.entrySet() )
+                {
+                    values[names.indexOf( entry.getKey() )] =
+                        decode( columns, entry.getKey(), entry.getValue(), file, reader.getLineNumber() );
+                }
+                writer.rawAddRow( Arrays.asList( values ) );
+                rows++;
+            }
+        }
+        catch ( InvalidRequestException e )
+        {
+            throw new MojoExecutionException( file + ":" + reader.getLineNumber() + ": " + e.getMessage(), e );
+        }
+        finally
+        {
+            Utils.closeQuietly( reader );
+            writer.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Moves SSTables written for a running instance into the directory of their table, under generations that no
+     * live SSTable uses, and has the instance load them.
+     */
+    private void refresh( File staging, File data, String keyspace, String table )
+        throws IOException, MojoExecutionException
+    {
+        File directory = getTableDirectory( data, keyspace, table, false );
+        if ( directory == null )
+        {
+            throw new MojoExecutionException(
+                "There is no table " + keyspace + "." + table + " in the running instance, create it first" );
+        }
+        int generation = Utils.getMaxSSTableGeneration( directory.listFiles() );
+        File[] files = staging.listFiles();
+        for ( File file : files == null ? new File[0] : files )
+        {
+            String name = Utils.withSSTableGeneration( file.getName(), generation );
+            if ( name != null && !file.renameTo( new File( directory, name ) ) )
+            {
+                FileUtils.copyFile( file, new File( directory, name ) );
+            }
+        }
+        NodeProbe probe = new NodeProbe( "127.0.0.1", jmxPort );
+        try
+        {
+            probe.loadNewSSTables( keyspace, table );
+        }
+        finally
+        {
+            probe.close();
+        }
+        FileUtils.deleteDirectory( staging );
+    }
+
+    /**
+     * Gets the directory of a table, which is named after the table and its id, or only after the table if it was
+     * created by this goal before the table existed.
+     *
+     * @return the directory, or {@code null} if there is none and {@code create} is {@code false}.
+     */
+    private static File getTableDirectory( File data, String keyspace, final String table, boolean create )
+    {
+        File directory = new File( new File( data, keyspace ), table );
+        if ( directory.isDirectory() )
+        {
+            return directory;
+        }
+        File[] directories = directory.getParentFile().listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return name.startsWith( table + "-" );
+            }
+        } );
+        if ( directories != null && directories.length > 0 )
+        {
+            return directories[0];
+        }
+        return create ? directory : null;
+    }
+
+    private static String getInsertStatement( String keyspace, String table, List<String> names )
+    {
+        StringBuilder insert = new StringBuilder( "INSERT INTO " ).append( NativeClients.quote( keyspace ) ).append(
+            '.' ).append( NativeClients.quote( table ) ).append( " (" );
+        StringBuilder markers = new StringBuilder();
+        for ( String name : names )
+        {
+            insert.append( markers.length() == 0 ? "" : ", " ).append( NativeClients.quote( name ) );
+            markers.append( markers.length() == 0 ? "?" : ", ?" );
+        }
+        return insert.append( ") VALUES (" ).append( markers ).append( ")" ).toString();
+    }
+
+    private static ByteBuffer decode( Map<String, AbstractType<?>> columns, String name, String value, File file,
+                                      int lineNumber )
+        throws MojoExecutionException
+    {
+        if ( value == null )
+        {
+            return null;
+        }
+        try
+        {
+            return columns.get( name ).fromString( value );
+        }
+        catch ( RuntimeException e )
+        {
+            throw new MojoExecutionException(
+                file + ":" + lineNumber + ": invalid value for column " + name + ": " + e.getMessage(), e );
+        }
+    }
+
+    private static String readSchema( File schema )
+        throws IOException
+    {
+        CqlStatementReader reader =
+            new CqlStatementReader( new InputStreamReader( new FileInputStream( schema ), "UTF-8" ) );
+        try
+        {
+            String statement = reader.readStatement();
+            return statement == null ? "" : statement;
+        }
+        finally
+        {
+            Utils.closeQuietly( reader );
+        }
+    }
+
+    private static String toName( String identifier )
+    {
+        // unquoted identifiers are case insensitive
+        return identifier.startsWith( "\"" )
+            ? identifier.substring( 1, identifier.length() - 1 ).replace( "\"\"", "\"" )
+            : identifier.toLowerCase( Locale.ENGLISH );
+    }
+}
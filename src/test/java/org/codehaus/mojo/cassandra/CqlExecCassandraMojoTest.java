@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CqlExecCassandraMojoTest
+{
+    @Test
+    public void dataManipulationIsNotABarrier()
+    {
+        assertFalse( CqlExecCassandraMojo.isBarrier( "INSERT INTO t (k, v) VALUES (1, 2)" ) );
+        assertFalse( CqlExecCassandraMojo.isBarrier( "update t SET v = 3 WHERE k = 1" ) );
+        assertFalse( CqlExecCassandraMojo.isBarrier( "DELETE FROM t WHERE k = 1" ) );
+        assertFalse( CqlExecCassandraMojo.isBarrier( "BEGIN BATCH INSERT INTO t (k) VALUES (1) APPLY BATCH" ) );
+    }
+
+    @Test
+    public void everythingElseIsABarrier()
+    {
+        assertTrue( CqlExecCassandraMojo.isBarrier( "CREATE TABLE t (k int PRIMARY KEY, v int)" ) );
+        assertTrue( CqlExecCassandraMojo.isBarrier( "ALTER TABLE t ADD w int" ) );
+        assertTrue( CqlExecCassandraMojo.isBarrier( "DROP KEYSPACE ks" ) );
+        assertTrue( CqlExecCassandraMojo.isBarrier( "TRUNCATE t" ) );
+        assertTrue( CqlExecCassandraMojo.isBarrier( "USE ks" ) );
+        assertTrue( CqlExecCassandraMojo.isBarrier( "SELECT * FROM t" ) );
+    }
+
+    @Test
+    public void barrierMarkerMakesABarrier()
+    {
+        assertTrue( CqlExecCassandraMojo.isBarrier( "-- @barrier\nINSERT INTO t (k, v) VALUES (1, 2)" ) );
+        assertTrue( CqlExecCassandraMojo.isBarrier( "-- first row\n  --@barrier\nUPDATE t SET v = 3 WHERE k = 1" ) );
+        assertFalse( CqlExecCassandraMojo.isBarrier( "-- @barriers\nINSERT INTO t (k, v) VALUES (1, 2)" ) );
+        assertFalse( CqlExecCassandraMojo.isBarrier( "INSERT INTO t (k, v) VALUES (1, '-- @barrier')" ) );
+    }
+
+    @Test
+    public void verbAfterLeadingCommentsDecides()
+    {
+        assertFalse( CqlExecCassandraMojo.isBarrier( "-- the first row\nINSERT INTO t (k, v) VALUES (1, 2)" ) );
+        assertFalse( CqlExecCassandraMojo.isBarrier( "/* DROP */ DELETE FROM t WHERE k = 1" ) );
+        assertTrue( CqlExecCassandraMojo.isBarrier( "// INSERT\nCREATE INDEX ON t (v)" ) );
+    }
+
+    @Test
+    public void unquotedKeyspaceIsLowerCased()
+    {
+        assertEquals( "ks", CqlExecCassandraMojo.getUsedKeyspace( "USE ks" ) );
+        assertEquals( "ks", CqlExecCassandraMojo.getUsedKeyspace( "use Ks" ) );
+        assertEquals( "ks", CqlExecCassandraMojo.getUsedKeyspace( "  USE\n\tKS  " ) );
+    }
+
+    @Test
+    public void quotedKeyspaceKeepsItsCase()
+    {
+        assertEquals( "Ks", CqlExecCassandraMojo.getUsedKeyspace( "USE \"Ks\"" ) );
+        assertEquals( "ks", CqlExecCassandraMojo.getUsedKeyspace( "USE 'Ks'" ) );
+    }
+
+    @Test
+    public void keyspaceAfterLeadingComments()
+    {
+        assertEquals( "ks", CqlExecCassandraMojo.getUsedKeyspace( "-- switch\nUSE ks" ) );
+        assertEquals( "Ks", CqlExecCassandraMojo.getUsedKeyspace( "/* switch */ USE /* to */ \"Ks\"" ) );
+        assertEquals( "ks", CqlExecCassandraMojo.getUsedKeyspace( "// switch\nUSE ks" ) );
+    }
+
+    @Test
+    public void otherStatementsUseNoKeyspace()
+    {
+        assertNull( CqlExecCassandraMojo.getUsedKeyspace( "USE" ) );
+        assertNull( CqlExecCassandraMojo.getUsedKeyspace( "-- USE ks\nSELECT * FROM t" ) );
+        assertNull( CqlExecCassandraMojo.getUsedKeyspace( "SELECT * FROM users" ) );
+        assertNull( CqlExecCassandraMojo.getUsedKeyspace( "CREATE KEYSPACE ks WITH replication = {}" ) );
+    }
+}
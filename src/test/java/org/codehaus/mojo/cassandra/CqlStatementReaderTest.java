@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CqlStatementReaderTest
+{
+    @Test
+    public void splitsOnSemicolons()
+        throws IOException
+    {
+        assertEquals( Arrays.asList( "SELECT * FROM a", "SELECT * FROM b", "SELECT * FROM c" ),
+                      read( "SELECT * FROM a;SELECT * FROM b;\n  SELECT * FROM c" ) );
+    }
+
+    @Test
+    public void keepsSemicolonsOfQuotedStrings()
+        throws IOException
+    {
+        assertEquals( Arrays.asList( "INSERT INTO t (k, v) VALUES ('a;b', 'it''s;')", "SELECT \"x;\"\"y\" FROM t" ),
+                      read( "INSERT INTO t (k, v) VALUES ('a;b', 'it''s;');SELECT \"x;\"\"y\" FROM t;" ) );
+    }
+
+    @Test
+    public void keepsComments()
+        throws IOException
+    {
+        assertEquals( Arrays.asList( "-- first;\nSELECT 1", "/* second; */ SELECT 2", "// third;\nSELECT 3" ),
+                      read( "-- first;\nSELECT 1; /* second; */ SELECT 2;\n// third;\nSELECT 3;" ) );
+    }
+
+    @Test
+    public void skipsCommentOnlyFragments()
+        throws IOException
+    {
+        assertEquals( Arrays.asList( "SELECT 1" ), read( "SELECT 1; -- the end;\n ; /* really */" ) );
+    }
+
+    @Test
+    public void keepsSemicolonsOfFunctionBodies()
+        throws IOException
+    {
+        String function = "CREATE FUNCTION f (i int) RETURNS NULL ON NULL INPUT RETURNS int LANGUAGE java "
+            + "AS $$ int j = i; return j * 2; $$";
+        assertEquals( Arrays.asList( function, "SELECT f(k) FROM t" ), read( function + ";\nSELECT f(k) FROM t;" ) );
+    }
+
+    @Test
+    public void readsBatchesWhole()
+        throws IOException
+    {
+        String batch = "BEGIN UNLOGGED BATCH\n  INSERT INTO t (k) VALUES (1);\n  INSERT INTO t (k) VALUES (2);\n"
+            + "APPLY BATCH";
+        assertEquals( Arrays.asList( batch, "SELECT * FROM t" ), read( batch + ";\nSELECT * FROM t;" ) );
+    }
+
+    @Test
+    public void tellsTheLineOfEachStatement()
+        throws IOException
+    {
+        CqlStatementReader reader =
+            new CqlStatementReader( new StringReader( "\n-- comment\nSELECT 1;\nSELECT\n  2;\n'x\ny';z" ) );
+        assertEquals( "-- comment\nSELECT 1", reader.readStatement() );
+        assertEquals( 3, reader.getLineNumber() );
+        assertEquals( "SELECT\n  2", reader.readStatement() );
+        assertEquals( 4, reader.getLineNumber() );
+        assertEquals( "'x\ny'", reader.readStatement() );
+        assertEquals( 6, reader.getLineNumber() );
+        assertEquals( "z", reader.readStatement() );
+        assertEquals( 7, reader.getLineNumber() );
+        assertNull( reader.readStatement() );
+    }
+
+    private static List<String> read( String script )
+        throws IOException
+    {
+        CqlStatementReader reader = new CqlStatementReader( new StringReader( script ) );
+        List<String> statements = new ArrayList<String>();
+        for ( String statement = reader.readStatement(); statement != null; statement = reader.readStatement() )
+        {
+            statements.add( statement );
+        }
+        return statements;
+    }
+}
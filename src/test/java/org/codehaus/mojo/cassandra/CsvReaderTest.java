@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CsvReaderTest
+{
+    @Test
+    public void readsRecords()
+        throws IOException
+    {
+        CsvReader reader = new CsvReader( new StringReader( "name,age\nalice,30\nbob,41" ), ',' );
+        assertEquals( Arrays.asList( "name", "age" ), reader.readRecord() );
+        assertEquals( Arrays.asList( "alice", "30" ), reader.readRecord() );
+        assertEquals( Arrays.asList( "bob", "41" ), reader.readRecord() );
+        assertNull( reader.readRecord() );
+    }
+
+    @Test
+    public void readsQuotedFields()
+        throws IOException
+    {
+        CsvReader reader =
+            new CsvReader( new StringReader( "\"a,b\",\"first\nsecond\",\"say \"\"hi\"\"\",plain\"quote\n" ), ',' );
+        assertEquals( Arrays.asList( "a,b", "first\nsecond", "say \"hi\"", "plain\"quote" ), reader.readRecord() );
+        assertNull( reader.readRecord() );
+    }
+
+    @Test
+    public void tellsEmptyFieldsFromEmptyStrings()
+        throws IOException
+    {
+        CsvReader reader = new CsvReader( new StringReader( "a,,\"\",\n" ), ',' );
+        assertEquals( Arrays.asList( "a", null, "", null ), reader.readRecord() );
+    }
+
+    @Test
+    public void skipsEmptyLinesAndCountsLines()
+        throws IOException
+    {
+        CsvReader reader = new CsvReader( new StringReader( "a\r\n\r\n\n\"b\nc\"\r\nd" ), ',' );
+        assertEquals( Arrays.asList( "a" ), reader.readRecord() );
+        assertEquals( 1, reader.getLineNumber() );
+        assertEquals( Arrays.asList( "b\nc" ), reader.readRecord() );
+        assertEquals( 4, reader.getLineNumber() );
+        assertEquals( Arrays.asList( "d" ), reader.readRecord() );
+        assertEquals( 6, reader.getLineNumber() );
+        assertNull( reader.readRecord() );
+    }
+
+    @Test
+    public void usesTheSeparator()
+        throws IOException
+    {
+        CsvReader reader = new CsvReader( new StringReader( "a;b,c;\"d;e\"" ), ';' );
+        assertEquals( Arrays.asList( "a", "b,c", "d;e" ), reader.readRecord() );
+        reader = new CsvReader( new StringReader( "a\tb,c" ), '\t' );
+        assertEquals( Arrays.asList( "a", "b,c" ), reader.readRecord() );
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DistributionTest
+{
+    private static final int DRAWS = 10000;
+
+    @Test
+    public void parsesFixedNumbers()
+    {
+        Random random = new Random( 0 );
+        assertEquals( 42L, Distribution.parse( "42" ).next( random ) );
+        assertEquals( 7L, Distribution.parse( "fixed(7)" ).next( random ) );
+        assertEquals( 0L, Distribution.parse( " fixed( 0 ) " ).next( random ) );
+        assertEquals( " fixed( 0 ) ", Distribution.parse( " fixed( 0 ) " ).toString() );
+    }
+
+    @Test
+    public void rejectsInvalidDistributions()
+    {
+        String[] invalid = { null, "", "-1", "fixed(1..2)", "uniform(5)", "uniform(10..1)", "normal(1..2)",
+            "uniform(1,2)", "exp(1..2" };
+        for ( String spec : invalid )
+        {
+            try
+            {
+                Distribution.parse( spec );
+                fail( "parsed " + spec );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void drawsUniformNumbersOverTheWholeRange()
+    {
+        Distribution distribution = Distribution.parse( "uniform(1..10)" );
+        Random random = new Random( 0 );
+        int[] seen = new int[11];
+        for ( int i = 0; i < DRAWS; i++ )
+        {
+            seen[(int) distribution.next( random )]++;
+        }
+        assertEquals( 0, seen[0] );
+        for ( int value = 1; value <= 10; value++ )
+        {
+            assertTrue( "drew " + value + " " + seen[value] + " times", seen[value] > DRAWS / 20 );
+        }
+    }
+
+    @Test
+    public void drawsGaussianNumbersCenteredWithinTheBounds()
+    {
+        Distribution distribution = Distribution.parse( "gaussian(100..200)" );
+        Random random = new Random( 0 );
+        long total = 0;
+        for ( int i = 0; i < DRAWS; i++ )
+        {
+            long value = distribution.next( random );
+            assertTrue( "drew " + value, value >= 100 && value <= 200 );
+            total += value;
+        }
+        assertEquals( 150.0, (double) total / DRAWS, 1.0 );
+    }
+
+    @Test
+    public void drawsExponentialNumbersMostlyCloseToTheMinimum()
+    {
+        Distribution distribution = Distribution.parse( "exp(10..1000)" );
+        Random random = new Random( 0 );
+        int low = 0;
+        for ( int i = 0; i < DRAWS; i++ )
+        {
+            long value = distribution.next( random );
+            assertTrue( "drew " + value, value >= 10 && value <= 1000 );
+            if ( value < 505 )
+            {
+                low++;
+            }
+        }
+        assertTrue( low + " draws in the lower half", low > DRAWS * 8 / 10 );
+    }
+}
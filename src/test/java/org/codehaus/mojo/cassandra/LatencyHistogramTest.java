@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void countsSmallValuesExactly()
+    {
+        for ( int value = 0; value < 128; value++ )
+        {
+            assertEquals( value, LatencyHistogram.getIndex( value ) );
+            assertEquals( value, LatencyHistogram.getHighestValue( value ) );
+        }
+    }
+
+    @Test
+    public void bucketsFollowEachOther()
+    {
+        int last = LatencyHistogram.getIndex( Long.MAX_VALUE );
+        assertEquals( Long.MAX_VALUE, LatencyHistogram.getHighestValue( last ) );
+        for ( int index = 0; index < last; index++ )
+        {
+            long highest = LatencyHistogram.getHighestValue( index );
+            assertEquals( "highest value of bucket " + index, index, LatencyHistogram.getIndex( highest ) );
+            assertEquals( "value after bucket " + index, index + 1, LatencyHistogram.getIndex( highest + 1 ) );
+        }
+    }
+
+    @Test
+    public void bucketsAreWithinTwoPercent()
+    {
+        for ( int shift = 7; shift < 63; shift++ )
+        {
+            long[] values = { ( 1L << shift ) - 1, 1L << shift, ( 1L << shift ) + 1, 3L << ( shift - 1 ) };
+            for ( long value : values )
+            {
+                long highest = LatencyHistogram.getHighestValue( LatencyHistogram.getIndex( value ) );
+                assertTrue( value + " counted up to " + highest, highest >= value && highest - value < value / 50 );
+            }
+        }
+        assertEquals( 129L, LatencyHistogram.getHighestValue( LatencyHistogram.getIndex( 128 ) ) );
+        assertEquals( 259L, LatencyHistogram.getHighestValue( LatencyHistogram.getIndex( 256 ) ) );
+    }
+
+    @Test
+    public void reportsPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals( 0L, histogram.getPercentile( 99.0 ) );
+        for ( long value = 1; value <= 1000; value++ )
+        {
+            histogram.record( value );
+        }
+        assertEquals( 1000L, histogram.getCount() );
+        assertEquals( 500.5, histogram.getMean(), 0.0 );
+        assertEquals( 1L, histogram.getPercentile( 0.0 ) );
+        assertEquals( 100L, histogram.getPercentile( 10.0 ) );
+        assertEquals( 503L, histogram.getPercentile( 50.0 ) );
+        assertEquals( 991L, histogram.getPercentile( 99.0 ) );
+        // the highest bucket reaches 1007, which was never recorded
+        assertEquals( 1000L, histogram.getPercentile( 99.9 ) );
+        assertEquals( 1000L, histogram.getPercentile( 100.0 ) );
+        assertEquals( 1000L, histogram.getMax() );
+    }
+
+    @Test
+    public void mergesHistograms()
+    {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for ( int i = 0; i < 99; i++ )
+        {
+            fast.record( 10 );
+        }
+        slow.record( 1000000 );
+        slow.record( -5 );
+        fast.add( slow );
+        assertEquals( 101L, fast.getCount() );
+        assertEquals( 10L, fast.getPercentile( 99.0 ) );
+        assertEquals( 1000000L, fast.getPercentile( 100.0 ) );
+        assertEquals( 1000000L, fast.getMax() );
+        assertEquals( 0L, fast.getPercentile( 0.5 ) );
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NativeCqlSessionTest
+{
+    @Test
+    public void replacesLiteralsWithBindMarkers()
+    {
+        List<String> literals = new ArrayList<String>();
+        assertEquals( "INSERT INTO t (k, v, b, u, f) VALUES (?, ?, ?, ?, ?)", NativeCqlSession.getShape(
+            "INSERT INTO t (k, v, b, u, f) VALUES (1, 'it''s', 0xCAFE, 62c36092-82a1-3a00-93d1-46196ee77204, true)",
+            literals ) );
+        assertEquals( Arrays.asList( "1", "it's", "CAFE", "62c36092-82a1-3a00-93d1-46196ee77204", "true" ), literals );
+    }
+
+    @Test
+    public void readsSignedAndDecimalNumbers()
+    {
+        List<String> literals = new ArrayList<String>();
+        assertEquals( "SELECT * FROM t WHERE k = ? AND c > ? AND d IN (?,?)", NativeCqlSession.getShape(
+            "SELECT * FROM t WHERE k = -1 AND c > 2.5e3 AND d IN (-0.5,7)", literals ) );
+        assertEquals( Arrays.asList( "-1", "2.5e3", "-0.5", "7" ), literals );
+    }
+
+    @Test
+    public void keepsIdentifiersAndComments()
+    {
+        List<String> literals = new ArrayList<String>();
+        assertEquals( "SELECT v2, \"Value 3\" FROM ks1.t1 -- 42 'x'\nWHERE k = ? /* 43 */", NativeCqlSession.getShape(
+            "SELECT v2, \"Value 3\" FROM ks1.t1 -- 42 'x'\nWHERE k = 'a' /* 43 */", literals ) );
+        assertEquals( Arrays.asList( "a" ), literals );
+    }
+
+    @Test
+    public void leavesStatementsThatCannotBePrepared()
+    {
+        assertNull( NativeCqlSession.getShape( "SELECT * FROM t", new ArrayList<String>() ) );
+        assertNull( NativeCqlSession.getShape( "SELECT * FROM t WHERE k = ?", new ArrayList<String>() ) );
+        assertNull( NativeCqlSession.getShape( "SELECT * FROM t WHERE k = :k", new ArrayList<String>() ) );
+        assertNull( NativeCqlSession.getShape( "UPDATE t SET s = {1, 2} WHERE k = 1", new ArrayList<String>() ) );
+        assertNull( NativeCqlSession.getShape( "UPDATE t SET l = [1] WHERE k = 1", new ArrayList<String>() ) );
+    }
+}
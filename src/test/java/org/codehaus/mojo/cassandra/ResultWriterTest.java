@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.codehaus.mojo.cassandra;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.BooleanType;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResultWriterTest
+{
+    private static final List<String> NAMES = Arrays.asList( "name", "note", "age" );
+
+    private static final List<AbstractType<?>> TYPES =
+        Arrays.<AbstractType<?>>asList( UTF8Type.instance, UTF8Type.instance, Int32Type.instance );
+
+    @Test
+    public void csvReadsBackThroughCsvReader()
+        throws IOException
+    {
+        File file = File.createTempFile( "results", ".csv" );
+        try
+        {
+            ResultWriter writer = new ResultWriter( file, "csv" );
+            writer.write( NAMES, TYPES, row( "a,b", "say \"hi\"", 30 ) );
+            writer.write( NAMES, TYPES, row( "first\nsecond", "", null ) );
+            writer.close();
+            assertEquals( 2, writer.getRowCount() );
+
+            CsvReader reader = new CsvReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ), ',' );
+            try
+            {
+                assertEquals( NAMES, reader.readRecord() );
+                assertEquals( Arrays.asList( "a,b", "say \"hi\"", "30" ), reader.readRecord() );
+                // an empty string is quoted, a missing value is not
+                assertEquals( Arrays.asList( "first\nsecond", "", null ), reader.readRecord() );
+                assertNull( reader.readRecord() );
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void csvRepeatsTheHeaderWhenTheColumnsChange()
+        throws IOException
+    {
+        File file = File.createTempFile( "results", ".csv" );
+        try
+        {
+            List<String> other = Arrays.asList( "note" );
+            List<AbstractType<?>> otherTypes = Arrays.<AbstractType<?>>asList( UTF8Type.instance );
+            ResultWriter writer = new ResultWriter( file, "csv" );
+            writer.write( NAMES, TYPES, row( "a", "b", 1 ) );
+            writer.write( NAMES, TYPES, row( "c", "d", 2 ) );
+            writer.write( other, otherTypes, Arrays.asList( UTF8Type.instance.decompose( "e" ) ) );
+            writer.close();
+
+            assertEquals( Arrays.asList( "name,note,age", "a,b,1", "c,d,2", "note", "e" ), readLines( file ) );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void jsonWritesNumbersBooleansAndNullsAsSuch()
+        throws IOException
+    {
+        File file = File.createTempFile( "results", ".json" );
+        try
+        {
+            List<String> names = Arrays.asList( "name", "age", "ratio", "active", "missing" );
+            List<AbstractType<?>> types =
+                Arrays.<AbstractType<?>>asList( UTF8Type.instance, Int32Type.instance, DoubleType.instance,
+                                                BooleanType.instance, UTF8Type.instance );
+            ResultWriter writer = new ResultWriter( file, "json" );
+            writer.write( names, types, Arrays.asList( UTF8Type.instance.decompose( "say \"hi\"" ),
+                                                       Int32Type.instance.decompose( -30 ),
+                                                       DoubleType.instance.decompose( 0.5 ),
+                                                       BooleanType.instance.decompose( true ), null ) );
+            writer.write( names, types, Arrays.asList( UTF8Type.instance.decompose( "" ),
+                                                       Int32Type.instance.decompose( 0 ),
+                                                       DoubleType.instance.decompose( Double.NaN ),
+                                                       BooleanType.instance.decompose( false ),
+                                                       UTF8Type.instance.decompose( "null" ) ) );
+            writer.close();
+
+            assertEquals( Arrays.asList(
+                "{\"name\":\"say \\\"hi\\\"\",\"age\":-30,\"ratio\":0.5,\"active\":true,\"missing\":null}",
+                // NaN is no JSON number, and a text is quoted whatever it reads like
+                "{\"name\":\"\",\"age\":0,\"ratio\":\"NaN\",\"active\":false,\"missing\":\"null\"}" ),
+                          readLines( file ) );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsOtherFormats()
+        throws IOException
+    {
+        new ResultWriter( new File( "results.xml" ), "xml" );
+    }
+
+    private static List<ByteBuffer> row( String name, String note, Integer age )
+    {
+        return Arrays.asList( UTF8Type.instance.decompose( name ), UTF8Type.instance.decompose( note ),
+                              age == null ? null : Int32Type.instance.decompose( age ) );
+    }
+
+    private static List<String> readLines( File file )
+        throws IOException
+    {
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try
+        {
+            List<String> lines = new ArrayList<String>();
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                lines.add( line );
+            }
+            return lines;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+}